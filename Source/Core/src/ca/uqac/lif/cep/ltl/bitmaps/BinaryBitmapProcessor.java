@@ -21,15 +21,26 @@ import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.SynchronousProcessor;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import java.util.Queue;
 
 /**
  * Abstract processor implementing a binary bitmap connective or operator.
+ * Both inputs are either {@link BitmapAdapter}s or, for traces longer
+ * than {@link Integer#MAX_VALUE} events, {@link LongBitmapAdapter}s; the
+ * output is of the same kind.
  */
 public abstract class BinaryBitmapProcessor extends SynchronousProcessor
 {
   protected LTLBitmap.Type type;
   
+  /**
+   * Whether this processor is the only reader of its input bitmaps, in which
+   * case it may modify them and return them as its output instead of
+   * allocating a new bitmap
+   */
+  protected boolean inPlace = false;
+  
   public BinaryBitmapProcessor()
   {
     this(LTLBitmap.Type.RAW);
@@ -41,9 +52,29 @@ public abstract class BinaryBitmapProcessor extends SynchronousProcessor
     this.type = type;
   }
 
+  /**
+   * Declares whether this processor is the only reader of its input bitmaps.
+   * This is only safe if no other processor receives the same bitmaps.
+   * @param b Set to true to let the processor write its output into its
+   *   inputs
+   * @return This processor
+   */
+  public BinaryBitmapProcessor setInPlace(boolean b)
+  {
+    inPlace = b;
+    return this;
+  }
+
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
+    if (inputs[0] instanceof LongBitmapAdapter)
+    {
+      LongBitmapAdapter lba1 = (LongBitmapAdapter) inputs[0];
+      LongBitmapAdapter lba2 = (LongBitmapAdapter) inputs[1];
+      outputs.add(new Object[] {processLongBitmap(lba1, lba2)});
+      return false;
+    }
     BitmapAdapter ba1 = (BitmapAdapter) inputs[0];
     BitmapAdapter ba2 = (BitmapAdapter) inputs[1];
     outputs.add(new Object[] {processBitmap(ba1, ba2)});
@@ -52,6 +83,8 @@ public abstract class BinaryBitmapProcessor extends SynchronousProcessor
   
   protected abstract BitmapAdapter processBitmap(BitmapAdapter bitmap1, BitmapAdapter bitmap2);
 
+  protected abstract LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap1, LongBitmapAdapter bitmap2);
+
   @Override
   public Processor duplicate(boolean with_state)
   {
@@ -0,0 +1,54 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Bitmap implementation of the logical conjunction of any number of inputs,
+ * computed in one pass with {@link LTLBitmap#andAll(BitmapAdapter...)}.
+ */
+public class BitmapAndN extends NaryBitmapProcessor
+{
+  public BitmapAndN(Type type, int arity)
+  {
+    super(type, arity);
+  }
+
+  @Override
+  protected BitmapAdapter processBitmaps(BitmapAdapter[] bitmaps)
+  {
+    return LTLBitmap.andAll(bitmaps);
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmaps(LongBitmapAdapter first, LongBitmapAdapter[] others)
+  {
+    return first.opAndAll(others);
+  }
+
+  @Override
+  public Processor duplicate(boolean with_state)
+  {
+    return new BitmapAndN(type, getInputArity());
+  }
+}
@@ -0,0 +1,277 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Directed acyclic graph of bitmap processors computing an LTL formula,
+ * as produced by {@link FormulaCompiler}. Each node computes a distinct
+ * subformula; its inputs are the nodes of its operands, in the order of
+ * the input pipes of its processor. Leaves are the atoms, whose bitmaps
+ * are given by the caller, and constants, which have no processor and
+ * are as long as the trace minus their deficit.
+ * <p>
+ * The nodes can be connected into a BeepBeep graph, or evaluated
+ * directly with {@link #evaluate(Map)}.
+ */
+public class BitmapCircuit
+{
+  /**
+   * A subformula and the processor computing it
+   */
+  public static class Node
+  {
+    private final int index;
+
+    private final Formula formula;
+
+    private final SynchronousProcessor processor;
+
+    private final List<Node> inputs;
+
+    Node(int index, Formula formula, SynchronousProcessor processor, List<Node> inputs)
+    {
+      this.index = index;
+      this.formula = formula;
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+
+    /**
+     * Gets the position of this node in {@link BitmapCircuit#getNodes()}.
+     */
+    public int getIndex()
+    {
+      return index;
+    }
+
+    public Formula getFormula()
+    {
+      return formula;
+    }
+
+    /**
+     * Gets the processor of this node, or null for an atom or a constant.
+     */
+    public SynchronousProcessor getProcessor()
+    {
+      return processor;
+    }
+
+    public List<Node> getInputs()
+    {
+      return Collections.unmodifiableList(inputs);
+    }
+  }
+
+  private final LTLBitmap.Type type;
+
+  private final List<String> atoms;
+
+  private final List<Node> nodes;
+
+  private final Node output;
+
+  BitmapCircuit(LTLBitmap.Type type, List<String> atoms, List<Node> nodes, Node output)
+  {
+    this.type = type;
+    this.atoms = atoms;
+    this.nodes = nodes;
+    this.output = output;
+  }
+
+  /**
+   * Gets the names of the atoms of the compiled formula, in order of
+   * first occurrence, including those the simplified formula no longer
+   * reads.
+   */
+  public List<String> getAtoms()
+  {
+    return Collections.unmodifiableList(atoms);
+  }
+
+  /**
+   * Gets the nodes, each one after its inputs.
+   */
+  public List<Node> getNodes()
+  {
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * Gets the node computing the whole formula.
+   */
+  public Node getOutput()
+  {
+    return output;
+  }
+
+  /**
+   * Gets the number of processors in this circuit.
+   */
+  public int getProcessorCount()
+  {
+    int count = 0;
+    for (Node node : nodes)
+    {
+      if (node.processor != null)
+      {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Computes the formula, running each processor once. The bitmaps of
+   * the atoms are not modified.
+   * @param bitmaps The bitmap of each atom, all of the length of the
+   *   trace. A formula without atoms is evaluated over a trace of the
+   *   length of any bitmap in the map.
+   * @return The bitmap of the formula
+   */
+  public BitmapAdapter evaluate(Map<String, BitmapAdapter> bitmaps)
+  {
+    int length = -1;
+    for (String atom : atoms)
+    {
+      BitmapAdapter bm = bitmaps.get(atom);
+      if (bm == null)
+      {
+        throw new IllegalArgumentException("No bitmap for atom " + atom);
+      }
+      length = bm.size();
+    }
+    if (length < 0)
+    {
+      if (bitmaps.isEmpty())
+      {
+        throw new IllegalArgumentException("The length of the trace is unknown");
+      }
+      length = bitmaps.values().iterator().next().size();
+    }
+    // The last node reading each node, after which its bitmap is dropped
+    int[] lastReader = new int[nodes.size()];
+    for (Node node : nodes)
+    {
+      for (Node input : node.inputs)
+      {
+        lastReader[input.index] = node.index;
+      }
+    }
+    Object[] values = new Object[nodes.size()];
+    Queue<Object[]> queue = new ArrayDeque<Object[]>(1);
+    for (Node node : nodes)
+    {
+      Formula f = node.formula;
+      if (node.processor == null)
+      {
+        if (f.isConstant())
+        {
+          values[node.index] = new ConstantBitmap(type, Math.max(length - f.getDeficit(), 0),
+              f.getOperator() == Formula.Operator.TRUE);
+        }
+        else
+        {
+          values[node.index] = bitmaps.get(f.getName());
+        }
+        continue;
+      }
+      Object[] inputs = new Object[node.inputs.size()];
+      for (int i = 0; i < inputs.length; i++)
+      {
+        inputs[i] = values[node.inputs.get(i).index];
+      }
+      compute(node.processor, inputs, queue);
+      values[node.index] = queue.remove()[0];
+      for (Node input : node.inputs)
+      {
+        if (lastReader[input.index] == node.index)
+        {
+          values[input.index] = null;
+        }
+      }
+    }
+    BitmapAdapter answer = (BitmapAdapter) values[output.index];
+    // The caller owns the bitmap of an atom
+    return output.processor == null ? answer.clone() : answer;
+  }
+
+  /**
+   * Computes the formula at given positions only, reading only the parts
+   * of the bitmaps of the atoms these verdicts depend on.
+   * @see VerdictEvaluator
+   */
+  public boolean[] evaluateAt(Map<String, BitmapAdapter> bitmaps, int ... positions)
+  {
+    return new VerdictEvaluator(output.formula).evaluate(bitmaps, positions);
+  }
+
+  private static void compute(SynchronousProcessor p, Object[] inputs, Queue<Object[]> outputs)
+  {
+    if (p instanceof UnaryBitmapProcessor)
+    {
+      ((UnaryBitmapProcessor) p).compute(inputs, outputs);
+    }
+    else if (p instanceof BinaryBitmapProcessor)
+    {
+      ((BinaryBitmapProcessor) p).compute(inputs, outputs);
+    }
+    else
+    {
+      ((NaryBitmapProcessor) p).compute(inputs, outputs);
+    }
+  }
+
+  /**
+   * Lists the nodes, one per line.
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder out = new StringBuilder();
+    for (Node node : nodes)
+    {
+      out.append('#').append(node.index).append(" = ");
+      if (node.processor == null)
+      {
+        out.append(node.formula);
+      }
+      else
+      {
+        out.append(node.processor.getClass().getSimpleName()).append('(');
+        for (int i = 0; i < node.inputs.size(); i++)
+        {
+          out.append(i > 0 ? ", #" : "#").append(node.inputs.get(i).index);
+        }
+        out.append(')');
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+}
@@ -17,9 +17,10 @@
  */
 package ca.uqac.lif.cep.ltl.bitmaps;
 
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
-import static ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.createAdapter;
 
 /**
  * Bitmap implementation of the LTL "future" operator. 
@@ -34,13 +35,12 @@ public class BitmapF extends UnaryBitmapProcessor
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter bitmap)
   {
-    int last1 = bitmap.last1();
-    if (last1 == -1) {
-        return bitmap.clone();
-    }
-    BitmapAdapter newBm = createAdapter(type);
-    newBm.addMany(true, last1 + 1);
-    newBm.addMany(false, bitmap.size() - last1 - 1);
-    return newBm;
+    return LTLBitmap.future(type, bitmap);
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap)
+  {
+    return LTLBitmap.future(type, bitmap);
   }
 }
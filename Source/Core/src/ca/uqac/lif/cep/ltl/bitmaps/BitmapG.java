@@ -19,6 +19,7 @@ package ca.uqac.lif.cep.ltl.bitmaps;
 
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
 
 /**
@@ -34,14 +35,12 @@ public class BitmapG extends UnaryBitmapProcessor
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter bitmap)
   {
-    int last0 = bitmap.last0();
-    if (last0 == -1) {
-        return bitmap.clone();
-    }
+    return LTLBitmap.global(type, bitmap);
+  }
 
-    BitmapAdapter newBm = LTLBitmap.createAdapter(type);
-    newBm.addMany(false, last0 + 1);
-    newBm.addMany(true, bitmap.size() - last0 - 1);
-    return newBm;
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap)
+  {
+    return LTLBitmap.global(type, bitmap);
   }
 }
@@ -17,7 +17,10 @@
  */
 package ca.uqac.lif.cep.ltl.bitmaps;
 
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
 
 /**
@@ -32,6 +35,19 @@ public class BitmapImplies extends BinaryBitmapProcessor
 
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter left, BitmapAdapter right)
+  {
+    if (inPlace && left != right && !(left instanceof ConstantBitmap)
+        && !(right instanceof ConstantBitmap))
+    {
+      left.notInPlace();
+      left.orInPlace(right);
+      return left;
+    }
+    return LTLBitmap.implies(left, right);
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter left, LongBitmapAdapter right)
   {
     return left.opNot().opOr(right);
   }
@@ -18,6 +18,7 @@
 package ca.uqac.lif.cep.ltl.bitmaps;
 
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
 
 /**
@@ -33,6 +34,17 @@ public class BitmapNot extends UnaryBitmapProcessor
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter bitmap)
   {
-    return bitmap.clone().opNot();
+    if (inPlace)
+    {
+      bitmap.notInPlace();
+      return bitmap;
+    }
+    return bitmap.opNot();
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap)
+  {
+    return bitmap.opNot();
   }
 }
@@ -0,0 +1,825 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates LTL formulas over bitmaps in an order, and with encodings,
+ * chosen from statistics on the bitmaps rather than from the structure of
+ * the formula. Each bitmap, computed or not yet, is described by its
+ * {@link Statistics}, from which the number of words each encoding needs
+ * for it is estimated; the cost of an operator is the number of words it
+ * reads and writes.
+ * <ul>
+ * <li>The operands of a conjunction are combined from the sparsest to
+ * the densest, so that intermediate results stay small, and those of a
+ * disjunction from the densest to the sparsest. Once a conjunction is 0
+ * everywhere, or a disjunction 1 everywhere, its remaining operands are
+ * not computed at all.</li>
+ * <li>The result of each operator is stored in the encoding, among the
+ * candidates, that needs the fewest words for it.</li>
+ * <li>The connectives need operands of the same class. An operand is
+ * converted to another encoding only when the words this saves pay for
+ * the conversion, whose cost is shared among the operators that read
+ * the operand.</li>
+ * </ul>
+ * Formulas are first simplified by a {@link FormulaCompiler}, so that
+ * each distinct subformula is computed at most once.
+ */
+public class BitmapPlanner
+{
+  /**
+   * Number of bits in the words counted by the cost estimates
+   */
+  protected static final int WORD_IN_BITS = 64;
+
+  /**
+   * The length, number of 1s and number of runs of 1s of a bitmap,
+   * measured or estimated
+   */
+  public static class Statistics
+  {
+    private final int size;
+
+    private final int ones;
+
+    private final int runs;
+
+    public Statistics(int size, int ones, int runs)
+    {
+      this.size = size;
+      this.ones = ones;
+      this.runs = runs;
+    }
+
+    /**
+     * Creates estimated statistics, kept consistent with each other: there
+     * are at most as many runs as 1s, and as 0s plus one.
+     */
+    private static Statistics of(int size, double ones, double runs)
+    {
+      int o = (int) Math.round(Math.max(0, Math.min(size, ones)));
+      int max = Math.min(o, size - o + 1);
+      int r = (int) Math.round(Math.max(o > 0 ? 1 : 0, Math.min(max, runs)));
+      return new Statistics(size, o, r);
+    }
+
+    /**
+     * Measures a bitmap. Runs are counted with one search each, on a
+     * prefix of the bitmap holding at most one run per 16 words, and
+     * extrapolated to the rest, since estimates only need their order of
+     * magnitude.
+     */
+    public static Statistics measure(BitmapAdapter bm)
+    {
+      int size = bm.size();
+      int cap = size / WORD_IN_BITS / 16 + 1;
+      int runs = 0;
+      int pos = bm.nextSetBit(0);
+      while (pos != -1 && runs < cap)
+      {
+        runs++;
+        pos = bm.nextClearBit(pos);
+        if (pos == -1)
+        {
+          break;
+        }
+        pos = bm.nextSetBit(pos);
+      }
+      if (pos != -1 && pos > 0)
+      {
+        runs = (int) Math.min(size, (long) runs * size / pos);
+      }
+      return new Statistics(size, bm.cardinality(), runs);
+    }
+
+    public int getSize()
+    {
+      return size;
+    }
+
+    public int getOnes()
+    {
+      return ones;
+    }
+
+    public int getRuns()
+    {
+      return runs;
+    }
+
+    /**
+     * Estimates the number of 64-bit words a bitmap with these statistics
+     * takes in a given encoding.
+     */
+    public long words(LTLBitmap.Type type)
+    {
+      long raw = size / WORD_IN_BITS + 1;
+      // Compressed encodings have a fill and a literal per run at worst
+      long fills = Math.min(raw, 2L * runs + 1);
+      // Sorted positions take 16 bits each, until containers become words
+      long positions = Math.min(raw, ones / 4 + 1);
+      switch (type)
+      {
+      case RAW:
+      case RAW64:
+      case OFFHEAP:
+        return raw;
+      case RUNS:
+        // Two ints per run
+        return runs + 1;
+      case ROARING:
+        return positions;
+      case AUTO:
+        return Math.min(fills, positions);
+      default:
+        return fills;
+      }
+    }
+
+    private double density()
+    {
+      return size == 0 ? 0 : (double) ones / size;
+    }
+
+    Statistics not()
+    {
+      return of(size, size - ones, runs + 1);
+    }
+
+    Statistics next(int k)
+    {
+      int n = Math.max(size - k, 0);
+      return of(n, size == 0 ? 0 : (double) ones * n / size, runs);
+    }
+
+    /**
+     * Estimates G: the last run of 1s, if it reaches the end.
+     */
+    Statistics global()
+    {
+      return of(size, ones == size ? size : (double) ones / Math.max(runs, 1), 1);
+    }
+
+    /**
+     * Estimates F: everything but the last run of 0s.
+     */
+    Statistics future()
+    {
+      int zeros = size - ones;
+      return of(size, zeros == size ? 0 : size - (double) zeros / (runs + 1), 1);
+    }
+
+    /**
+     * Estimates a conjunction, assuming the operands are independent.
+     */
+    Statistics and(Statistics s)
+    {
+      int n = Math.max(size, s.size);
+      double p = density() * s.density() * n;
+      return of(n, p, runs * s.density() + s.runs * density());
+    }
+
+    Statistics or(Statistics s)
+    {
+      int n = Math.max(size, s.size);
+      double p = density() + s.density() - density() * s.density();
+      return of(n, p * n, runs * (1 - s.density()) + s.runs * (1 - density()));
+    }
+
+    Statistics xor(Statistics s)
+    {
+      int n = Math.max(size, s.size);
+      double p = density() + s.density() - 2 * density() * s.density();
+      return of(n, p * n, runs + s.runs);
+    }
+
+    /**
+     * Estimates this U <i>s</i>, which holds where <i>s</i> does and on
+     * part of the 1s of this before them.
+     */
+    Statistics until(Statistics s)
+    {
+      Statistics or = or(s);
+      return of(or.size, (s.ones + or.ones) / 2.0, s.runs);
+    }
+
+    /**
+     * Estimates this R <i>s</i>, which holds where both do and on part of
+     * the 1s of <i>s</i>.
+     */
+    Statistics release(Statistics s)
+    {
+      Statistics and = and(s);
+      return of(and.size, (s.ones + and.ones) / 2.0, s.runs);
+    }
+
+    @Override
+    public String toString()
+    {
+      return size + " bits, " + ones + " ones, " + runs + " runs";
+    }
+  }
+
+  /**
+   * The type of the bitmaps of the atoms and of the results
+   */
+  protected LTLBitmap.Type type;
+
+  /**
+   * The encodings the planner may store intermediate results in
+   */
+  protected Set<LTLBitmap.Type> candidates;
+
+  protected FormulaCompiler compiler;
+
+  /**
+   * Creates a planner whose intermediate results may be stored as words,
+   * as runs, compressed with EWAH, or as sorted positions, besides the
+   * type of the atoms.
+   * @param type The type of the bitmaps of the atoms, and of the results
+   */
+  public BitmapPlanner(LTLBitmap.Type type)
+  {
+    this.type = type;
+    this.compiler = new FormulaCompiler(type);
+    setCandidates(LTLBitmap.Type.RAW64, LTLBitmap.Type.RUNS, LTLBitmap.Type.EWAH,
+        LTLBitmap.Type.ROARING);
+  }
+
+  /**
+   * Sets the encodings in which intermediate results may be stored, in
+   * addition to the type of the atoms. {@link LTLBitmap.Type#AUTO}, which
+   * picks its own encoding, is only used if it is the type of the atoms,
+   * and then alone.
+   * @return This planner
+   */
+  public BitmapPlanner setCandidates(LTLBitmap.Type ... types)
+  {
+    candidates = EnumSet.of(type, types);
+    candidates.remove(LTLBitmap.Type.AUTO);
+    if (type == LTLBitmap.Type.AUTO)
+    {
+      // An auto bitmap can only be combined with another one
+      candidates = EnumSet.of(type);
+    }
+    return this;
+  }
+
+  /**
+   * Parses and evaluates a formula.
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public BitmapAdapter evaluate(String formula, Map<String, BitmapAdapter> bitmaps)
+  {
+    return evaluate(FormulaParser.parse(formula), bitmaps);
+  }
+
+  /**
+   * Evaluates a formula. The result is the same as that of
+   * {@link BitmapCircuit#evaluate(Map)} for the circuit of the formula.
+   * @param bitmaps The bitmap of each atom, of the type of this planner
+   *   and all of the length of the trace. The bitmaps are not modified.
+   * @return The bitmap of the formula, of the type of this planner
+   */
+  public BitmapAdapter evaluate(Formula formula, Map<String, BitmapAdapter> bitmaps)
+  {
+    Formula root = compiler.simplify(formula);
+    int length = -1;
+    for (BitmapAdapter bm : bitmaps.values())
+    {
+      length = bm.size();
+      break;
+    }
+    List<String> atoms = new ArrayList<String>();
+    atoms(formula, new LinkedHashSet<String>(), atoms);
+    for (String atom : atoms)
+    {
+      if (!bitmaps.containsKey(atom))
+      {
+        throw new IllegalArgumentException("No bitmap for atom " + atom);
+      }
+      length = bitmaps.get(atom).size();
+    }
+    if (length < 0)
+    {
+      throw new IllegalArgumentException("The length of the trace is unknown");
+    }
+    Evaluation e = new Evaluation(bitmaps, length);
+    e.countReaders(root);
+    Value v = e.eval(root);
+    BitmapAdapter answer = v.get(type);
+    if (bitmaps.containsValue(answer))
+    {
+      // The caller owns the bitmaps of the atoms
+      answer = answer.clone();
+    }
+    return answer;
+  }
+
+  private static void atoms(Formula f, Set<String> seen, List<String> atoms)
+  {
+    if (f.getOperator() == Operator.ATOM && seen.add(f.getName()))
+    {
+      atoms.add(f.getName());
+    }
+    for (int i = 0; i < f.getArity(); i++)
+    {
+      atoms(f.getOperand(i), seen, atoms);
+    }
+  }
+
+  /**
+   * Picks the encoding that takes the fewest words for a result.
+   */
+  protected LTLBitmap.Type cheapest(Statistics s)
+  {
+    LTLBitmap.Type best = type;
+    for (LTLBitmap.Type t : candidates)
+    {
+      if (s.words(t) < s.words(best))
+      {
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * The bitmap of a subformula, in the encoding it was computed in and in
+   * those it was converted to
+   */
+  private static class Value
+  {
+    private BitmapAdapter bitmap;
+
+    /**
+     * The type of {@link #bitmap}; that of a constant is its own
+     */
+    private final LTLBitmap.Type encoding;
+
+    private final Map<LTLBitmap.Type, BitmapAdapter> copies = new EnumMap<LTLBitmap.Type, BitmapAdapter>(LTLBitmap.Type.class);
+
+    /**
+     * The number of operators that still have to read this value
+     */
+    private int readers;
+
+    private Statistics stats = null;
+
+    Value(BitmapAdapter bitmap, LTLBitmap.Type encoding, int readers)
+    {
+      this.bitmap = bitmap;
+      this.encoding = encoding;
+      this.readers = readers;
+    }
+
+    boolean isConstant()
+    {
+      return ConstantBitmap.isConstant(bitmap);
+    }
+
+    Statistics stats()
+    {
+      if (stats == null)
+      {
+        stats = Statistics.measure(bitmap);
+      }
+      return stats;
+    }
+
+    boolean has(LTLBitmap.Type t)
+    {
+      return isConstant() || encoding == t || copies.containsKey(t);
+    }
+
+    /**
+     * Gets the bitmap in a given encoding, converting it the first time.
+     */
+    BitmapAdapter get(LTLBitmap.Type t)
+    {
+      if (isConstant())
+      {
+        // A constant is expanded into its own type when it is padded
+        ConstantBitmap c = (ConstantBitmap) bitmap;
+        return c.getType() == t ? c : new ConstantBitmap(t, c.size(), c.getValue());
+      }
+      if (encoding == t)
+      {
+        return bitmap;
+      }
+      BitmapAdapter copy = copies.get(t);
+      if (copy == null)
+      {
+        copy = LTLBitmap.convert(bitmap, t);
+        copies.put(t, copy);
+      }
+      return copy;
+    }
+
+    /**
+     * Estimates the words read to get the bitmap in a given encoding,
+     * including this operator's share of the conversion.
+     */
+    long cost(LTLBitmap.Type t)
+    {
+      if (isConstant())
+      {
+        return 0;
+      }
+      long words = stats().words(t);
+      if (has(t))
+      {
+        return words;
+      }
+      long conversion = stats().runs + stats().words(encoding) + words;
+      return words + conversion / Math.max(readers, 1);
+    }
+
+    void release()
+    {
+      if (--readers == 0)
+      {
+        bitmap = null;
+        copies.clear();
+      }
+    }
+  }
+
+  /**
+   * The state of the evaluation of a formula
+   */
+  private class Evaluation
+  {
+    private final Map<String, BitmapAdapter> bitmaps;
+
+    private final int length;
+
+    private final Map<Formula, Value> values = new IdentityHashMap<Formula, Value>();
+
+    private final Map<Formula, Statistics> estimates = new IdentityHashMap<Formula, Statistics>();
+
+    private final Map<Formula, Integer> readers = new IdentityHashMap<Formula, Integer>();
+
+    Evaluation(Map<String, BitmapAdapter> bitmaps, int length)
+    {
+      this.bitmaps = bitmaps;
+      this.length = length;
+    }
+
+    void countReaders(Formula root)
+    {
+      readers.put(root, 1);
+      count(root);
+    }
+
+    private void count(Formula f)
+    {
+      for (int i = 0; i < f.getArity(); i++)
+      {
+        Formula operand = f.getOperand(i);
+        Integer count = readers.get(operand);
+        readers.put(operand, count == null ? 1 : count + 1);
+        if (count == null)
+        {
+          count(operand);
+        }
+      }
+    }
+
+    private int lengthOf(Formula f)
+    {
+      return Math.max(length - f.getDeficit(), 0);
+    }
+
+    /**
+     * Gets the statistics of a subformula: measured if it was computed,
+     * and otherwise estimated from those of its operands.
+     */
+    Statistics estimate(Formula f)
+    {
+      Value v = values.get(f);
+      if (v != null && v.bitmap != null)
+      {
+        return v.stats();
+      }
+      Statistics s = estimates.get(f);
+      if (s != null)
+      {
+        return s;
+      }
+      switch (f.getOperator())
+      {
+      case TRUE:
+      case FALSE:
+        int n = lengthOf(f);
+        boolean value = f.getOperator() == Operator.TRUE;
+        s = new Statistics(n, value ? n : 0, value && n > 0 ? 1 : 0);
+        break;
+      case ATOM:
+        s = Statistics.measure(bitmaps.get(f.getName()));
+        break;
+      case NOT:
+        s = estimate(f.getOperand(0)).not();
+        break;
+      case X:
+        s = estimate(f.getOperand(0)).next(f.getSteps());
+        break;
+      case G:
+        s = estimate(f.getOperand(0)).global();
+        break;
+      case F:
+        s = estimate(f.getOperand(0)).future();
+        break;
+      case AND:
+      case OR:
+        s = estimate(f.getOperand(0));
+        for (int i = 1; i < f.getArity(); i++)
+        {
+          Statistics t = estimate(f.getOperand(i));
+          s = f.getOperator() == Operator.AND ? s.and(t) : s.or(t);
+        }
+        break;
+      case XOR:
+        s = estimate(f.getOperand(0)).xor(estimate(f.getOperand(1)));
+        break;
+      case U:
+      case W:
+        s = estimate(f.getOperand(0)).until(estimate(f.getOperand(1)));
+        break;
+      default:
+        s = estimate(f.getOperand(0)).release(estimate(f.getOperand(1)));
+        break;
+      }
+      estimates.put(f, s);
+      return s;
+    }
+
+    Value eval(Formula f)
+    {
+      Value v = values.get(f);
+      if (v == null)
+      {
+        v = compute(f);
+        values.put(f, v);
+      }
+      return v;
+    }
+
+    private Value compute(Formula f)
+    {
+      int readCount = readers.get(f);
+      switch (f.getOperator())
+      {
+      case TRUE:
+      case FALSE:
+        return new Value(new ConstantBitmap(type, lengthOf(f), f.getOperator() == Operator.TRUE),
+            type, readCount);
+      case ATOM:
+        Value atom = new Value(bitmaps.get(f.getName()), type, readCount);
+        atom.stats = estimates.get(f);
+        return atom;
+      case NOT:
+      case X:
+      {
+        Value in = eval(f.getOperand(0));
+        BitmapAdapter bm = f.getOperator() == Operator.NOT ? in.bitmap.opNot()
+            : in.bitmap.shiftLeft(f.getSteps());
+        in.release();
+        return new Value(bm, in.encoding, readCount);
+      }
+      case G:
+      case F:
+      {
+        Value in = eval(f.getOperand(0));
+        LTLBitmap.Type t = cheapest(estimate(f));
+        BitmapAdapter bm = f.getOperator() == Operator.G ? LTLBitmap.global(t, in.bitmap)
+            : LTLBitmap.future(t, in.bitmap);
+        in.release();
+        return new Value(bm, t, readCount);
+      }
+      case AND:
+      case OR:
+        return junction(f, readCount);
+      case XOR:
+      {
+        Value left = eval(f.getOperand(0));
+        Value right = eval(f.getOperand(1));
+        LTLBitmap.Type t = choose(estimate(f), left, right);
+        BitmapAdapter bm = LTLBitmap.xor(left.get(t), right.get(t));
+        left.release();
+        right.release();
+        return new Value(bm, t, readCount);
+      }
+      default:
+      {
+        Value left = eval(f.getOperand(0));
+        Value right = eval(f.getOperand(1));
+        // Only operands of the same class have their words read directly
+        LTLBitmap.Type t = choose(estimate(f), left, right);
+        BitmapAdapter l = left.get(t);
+        BitmapAdapter r = right.get(t);
+        BitmapAdapter bm;
+        switch (f.getOperator())
+        {
+        case U:
+          bm = LTLBitmap.until(t, l, r);
+          break;
+        case W:
+          bm = LTLBitmap.weakUntil(t, l, r);
+          break;
+        case R:
+          bm = LTLBitmap.release(t, l, r);
+          break;
+        default:
+          bm = LTLBitmap.strongRelease(t, l, r);
+          break;
+        }
+        left.release();
+        right.release();
+        return new Value(bm, t, readCount);
+      }
+      }
+    }
+
+    /**
+     * Picks the encoding in which to combine operands: the one minimizing
+     * the words read, converted and written.
+     */
+    private LTLBitmap.Type choose(Statistics result, Value ... operands)
+    {
+      Set<LTLBitmap.Type> types = new LinkedHashSet<LTLBitmap.Type>();
+      // On a tie, the operands are left as they are
+      for (Value v : operands)
+      {
+        if (!v.isConstant())
+        {
+          types.add(v.encoding);
+        }
+      }
+      types.addAll(candidates);
+      LTLBitmap.Type best = null;
+      long bestCost = Long.MAX_VALUE;
+      for (LTLBitmap.Type t : types)
+      {
+        long cost = result.words(t);
+        for (Value v : operands)
+        {
+          cost += v.cost(t);
+        }
+        if (cost < bestCost)
+        {
+          best = t;
+          bestCost = cost;
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Computes a conjunction or a disjunction. If its result is expected to
+     * compress well, operands are combined one at a time, from the one that
+     * shrinks the intermediate result the most, until the result can no
+     * longer change. Otherwise, every pass over an intermediate result
+     * would read as many words as an operand, and all the operands are
+     * combined in a single pass.
+     */
+    private Value junction(Formula f, int readCount)
+    {
+      final boolean or = f.getOperator() == Operator.OR;
+      List<Formula> operands = new ArrayList<Formula>(f.getOperands());
+      Collections.sort(operands, new Comparator<Formula>()
+      {
+        @Override
+        public int compare(Formula f1, Formula f2)
+        {
+          int d = estimate(f1).ones - estimate(f2).ones;
+          return or ? -d : d;
+        }
+      });
+      Statistics s = estimate(f);
+      if (2 * s.words(cheapest(s)) > s.words(LTLBitmap.Type.RAW64))
+      {
+        Value[] in = new Value[operands.size()];
+        BitmapAdapter[] bms = new BitmapAdapter[in.length];
+        for (int i = 0; i < in.length; i++)
+        {
+          in[i] = eval(operands.get(i));
+        }
+        LTLBitmap.Type t = choose(s, in);
+        for (int i = 0; i < in.length; i++)
+        {
+          bms[i] = in[i].get(t);
+        }
+        BitmapAdapter bm = or ? LTLBitmap.orAll(bms) : LTLBitmap.andAll(bms);
+        for (Value v : in)
+        {
+          v.release();
+        }
+        return new Value(bm, t, readCount);
+      }
+      return fold(f, operands, readCount);
+    }
+
+    /**
+     * Combines the operands of a conjunction or a disjunction in the given
+     * order, one at a time.
+     */
+    private Value fold(Formula f, List<Formula> operands, int readCount)
+    {
+      boolean or = f.getOperator() == Operator.OR;
+      int n = lengthOf(f);
+      Value acc = null;
+      for (Formula g : operands)
+      {
+        if (acc != null && decided(acc.bitmap, or, n))
+        {
+          break;
+        }
+        Value in = null;
+        boolean negated = false;
+        if (acc != null && g.getOperator() == Operator.NOT && readers.get(g) == 1)
+        {
+          // a & !b and a | !b are single operators, if no padding is involved
+          in = eval(g.getOperand(0));
+          negated = in.bitmap.size() == acc.bitmap.size() && !in.isConstant();
+        }
+        if (!negated)
+        {
+          in = eval(g);
+        }
+        if (acc == null)
+        {
+          acc = new Value(in.bitmap, in.encoding, 1);
+          acc.stats = in.stats;
+          in.release();
+          continue;
+        }
+        Statistics s = negated ? in.stats().not() : in.stats();
+        LTLBitmap.Type t = choose(or ? acc.stats().or(s) : acc.stats().and(s), acc, in);
+        BitmapAdapter left = acc.get(t);
+        BitmapAdapter right = in.get(t);
+        BitmapAdapter bm;
+        if (negated)
+        {
+          bm = or ? left.opOrNot(right) : left.opAndNot(right);
+        }
+        else
+        {
+          bm = or ? LTLBitmap.or(left, right) : LTLBitmap.and(left, right);
+        }
+        in.release();
+        acc = new Value(bm, t, 1);
+      }
+      if (!or && acc.bitmap.cardinality() == 0 && acc.bitmap.size() < n)
+      {
+        // The operands left out could only have made the result longer
+        return new Value(new ConstantBitmap(acc.encoding, n, false), acc.encoding, readCount);
+      }
+      return new Value(acc.bitmap, acc.encoding, readCount);
+    }
+
+    /**
+     * Tells whether a partial conjunction is 0 everywhere, or a partial
+     * disjunction 1 everywhere, in which case the other operands cannot
+     * change it, except for the length of a conjunction.
+     */
+    private boolean decided(BitmapAdapter bm, boolean or, int n)
+    {
+      if (or)
+      {
+        return bm.size() == n && bm.cardinality() == n;
+      }
+      return bm.cardinality() == 0;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+import ca.uqac.phoenixxie.ltl.bitmap.ParallelUntil;
+
+/**
+ * Bitmap implementation of the LTL "release" operator, the dual of
+ * "until".
+ */
+public class BitmapR extends BinaryBitmapProcessor
+{
+  /**
+   * Evaluator used to split large bitmaps across threads, or null to
+   * evaluate them on the calling thread
+   */
+  protected ParallelUntil parallel;
+
+  public BitmapR(Type type)
+  {
+    this(type, null);
+  }
+
+  public BitmapR(Type type, ParallelUntil parallel)
+  {
+    super(type);
+    this.parallel = parallel;
+  }
+
+  @Override
+  protected BitmapAdapter processBitmap(BitmapAdapter left, BitmapAdapter right)
+  {
+    if (parallel != null)
+    {
+      return parallel.release(type, left, right);
+    }
+    return LTLBitmap.release(type, left, right);
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter left, LongBitmapAdapter right)
+  {
+    if (parallel != null)
+    {
+      return parallel.release(left, right);
+    }
+    return LTLBitmap.release(left, right);
+  }
+}
@@ -17,149 +17,51 @@
  */
 package ca.uqac.lif.cep.ltl.bitmaps;
 
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
-import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapIterator;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
-
-import static ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.createAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.ParallelUntil;
 
 /**
  * Bitmap implementation of the LTL "until" operator. 
  */
 public class BitmapU extends BinaryBitmapProcessor
 {
+  /**
+   * Evaluator used to split large bitmaps across threads, or null to
+   * evaluate them on the calling thread
+   */
+  protected ParallelUntil parallel;
+
   public BitmapU(Type type)
+  {
+    this(type, null);
+  }
+
+  public BitmapU(Type type, ParallelUntil parallel)
   {
     super(type);
+    this.parallel = parallel;
   }
 
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter left, BitmapAdapter right)
   {
-    if (left.size() > right.size()) {
-      right.addMany(false, left.size() - right.size());
-    } else if (left.size() < right.size()) {
-      left.addMany(false, right.size() - left.size());
+    if (parallel != null)
+    {
+      return parallel.until(type, left, right);
     }
+    return LTLBitmap.until(type, left, right);
+  }
 
-    BitmapIterator ita = left.begin();
-    BitmapIterator itb = right.begin();
-    BitmapAdapter answer = createAdapter(type);
-
-    int pos = 0;
-    BitmapIterator ita1 = ita, ita0 = ita;
-    BitmapIterator itb1 = itb, itb0 = itb;
-    while (!ita.isEnd() && !itb.isEnd()) {
-      if (ita.index() >= ita1.index()) {
-        ita1 = ita.find1();
-      }
-      if (ita1 == null) {
-        ita = null;
-      }
-      if (itb.index() >= itb1.index()) {
-        itb1 = itb.find1();
-      }
-      if (itb1 == null) {
-        itb = null;
-      }
-      if (ita == null || itb == null) {
-        break;
-      }
-
-      int near1 = Math.min(ita1.index(), itb1.index());
-      if (near1 > pos) {
-        int off = near1 - pos;
-        answer.addMany(false, off);
-        if (near1 == ita1.index()) {
-          ita = ita1;
-        } else {
-          ita.moveForward(off);
-        }
-        if (near1 == itb1.index()) {
-          itb = itb1;
-        } else {
-          itb.moveForward(off);
-        }
-
-        pos = near1;
-
-        continue;
-      }
-
-      if (itb1.index() == pos) {
-        if (itb0.index() <= itb1.index()) {
-          itb0 = itb1.find0();
-        }
-        if (itb0 == null) {
-          itb0 = right.end();
-        }
-
-        int off = itb0.index() - pos;
-        answer.addMany(true, off);
-        ita.moveForward(off);
-        itb = itb0;
-        pos = itb0.index();
-        continue;
-      }
-
-      if (ita0.index() <= ita1.index()) {
-        ita0 = ita1.find0();
-      }
-      if (ita0 == null) {
-        ita0 = left.end();
-      }
-
-      if (ita0.index() >= itb1.index()) {
-        int off = itb1.index() - pos + 1;
-        answer.addMany(true, off);
-        ita.moveForward(off);
-        itb.moveForward(off);
-        pos += off;
-      } else {
-        int off = ita0.index() - pos + 1;
-        answer.addMany(false, off);
-        ita.moveForward(off);
-        itb.moveForward(off);
-        pos += off;
-      }
-    }
-
-    if (itb == null) {
-      answer.addMany(false, left.size() - answer.size());
-    } else if (ita == null) {
-      pos = itb.index();
-      while (!itb.isEnd()) {
-        if (itb1.index() <= itb.index()) {
-          itb1 = itb.find1();
-        }
-        if (itb1 == null) {
-          answer.addMany(false, left.size() - answer.size());
-          break;
-        }
-        if (itb1.index() > pos) {
-          int off = itb1.index() - pos;
-          answer.addMany(false, off);
-          pos = itb1.index();
-          itb = itb1;
-          continue;
-        }
-
-        if (itb0.index() <= itb1.index()) {
-          itb0 = itb1.find0();
-        }
-        if (itb0 == null) {
-          answer.addMany(true, left.size() - answer.size());
-          break;
-        }
-        if (itb0.index() > pos) {
-          int off = itb0.index() - pos;
-          answer.addMany(true, off);
-          pos = itb0.index();
-          itb = itb0;
-        }
-      }
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter left, LongBitmapAdapter right)
+  {
+    if (parallel != null)
+    {
+      return parallel.until(left, right);
     }
-    assert answer.size() == left.size();
-    return answer;
+    return LTLBitmap.until(left, right);
   }
 }
@@ -0,0 +1,223 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+
+/**
+ * The bitmap of a formula over the last events of a trace, stored in a
+ * circular buffer of 64-bit words. Positions are absolute: the bit of
+ * the <i>i</i>-th event of the trace is in word <i>i</i>/64, modulo the
+ * capacity of the buffer, so that the words of all the windows of a
+ * trace are aligned and operators combine them word by word. Sliding the
+ * window forward drops the words of the oldest events without moving
+ * anything.
+ * <p>
+ * Windows are updated in place by the processor owning them, which also
+ * records the first position whose value changed in the last update;
+ * readers must use them before the next update.
+ */
+public class BitmapWindow
+{
+  /**
+   * The words, whose number is a power of two
+   */
+  private long[] words = new long[2];
+
+  /**
+   * The absolute position of the first event in the window
+   */
+  long start = 0;
+
+  /**
+   * The absolute position following the last event in the window
+   */
+  long end = 0;
+
+  /**
+   * The first absolute position whose value changed in the last update
+   */
+  long changed = 0;
+
+  /**
+   * Gets the position of the first event of the window in the trace.
+   */
+  public long getStart()
+  {
+    return start;
+  }
+
+  /**
+   * Gets the number of positions in the window.
+   */
+  public int size()
+  {
+    return (int) (end - start);
+  }
+
+  /**
+   * Gets the first position of the window whose value changed in the
+   * last update; the values before it are those of the previous window,
+   * shifted by the number of events dropped.
+   */
+  public int getChanged()
+  {
+    return (int) (Math.max(changed, start) - start);
+  }
+
+  /**
+   * Gets the value at a position of the window.
+   * @param position The position, starting from the oldest event of the
+   *   window
+   */
+  public boolean get(int position)
+  {
+    if (position < 0 || position >= size())
+    {
+      throw new IllegalArgumentException("Position " + position
+          + " is outside the window, of size " + size());
+    }
+    return getAt(start + position);
+  }
+
+  /**
+   * Copies the window into a bitmap.
+   */
+  public BitmapAdapter toBitmap(LTLBitmap.Type type)
+  {
+    BitmapAdapter bm = LTLBitmap.createAdapter(type);
+    long pos = start;
+    while (pos < end)
+    {
+      long w = pos >>> 6;
+      int bit = (int) (pos & 63);
+      long v = word(w) >>> bit;
+      boolean b = (v & 1) != 0;
+      // The run of b starting at pos, within this word
+      int length = Long.numberOfTrailingZeros(b ? ~v : v);
+      int count = (int) Math.min(Math.min(length, 64 - bit), end - pos);
+      bm.addMany(b, count);
+      pos += count;
+    }
+    return bm;
+  }
+
+  /**
+   * Creates a copy of this window, which does not share its words.
+   */
+  BitmapWindow copy()
+  {
+    BitmapWindow w = new BitmapWindow();
+    w.words = words.clone();
+    w.start = start;
+    w.end = end;
+    w.changed = changed;
+    return w;
+  }
+
+  boolean getAt(long position)
+  {
+    return (word(position >>> 6) & (1L << position)) != 0;
+  }
+
+  /**
+   * Gets a word, whose bits at or after the end of the window are 0.
+   * Only the bits within the window are meaningful.
+   */
+  long word(long w)
+  {
+    long base = w << 6;
+    if (base >= end)
+    {
+      return 0;
+    }
+    long v = words[(int) (w & (words.length - 1))];
+    return end - base < 64 ? v & ((1L << (end - base)) - 1) : v;
+  }
+
+  /**
+   * Gets the mask of the bits of a word before the end of the window.
+   */
+  long extent(long w)
+  {
+    return mask(w, w << 6, end);
+  }
+
+  /**
+   * Overwrites the bits of a word selected by a mask.
+   */
+  void setWord(long w, long value, long mask)
+  {
+    int i = (int) (w & (words.length - 1));
+    words[i] = (words[i] & ~mask) | (value & mask);
+  }
+
+  /**
+   * Sets the positions of an interval to a value.
+   */
+  void fill(long from, long to, boolean bit)
+  {
+    for (long w = from >>> 6; from < to && w <= (to - 1) >>> 6; w++)
+    {
+      setWord(w, bit ? -1L : 0, mask(w, from, to));
+    }
+  }
+
+  /**
+   * Moves the window, growing the buffer if it cannot hold it. The
+   * values of the positions kept are preserved; those of the new
+   * positions are undefined until they are written.
+   */
+  void resize(long new_start, long new_end)
+  {
+    long needed = ((new_end + 63) >>> 6) - (new_start >>> 6) + 1;
+    if (needed > words.length)
+    {
+      int capacity = words.length;
+      while (capacity < needed)
+      {
+        capacity *= 2;
+      }
+      long[] grown = new long[capacity];
+      long from = Math.max(start, new_start);
+      for (long w = from >>> 6; from < end && w <= (end - 1) >>> 6; w++)
+      {
+        grown[(int) (w & (capacity - 1))] = words[(int) (w & (words.length - 1))];
+      }
+      words = grown;
+    }
+    start = new_start;
+    end = new_end;
+  }
+
+  /**
+   * Gets the mask of the bits of a word within an interval of positions.
+   */
+  static long mask(long w, long from, long to)
+  {
+    long base = w << 6;
+    long lo = Math.max(from, base) - base;
+    long hi = Math.min(to, base + 64) - base;
+    if (hi <= lo)
+    {
+      return 0;
+    }
+    return (hi == 64 ? -1L : (1L << hi) - 1) & (-1L << lo);
+  }
+}
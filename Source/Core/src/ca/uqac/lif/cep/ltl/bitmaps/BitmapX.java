@@ -18,6 +18,7 @@
 package ca.uqac.lif.cep.ltl.bitmaps;
 
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
 
 /**
@@ -33,6 +34,17 @@ public class BitmapX extends UnaryBitmapProcessor
   @Override
   protected BitmapAdapter processBitmap(BitmapAdapter bitmap)
   {
-    return bitmap.clone().removeFirstBit();
+    if (inPlace)
+    {
+      bitmap.removeFirstBitInPlace();
+      return bitmap;
+    }
+    return bitmap.removeFirstBit();
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap)
+  {
+    return bitmap.removeFirstBit();
   }
 }
@@ -0,0 +1,57 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Bitmap implementation of the LTL "next" operator applied a fixed
+ * number of times, X<sup><i>k</i></sup>. The bitmap is shifted once by
+ * <i>k</i> positions, instead of once per X in a chain of {@link BitmapX}.
+ */
+public class BitmapXn extends UnaryBitmapProcessor
+{
+  /**
+   * The number of positions to shift
+   */
+  protected int k;
+
+  public BitmapXn(Type type, int k)
+  {
+    super(type);
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("The number of steps cannot be negative");
+    }
+    this.k = k;
+  }
+
+  @Override
+  protected BitmapAdapter processBitmap(BitmapAdapter bitmap)
+  {
+    return bitmap.shiftLeft(k);
+  }
+
+  @Override
+  protected LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap)
+  {
+    return bitmap.shiftLeft(k);
+  }
+}
@@ -19,8 +19,10 @@ package ca.uqac.lif.cep.ltl.bitmaps;
 
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 
 import java.util.Queue;
 
@@ -28,25 +30,126 @@ import java.util.Queue;
  * Collects a stream of Boolean values into a bitmap. The processor outputs
  * the whole bitmap once it is notified that no further input event is
  * available (through {@link #onEndOfTrace(Queue)}.
+ * <p>
+ * As long as all the values received are the same, they are only counted
+ * in a {@link ConstantBitmap}; the bitmap is expanded into one of the
+ * requested type at the first differing value. By default, a trace
+ * holding a single value is also output as a bitmap of the requested
+ * type. Call {@link #setConstants(boolean) setConstants(true)} to output
+ * it as a {@link ConstantBitmap} instead, on which the bitmap processors
+ * take constant time; its class is then not the one of the requested
+ * type, so that it cannot be passed as an operand to the methods of
+ * bitmaps of that type.
+ * <p>
+ * For unbounded streams, the processor can instead output a bitmap of
+ * the last events every fixed number of events, as expected by the
+ * {@link IncrementalBitmapProcessor}s.
  */
 public class CollectBitmap extends SynchronousProcessor
 {
+  /**
+   * The bitmap being filled, which is a {@link ConstantBitmap} as long as
+   * all the values received are the same
+   */
   protected BitmapAdapter m_bitmap;
   
+  /**
+   * The bitmap being filled when positions are long-indexed, in which
+   * case {@link #m_bitmap} is null
+   */
+  protected LongBitmapAdapter m_longBitmap;
+  
   protected LTLBitmap.Type m_type;
   
+  /**
+   * The number of events of each output bitmap, or 0 to output a single
+   * bitmap at the end of the trace
+   */
+  protected int m_chunkSize = 0;
+  
+  /**
+   * Whether a bitmap holding a single value is output as a
+   * {@link ConstantBitmap}
+   */
+  protected boolean m_constants = false;
+  
   public CollectBitmap(LTLBitmap.Type type)
+  {
+    this(type, false);
+  }
+  
+  /**
+   * Creates a processor collecting events into a bitmap.
+   * @param type The type of bitmap
+   * @param long_indexed Set to true to output a {@link LongBitmapAdapter},
+   *   for traces longer than {@link Integer#MAX_VALUE} events
+   */
+  public CollectBitmap(LTLBitmap.Type type, boolean long_indexed)
   {
     super(1, 1);
     m_type = type;
-    m_bitmap = LTLBitmap.createAdapter(type);
+    if (long_indexed)
+    {
+      m_longBitmap = LTLBitmap.createLongAdapter(type);
+    }
+    else
+    {
+      m_bitmap = new ConstantBitmap(type, 0, false);
+    }
+  }
+  
+  /**
+   * Creates a processor outputting the events in chunks. The events
+   * remaining at the end of the trace, if any, are output in a last,
+   * shorter chunk.
+   * @param type The type of bitmap
+   * @param chunk_size The number of events of each chunk
+   */
+  public CollectBitmap(LTLBitmap.Type type, int chunk_size)
+  {
+    this(type, false);
+    if (chunk_size < 1)
+    {
+      throw new IllegalArgumentException("Chunks must hold at least one event");
+    }
+    m_chunkSize = chunk_size;
+  }
+
+  /**
+   * Declares whether a bitmap holding a single value may be output as a
+   * {@link ConstantBitmap}, which it is not by default.
+   * @param b Set to true to output constants, or false to always output
+   *   bitmaps of the requested type
+   * @return This processor
+   */
+  public CollectBitmap setConstants(boolean b)
+  {
+    m_constants = b;
+    return this;
   }
 
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
     boolean b = (Boolean) inputs[0];
-    m_bitmap.add(b);
+    if (m_longBitmap != null)
+    {
+      m_longBitmap.add(b);
+    }
+    else
+    {
+      if (m_bitmap instanceof ConstantBitmap && m_bitmap.size() > 0
+          && ((ConstantBitmap) m_bitmap).getValue() != b)
+      {
+        m_bitmap = ((ConstantBitmap) m_bitmap).expand();
+      }
+      m_bitmap.add(b);
+      if (m_bitmap.size() == m_chunkSize)
+      {
+        outputs.add(new Object[] {output()});
+        m_bitmap = new ConstantBitmap(m_type, 0, false);
+      }
+    }
     return true;
   }
 
@@ -60,8 +163,28 @@ public class CollectBitmap extends SynchronousProcessor
   @Override
   protected boolean onEndOfTrace(Queue<Object[]> outputs)
   {
-    outputs.add(new Object[] {m_bitmap});
+    if (m_longBitmap != null)
+    {
+      outputs.add(new Object[] {m_longBitmap});
+    }
+    else if (m_chunkSize == 0 || m_bitmap.size() > 0)
+    {
+      // In chunk mode, only the events left since the last chunk
+      outputs.add(new Object[] {output()});
+    }
     return true;
   }
 
+  /**
+   * Gets the bitmap to output, expanded if constants are not output.
+   */
+  private BitmapAdapter output()
+  {
+    if (!m_constants && m_bitmap instanceof ConstantBitmap)
+    {
+      return ((ConstantBitmap) m_bitmap).expand();
+    }
+    return m_bitmap;
+  }
+
 }
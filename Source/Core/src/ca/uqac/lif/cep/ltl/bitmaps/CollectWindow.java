@@ -0,0 +1,94 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.Queue;
+
+/**
+ * Keeps the last events of a stream of bitmaps in a {@link BitmapWindow}.
+ * Each input event is a chunk of new events, such as those output by
+ * {@link CollectBitmap#CollectBitmap(ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type, int)};
+ * for each chunk, the processor drops the oldest events beyond the width
+ * of the window, appends the new ones and outputs the window. The cost of
+ * a chunk only depends on its length.
+ */
+public class CollectWindow extends SynchronousProcessor
+{
+  protected BitmapWindow m_window = new BitmapWindow();
+
+  /**
+   * The number of events in a full window
+   */
+  protected int m_width;
+
+  public CollectWindow(int width)
+  {
+    super(1, 1);
+    if (width < 1)
+    {
+      throw new IllegalArgumentException("A window holds at least one event");
+    }
+    m_width = width;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    BitmapAdapter chunk = (BitmapAdapter) inputs[0];
+    long old_end = m_window.end;
+    long end = old_end + chunk.size();
+    long start = Math.max(m_window.start, end - m_width);
+    m_window.resize(start, end);
+    // Events of the chunk already out of the window are skipped
+    int size = chunk.size();
+    int pos = (int) (Math.max(start, old_end) - old_end);
+    while (pos < size)
+    {
+      boolean bit = chunk.nextSetBit(pos) == pos;
+      int next = bit ? chunk.nextClearBit(pos) : chunk.nextSetBit(pos);
+      if (next < 0 || next > size)
+      {
+        next = size;
+      }
+      m_window.fill(old_end + pos, old_end + next, bit);
+      pos = next;
+    }
+    m_window.changed = old_end;
+    outputs.add(new Object[] {m_window});
+    return true;
+  }
+
+  public BitmapWindow getWindow()
+  {
+    return m_window;
+  }
+
+  @Override
+  public Processor duplicate(boolean with_state)
+  {
+    CollectWindow p = new CollectWindow(m_width);
+    if (with_state)
+    {
+      p.m_window = m_window.copy();
+    }
+    return p;
+  }
+}
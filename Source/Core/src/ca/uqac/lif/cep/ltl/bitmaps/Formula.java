@@ -0,0 +1,336 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable syntax tree of an LTL formula, as produced by
+ * {@link FormulaParser} and compiled by {@link FormulaCompiler}. Two
+ * formulas are equal if they have the same structure.
+ * <p>
+ * Formulas follow the semantics of the bitmap processors, in which the
+ * bitmap of X<sup><i>k</i></sup> &phi; is <i>k</i> positions shorter
+ * than that of &phi;, and connectives pad the shorter of their operands
+ * with 0s. The number of positions a formula lacks at the end of the
+ * trace is its <em>deficit</em>; constants carry their own, so that
+ * rewriting a formula into a constant keeps the length of its bitmap.
+ */
+public class Formula
+{
+  /**
+   * The operators of a formula
+   */
+  public enum Operator
+  {
+    TRUE, FALSE, ATOM, NOT, AND, OR, XOR, IMPLIES, X, G, F, U, W, R, M
+  }
+
+  private final Operator operator;
+
+  /**
+   * The name of an atom, null for other operators
+   */
+  private final String name;
+
+  /**
+   * The number of steps of X, or the deficit of a constant
+   */
+  private final int k;
+
+  private final Formula[] operands;
+
+  private final int deficit;
+
+  private final int hash;
+
+  private Formula(Operator operator, String name, int k, Formula... operands)
+  {
+    this.operator = operator;
+    this.name = name;
+    this.k = k;
+    this.operands = operands;
+    this.deficit = computeDeficit();
+    this.hash = 31 * (31 * (31 * operator.hashCode() + (name == null ? 0 : name.hashCode())) + k)
+        + Arrays.hashCode(operands);
+  }
+
+  public static Formula atom(String name)
+  {
+    return new Formula(Operator.ATOM, name, 0);
+  }
+
+  /**
+   * Creates the constant true or false, with a bitmap as long as the
+   * trace.
+   */
+  public static Formula constant(boolean value)
+  {
+    return constant(value, 0);
+  }
+
+  /**
+   * Creates the constant true or false, with a bitmap shorter than the
+   * trace by a given number of positions.
+   */
+  public static Formula constant(boolean value, int deficit)
+  {
+    if (deficit < 0)
+    {
+      throw new IllegalArgumentException("The deficit cannot be negative");
+    }
+    return new Formula(value ? Operator.TRUE : Operator.FALSE, null, deficit);
+  }
+
+  /**
+   * Creates X<sup><i>k</i></sup> &phi;.
+   */
+  public static Formula next(int k, Formula f)
+  {
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("The number of steps cannot be negative");
+    }
+    return new Formula(Operator.X, null, k, f);
+  }
+
+  /**
+   * Creates a formula made of an operator other than an atom, a
+   * constant or X, applied to operands.
+   */
+  public static Formula apply(Operator operator, Formula... operands)
+  {
+    switch (operator)
+    {
+    case NOT:
+    case G:
+    case F:
+      checkArity(operator, operands, 1);
+      break;
+    case AND:
+    case OR:
+      if (operands.length < 2)
+      {
+        throw new IllegalArgumentException(operator + " needs at least 2 operands");
+      }
+      break;
+    case XOR:
+    case IMPLIES:
+    case U:
+    case W:
+    case R:
+    case M:
+      checkArity(operator, operands, 2);
+      break;
+    default:
+      throw new IllegalArgumentException(operator + " has its own factory method");
+    }
+    return new Formula(operator, null, 0, operands.clone());
+  }
+
+  /**
+   * Creates the formula of an n-ary operator from a list of operands.
+   */
+  public static Formula apply(Operator operator, List<Formula> operands)
+  {
+    return apply(operator, operands.toArray(new Formula[operands.size()]));
+  }
+
+  private static void checkArity(Operator operator, Formula[] operands, int arity)
+  {
+    if (operands.length != arity)
+    {
+      throw new IllegalArgumentException(operator + " needs " + arity + " operand(s)");
+    }
+  }
+
+  private int computeDeficit()
+  {
+    switch (operator)
+    {
+    case ATOM:
+      return 0;
+    case TRUE:
+    case FALSE:
+      return k;
+    case X:
+      return operands[0].deficit + k;
+    default:
+      // Connectives pad their operands to the longest one
+      int d = Integer.MAX_VALUE;
+      for (Formula f : operands)
+      {
+        d = Math.min(d, f.deficit);
+      }
+      return d;
+    }
+  }
+
+  public Operator getOperator()
+  {
+    return operator;
+  }
+
+  /**
+   * Gets the name of an atom.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Gets the number of steps of X.
+   */
+  public int getSteps()
+  {
+    return k;
+  }
+
+  /**
+   * Gets the number of positions the bitmap of this formula lacks at the
+   * end of the trace.
+   */
+  public int getDeficit()
+  {
+    return deficit;
+  }
+
+  public int getArity()
+  {
+    return operands.length;
+  }
+
+  public Formula getOperand(int i)
+  {
+    return operands[i];
+  }
+
+  public List<Formula> getOperands()
+  {
+    return Arrays.asList(operands.clone());
+  }
+
+  /**
+   * Tells whether this formula is a constant.
+   */
+  public boolean isConstant()
+  {
+    return operator == Operator.TRUE || operator == Operator.FALSE;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (o == this)
+    {
+      return true;
+    }
+    if (!(o instanceof Formula))
+    {
+      return false;
+    }
+    Formula f = (Formula) o;
+    return hash == f.hash && operator == f.operator && k == f.k
+        && (name == null ? f.name == null : name.equals(f.name))
+        && Arrays.equals(operands, f.operands);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return hash;
+  }
+
+  /**
+   * Prints this formula in the syntax read by {@link FormulaParser}, with
+   * every binary operator in parentheses. Constants with a deficit print
+   * as <code>X[<i>k</i>] true</code>, which has the same bitmap.
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder out = new StringBuilder();
+    print(out);
+    return out.toString();
+  }
+
+  private void print(StringBuilder out)
+  {
+    switch (operator)
+    {
+    case ATOM:
+      out.append(name);
+      return;
+    case TRUE:
+    case FALSE:
+      if (k > 0)
+      {
+        out.append("X[").append(k).append("] ");
+      }
+      out.append(operator == Operator.TRUE ? "true" : "false");
+      return;
+    case NOT:
+      out.append('!');
+      operands[0].print(out);
+      return;
+    case X:
+      out.append(k == 1 ? "X " : "X[" + k + "] ");
+      operands[0].print(out);
+      return;
+    case G:
+    case F:
+      out.append(operator).append(' ');
+      operands[0].print(out);
+      return;
+    default:
+      String symbol;
+      if (operator == Operator.AND)
+      {
+        symbol = " & ";
+      }
+      else if (operator == Operator.OR)
+      {
+        symbol = " | ";
+      }
+      else if (operator == Operator.XOR)
+      {
+        symbol = " ^ ";
+      }
+      else if (operator == Operator.IMPLIES)
+      {
+        symbol = " -> ";
+      }
+      else
+      {
+        symbol = " " + operator + " ";
+      }
+      out.append('(');
+      for (int i = 0; i < operands.length; i++)
+      {
+        if (i > 0)
+        {
+          out.append(symbol);
+        }
+        operands[i].print(out);
+      }
+      out.append(')');
+    }
+  }
+}
@@ -0,0 +1,698 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.ParallelUntil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles LTL formulas into {@link BitmapCircuit}s made of the
+ * processors of this palette.
+ * <p>
+ * The formula is first rewritten into a canonical form:
+ * <ul>
+ * <li>negations are pushed down to the atoms, through the dualities of
+ * the connectives and of the temporal operators, and double negations
+ * are removed;</li>
+ * <li>conjunctions and disjunctions are flattened, their operands sorted
+ * and deduplicated, and constants, as well as an operand next to its
+ * negation, are folded;</li>
+ * <li>X is moved out of the other operators, and nested X are merged
+ * into a single X<sup><i>k</i></sup>;</li>
+ * <li>G G &phi; = G &phi;, F F &phi; = F &phi;, and G F &phi; and F G
+ * &phi; both become F G &phi;, which holds everywhere or nowhere
+ * depending on the last bit of &phi;;</li>
+ * <li>&phi; U &phi; = &phi;, and the operators of the U family with a
+ * constant operand become a constant, their other operand, G or F.</li>
+ * </ul>
+ * The bitmaps of the processors are padded with 0s, so a rewrite that
+ * only holds when operands have the same length, such as De Morgan's
+ * laws, is only applied when they do (see {@link Formula}).
+ * <p>
+ * Equal subformulas are then represented by a single node, so that each
+ * distinct subformula is computed exactly once, however many times it
+ * occurs. A node read by a single other node lets that node overwrite
+ * its bitmap (see {@link BinaryBitmapProcessor#setInPlace(boolean)}).
+ */
+public class FormulaCompiler
+{
+  protected LTLBitmap.Type type;
+
+  /**
+   * Evaluator given to the processors of the U family, or null
+   */
+  protected ParallelUntil parallel = null;
+
+  /**
+   * The canonical instance of each formula
+   */
+  private final Map<Formula, Formula> interned = new HashMap<Formula, Formula>();
+
+  /**
+   * The order in which canonical formulas were created, used to sort the
+   * operands of commutative operators
+   */
+  private final Map<Formula, Integer> ids = new HashMap<Formula, Integer>();
+
+  private final Map<Formula, Formula> positive = new HashMap<Formula, Formula>();
+
+  private final Map<Formula, Formula> negative = new HashMap<Formula, Formula>();
+
+  private final Comparator<Formula> byId = new Comparator<Formula>()
+  {
+    @Override
+    public int compare(Formula f1, Formula f2)
+    {
+      return ids.get(f1) - ids.get(f2);
+    }
+  };
+
+  public FormulaCompiler(LTLBitmap.Type type)
+  {
+    this.type = type;
+  }
+
+  /**
+   * Sets the evaluator given to the processors of the U family.
+   * @param parallel The evaluator, or null to evaluate on the calling
+   *   thread
+   * @return This compiler
+   */
+  public FormulaCompiler setParallel(ParallelUntil parallel)
+  {
+    this.parallel = parallel;
+    return this;
+  }
+
+  /**
+   * Parses and compiles a formula.
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public BitmapCircuit compile(String formula)
+  {
+    return compile(FormulaParser.parse(formula));
+  }
+
+  public BitmapCircuit compile(Formula formula)
+  {
+    List<String> atoms = new ArrayList<String>();
+    collectAtoms(formula, new LinkedHashSet<String>(), atoms);
+    Formula root = simplify(formula);
+    return new Builder(atoms).build(root);
+  }
+
+  /**
+   * Rewrites a formula into the canonical form described above, in which
+   * equal subformulas are the same object.
+   */
+  public Formula simplify(Formula formula)
+  {
+    return normalize(formula, false);
+  }
+
+  private static void collectAtoms(Formula f, Set<String> seen, List<String> atoms)
+  {
+    if (f.getOperator() == Operator.ATOM)
+    {
+      if (seen.add(f.getName()))
+      {
+        atoms.add(f.getName());
+      }
+      return;
+    }
+    for (int i = 0; i < f.getArity(); i++)
+    {
+      collectAtoms(f.getOperand(i), seen, atoms);
+    }
+  }
+
+  private Formula intern(Formula f)
+  {
+    Formula canonical = interned.get(f);
+    if (canonical == null)
+    {
+      canonical = f;
+      interned.put(f, f);
+      ids.put(f, ids.size());
+    }
+    return canonical;
+  }
+
+  /**
+   * Gets the canonical form of a formula, or of its negation.
+   */
+  private Formula normalize(Formula f, boolean negate)
+  {
+    Map<Formula, Formula> memo = negate ? negative : positive;
+    Formula answer = memo.get(f);
+    if (answer == null)
+    {
+      answer = rewrite(f, negate);
+      memo.put(f, answer);
+    }
+    return answer;
+  }
+
+  private Formula rewrite(Formula f, boolean negate)
+  {
+    Operator op = f.getOperator();
+    switch (op)
+    {
+    case TRUE:
+    case FALSE:
+      return constant((op == Operator.TRUE) != negate, f.getDeficit());
+    case ATOM:
+      Formula atom = intern(f);
+      return negate ? intern(Formula.apply(Operator.NOT, atom)) : atom;
+    case NOT:
+      return normalize(f.getOperand(0), !negate);
+    case IMPLIES:
+      // Same padding as LTLBitmap.implies: the left operand is negated first
+      return normalize(Formula.apply(Operator.OR,
+          Formula.apply(Operator.NOT, f.getOperand(0)), f.getOperand(1)), negate);
+    case X:
+      return next(f.getSteps(), normalize(f.getOperand(0), negate));
+    case G:
+    case F:
+      Formula g = normalize(f.getOperand(0), negate);
+      return (op == Operator.G) != negate ? global(g) : future(g);
+    default:
+      break;
+    }
+    if (negate && !sameDeficit(f))
+    {
+      // The dual would pad the negated operands with 0s instead of 1s
+      return not(normalize(f, false));
+    }
+    switch (op)
+    {
+    case AND:
+    case OR:
+      List<Formula> operands = new ArrayList<Formula>();
+      for (int i = 0; i < f.getArity(); i++)
+      {
+        operands.add(normalize(f.getOperand(i), negate));
+      }
+      return junction((op == Operator.OR) != negate, operands);
+    case XOR:
+      // Only one operand is negated: !(a ^ b) = !a ^ b
+      return xor(normalize(f.getOperand(0), negate), normalize(f.getOperand(1), false));
+    default:
+      return until(negate ? dual(op) : op, normalize(f.getOperand(0), negate),
+          normalize(f.getOperand(1), negate));
+    }
+  }
+
+  private static boolean sameDeficit(Formula f)
+  {
+    for (int i = 1; i < f.getArity(); i++)
+    {
+      if (f.getOperand(i).getDeficit() != f.getOperand(0).getDeficit())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the operator of the U family whose negation is that of the
+   * negated operands.
+   */
+  private static Operator dual(Operator op)
+  {
+    switch (op)
+    {
+    case U:
+      return Operator.R;
+    case R:
+      return Operator.U;
+    case W:
+      return Operator.M;
+    default:
+      return Operator.W;
+    }
+  }
+
+  private Formula constant(boolean value, int deficit)
+  {
+    return intern(Formula.constant(value, deficit));
+  }
+
+  private static boolean isConstant(Formula f, boolean value)
+  {
+    return f.getOperator() == (value ? Operator.TRUE : Operator.FALSE);
+  }
+
+  /**
+   * Negates a canonical formula whose negation cannot be pushed further.
+   */
+  private Formula not(Formula f)
+  {
+    if (f.getOperator() == Operator.NOT)
+    {
+      return f.getOperand(0);
+    }
+    if (f.isConstant())
+    {
+      return constant(!isConstant(f, true), f.getDeficit());
+    }
+    if (f.getOperator() == Operator.X)
+    {
+      return next(f.getSteps(), not(f.getOperand(0)));
+    }
+    return intern(Formula.apply(Operator.NOT, f));
+  }
+
+  private Formula next(int k, Formula f)
+  {
+    if (k == 0)
+    {
+      return f;
+    }
+    if (f.getOperator() == Operator.X)
+    {
+      return next(k + f.getSteps(), f.getOperand(0));
+    }
+    if (f.isConstant())
+    {
+      return constant(isConstant(f, true), f.getDeficit() + k);
+    }
+    return intern(Formula.next(k, f));
+  }
+
+  /**
+   * If all the formulas start with X, gets the smallest number of steps
+   * among them, which can be moved out of an operator applied to them.
+   */
+  private static int commonSteps(List<Formula> fs)
+  {
+    int k = Integer.MAX_VALUE;
+    for (Formula f : fs)
+    {
+      if (f.getOperator() != Operator.X)
+      {
+        return 0;
+      }
+      k = Math.min(k, f.getSteps());
+    }
+    return k;
+  }
+
+  /**
+   * Removes <i>k</i> steps of X from each formula.
+   */
+  private List<Formula> stripSteps(List<Formula> fs, int k)
+  {
+    List<Formula> out = new ArrayList<Formula>(fs.size());
+    for (Formula f : fs)
+    {
+      out.add(next(f.getSteps() - k, f.getOperand(0)));
+    }
+    return out;
+  }
+
+  private Formula global(Formula f)
+  {
+    switch (f.getOperator())
+    {
+    case TRUE:
+    case FALSE:
+    case G:
+      return f;
+    case X:
+      return next(f.getSteps(), global(f.getOperand(0)));
+    case F:
+      if (f.getOperand(0).getOperator() == Operator.G)
+      {
+        // F G is constant over its bitmap, and so is unchanged by G
+        return f;
+      }
+      // G F a = F G a
+      return future(global(f.getOperand(0)));
+    default:
+      return intern(Formula.apply(Operator.G, f));
+    }
+  }
+
+  private Formula future(Formula f)
+  {
+    switch (f.getOperator())
+    {
+    case TRUE:
+    case FALSE:
+    case F:
+      return f;
+    case X:
+      return next(f.getSteps(), future(f.getOperand(0)));
+    default:
+      return intern(Formula.apply(Operator.F, f));
+    }
+  }
+
+  /**
+   * Builds a conjunction, or a disjunction if <i>or</i> is set.
+   */
+  private Formula junction(boolean or, List<Formula> fs)
+  {
+    Operator op = or ? Operator.OR : Operator.AND;
+    Set<Formula> set = new LinkedHashSet<Formula>();
+    for (Formula f : fs)
+    {
+      if (f.getOperator() == op)
+      {
+        set.addAll(f.getOperands());
+      }
+      else
+      {
+        set.add(f);
+      }
+    }
+    // An operand next to its negation: x & !x = false, x | !x = true
+    for (Formula f : new ArrayList<Formula>(set))
+    {
+      if (f.getOperator() == Operator.NOT && set.contains(f) && set.contains(f.getOperand(0)))
+      {
+        set.remove(f);
+        set.remove(f.getOperand(0));
+        set.add(constant(or, f.getDeficit()));
+      }
+    }
+    // The deficits of the longest and shortest operands, of the longest
+    // constant that decides the result, and of the longest operand other
+    // than a neutral constant
+    int all = Integer.MAX_VALUE;
+    int shortest = 0;
+    int decisive = Integer.MAX_VALUE;
+    int rest = Integer.MAX_VALUE;
+    for (Formula f : set)
+    {
+      int d = f.getDeficit();
+      all = Math.min(all, d);
+      shortest = Math.max(shortest, d);
+      if (isConstant(f, or))
+      {
+        decisive = Math.min(decisive, d);
+      }
+      if (!isConstant(f, !or))
+      {
+        rest = Math.min(rest, d);
+      }
+    }
+    if (decisive != Integer.MAX_VALUE)
+    {
+      if (!or)
+      {
+        // A 0 padded with 0s stays 0, so the conjunction is 0 everywhere
+        return constant(false, all);
+      }
+      if (decisive == all)
+      {
+        // No other operand is longer than the 1s
+        return constant(true, decisive);
+      }
+    }
+    if (rest == Integer.MAX_VALUE && (or || all == shortest))
+    {
+      // Only neutral constants, all of the same length for a conjunction
+      return constant(!or, all);
+    }
+    List<Formula> operands = new ArrayList<Formula>();
+    for (Formula f : set)
+    {
+      int d = f.getDeficit();
+      if (isConstant(f, true) && or && d > decisive)
+      {
+        // Covered by a longer constant 1
+        continue;
+      }
+      if (isConstant(f, !or) && (or ? d >= rest : d == rest))
+      {
+        // Neutral, and does not change the length of the result
+        continue;
+      }
+      operands.add(f);
+    }
+    if (operands.size() == 1)
+    {
+      return operands.get(0);
+    }
+    int k = commonSteps(operands);
+    if (k > 0)
+    {
+      return next(k, junction(or, stripSteps(operands, k)));
+    }
+    Collections.sort(operands, byId);
+    return intern(Formula.apply(op, operands));
+  }
+
+  private Formula xor(Formula left, Formula right)
+  {
+    if (left == right)
+    {
+      return constant(false, left.getDeficit());
+    }
+    for (int i = 0; i < 2; i++)
+    {
+      Formula c = i == 0 ? left : right;
+      Formula other = i == 0 ? right : left;
+      if (isConstant(c, false) && c.getDeficit() >= other.getDeficit())
+      {
+        return other;
+      }
+      if (isConstant(c, true) && c.getDeficit() == other.getDeficit())
+      {
+        return normalize(other, true);
+      }
+    }
+    List<Formula> operands = new ArrayList<Formula>(2);
+    operands.add(left);
+    operands.add(right);
+    int k = commonSteps(operands);
+    if (k > 0)
+    {
+      operands = stripSteps(operands, k);
+      return next(k, xor(operands.get(0), operands.get(1)));
+    }
+    Collections.sort(operands, byId);
+    return intern(Formula.apply(Operator.XOR, operands));
+  }
+
+  /**
+   * Builds an operator of the U family; the rules for constants follow
+   * those of <code>ConstantBitmap.until</code>.
+   */
+  private Formula until(Operator op, Formula left, Formula right)
+  {
+    if (left == right)
+    {
+      return left;
+    }
+    List<Formula> operands = new ArrayList<Formula>(2);
+    operands.add(left);
+    operands.add(right);
+    int k = commonSteps(operands);
+    if (k > 0)
+    {
+      operands = stripSteps(operands, k);
+      return next(k, until(op, operands.get(0), operands.get(1)));
+    }
+    if ((left.isConstant() || right.isConstant()) && left.getDeficit() == right.getDeficit())
+    {
+      boolean dual = op == Operator.R || op == Operator.M;
+      boolean weak = op == Operator.W || op == Operator.M;
+      int d = left.getDeficit();
+      if (isConstant(right, !dual))
+      {
+        return constant(!dual, d);
+      }
+      if (isConstant(left, dual))
+      {
+        return right;
+      }
+      if (isConstant(right, dual))
+      {
+        if (!weak)
+        {
+          return constant(dual, d);
+        }
+        return dual ? future(left) : global(left);
+      }
+      if (weak)
+      {
+        return constant(!dual, d);
+      }
+      return dual ? global(right) : future(right);
+    }
+    return intern(Formula.apply(op, left, right));
+  }
+
+  /**
+   * Turns a canonical formula into a circuit.
+   */
+  private class Builder
+  {
+    private final List<String> atoms;
+
+    private final List<BitmapCircuit.Node> nodes = new ArrayList<BitmapCircuit.Node>();
+
+    private final Map<Formula, BitmapCircuit.Node> built = new IdentityHashMap<Formula, BitmapCircuit.Node>();
+
+    /**
+     * The number of operators reading each formula
+     */
+    private final Map<Formula, Integer> readers = new IdentityHashMap<Formula, Integer>();
+
+    Builder(List<String> atoms)
+    {
+      this.atoms = atoms;
+    }
+
+    BitmapCircuit build(Formula root)
+    {
+      countReaders(root);
+      BitmapCircuit.Node output = node(root);
+      return new BitmapCircuit(type, atoms, nodes, output);
+    }
+
+    private void countReaders(Formula f)
+    {
+      for (int i = 0; i < f.getArity(); i++)
+      {
+        Formula operand = f.getOperand(i);
+        Integer count = readers.get(operand);
+        readers.put(operand, count == null ? 1 : count + 1);
+        if (count == null)
+        {
+          countReaders(operand);
+        }
+      }
+    }
+
+    /**
+     * Tells whether an operator may overwrite the bitmap of an operand:
+     * it must be computed by a processor, and read by nothing else.
+     */
+    private boolean owns(Formula operand)
+    {
+      return operand.getArity() > 0 && readers.get(operand) == 1;
+    }
+
+    private BitmapCircuit.Node node(Formula f)
+    {
+      BitmapCircuit.Node node = built.get(f);
+      if (node != null)
+      {
+        return node;
+      }
+      List<Formula> inputs = new ArrayList<Formula>(f.getOperands());
+      SynchronousProcessor processor = null;
+      switch (f.getOperator())
+      {
+      case NOT:
+        processor = new BitmapNot(type).setInPlace(owns(inputs.get(0)));
+        break;
+      case X:
+        processor = f.getSteps() == 1 ? new BitmapX(type).setInPlace(owns(inputs.get(0)))
+            : new BitmapXn(type, f.getSteps());
+        break;
+      case G:
+        processor = new BitmapG(type);
+        break;
+      case F:
+        processor = new BitmapF(type);
+        break;
+      case AND:
+      case OR:
+        processor = junction(f, inputs);
+        break;
+      case XOR:
+        processor = new BitmapXor(type).setInPlace(owns(inputs.get(0)));
+        break;
+      case U:
+        processor = new BitmapU(type, parallel);
+        break;
+      case W:
+        processor = new BitmapW(type, parallel);
+        break;
+      case R:
+        processor = new BitmapR(type, parallel);
+        break;
+      case M:
+        processor = new BitmapM(type, parallel);
+        break;
+      default:
+        // Atoms and constants are leaves
+        inputs.clear();
+        break;
+      }
+      List<BitmapCircuit.Node> in = new ArrayList<BitmapCircuit.Node>(inputs.size());
+      for (Formula input : inputs)
+      {
+        in.add(node(input));
+      }
+      node = new BitmapCircuit.Node(nodes.size(), f, processor, in);
+      nodes.add(node);
+      built.put(f, node);
+      return node;
+    }
+
+    /**
+     * Picks the processor of a conjunction or a disjunction. A
+     * disjunction of two operands, one of which is a negation read by
+     * nothing else, is an implication, which is computed without the
+     * negation; <i>inputs</i> is then updated.
+     */
+    private SynchronousProcessor junction(Formula f, List<Formula> inputs)
+    {
+      boolean or = f.getOperator() == Operator.OR;
+      if (inputs.size() > 2)
+      {
+        return or ? new BitmapOrN(type, inputs.size()) : new BitmapAndN(type, inputs.size());
+      }
+      if (!or)
+      {
+        return new BitmapAnd(type).setInPlace(owns(inputs.get(0)));
+      }
+      for (int i = 0; i < 2; i++)
+      {
+        Formula negation = inputs.get(i);
+        if (negation.getOperator() == Operator.NOT && readers.get(negation) == 1)
+        {
+          Formula other = inputs.get(1 - i);
+          inputs.clear();
+          inputs.add(negation.getOperand(0));
+          inputs.add(other);
+          return new BitmapImplies(type).setInPlace(owns(inputs.get(0)));
+        }
+      }
+      return new BitmapOr(type).setInPlace(owns(inputs.get(0)));
+    }
+  }
+}
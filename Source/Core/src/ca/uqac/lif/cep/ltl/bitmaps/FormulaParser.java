@@ -0,0 +1,271 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads LTL formulas. From the loosest to the tightest, the operators
+ * are:
+ * <ul>
+ * <li><code>-&gt;</code>, implication, grouping to the right;</li>
+ * <li><code>|</code> or <code>||</code>, disjunction;</li>
+ * <li><code>^</code>, exclusive or;</li>
+ * <li><code>&amp;</code> or <code>&amp;&amp;</code>, conjunction;</li>
+ * <li><code>U</code>, <code>W</code>, <code>R</code> and <code>M</code>,
+ * grouping to the right;</li>
+ * <li>the prefix operators <code>!</code> (or <code>~</code>),
+ * <code>X</code>, <code>X[<i>k</i>]</code> for X<sup><i>k</i></sup>,
+ * <code>G</code> and <code>F</code>.</li>
+ * </ul>
+ * Atoms are identifiers made of letters, digits and underscores;
+ * <code>true</code>, <code>false</code> and the single letters of the
+ * temporal operators are reserved. Operators must be separated from
+ * atoms, as in <code>G p</code> or <code>G(p)</code>; <code>Gp</code> is
+ * an atom.
+ */
+public class FormulaParser
+{
+  private final String text;
+
+  private int pos = 0;
+
+  private FormulaParser(String text)
+  {
+    this.text = text;
+  }
+
+  /**
+   * Parses a formula.
+   * @param text The formula
+   * @return The syntax tree of the formula
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public static Formula parse(String text)
+  {
+    FormulaParser parser = new FormulaParser(text);
+    Formula f = parser.parseImplies();
+    parser.skipSpaces();
+    if (parser.pos < text.length())
+    {
+      throw parser.error("Unexpected '" + text.charAt(parser.pos) + "'");
+    }
+    return f;
+  }
+
+  private Formula parseImplies()
+  {
+    Formula left = parseOr();
+    if (accept("->"))
+    {
+      return Formula.apply(Operator.IMPLIES, left, parseImplies());
+    }
+    return left;
+  }
+
+  private Formula parseOr()
+  {
+    List<Formula> operands = new ArrayList<Formula>();
+    operands.add(parseXor());
+    while (accept("||") || accept("|"))
+    {
+      operands.add(parseXor());
+    }
+    return operands.size() == 1 ? operands.get(0) : Formula.apply(Operator.OR, operands);
+  }
+
+  private Formula parseXor()
+  {
+    Formula left = parseAnd();
+    while (accept("^"))
+    {
+      left = Formula.apply(Operator.XOR, left, parseAnd());
+    }
+    return left;
+  }
+
+  private Formula parseAnd()
+  {
+    List<Formula> operands = new ArrayList<Formula>();
+    operands.add(parseUntil());
+    while (accept("&&") || accept("&"))
+    {
+      operands.add(parseUntil());
+    }
+    return operands.size() == 1 ? operands.get(0) : Formula.apply(Operator.AND, operands);
+  }
+
+  private Formula parseUntil()
+  {
+    Formula left = parseUnary();
+    for (Operator op : new Operator[] {Operator.U, Operator.W, Operator.R, Operator.M})
+    {
+      if (acceptKeyword(op.name()))
+      {
+        return Formula.apply(op, left, parseUntil());
+      }
+    }
+    return left;
+  }
+
+  private Formula parseUnary()
+  {
+    skipSpaces();
+    if (accept("!") || accept("~"))
+    {
+      return Formula.apply(Operator.NOT, parseUnary());
+    }
+    if (accept("("))
+    {
+      Formula f = parseImplies();
+      expect(")");
+      return f;
+    }
+    String word = peekWord();
+    if (word == null)
+    {
+      throw error(pos < text.length() ? "Unexpected '" + text.charAt(pos) + "'"
+          : "Unexpected end of formula");
+    }
+    pos += word.length();
+    if (word.equals("X"))
+    {
+      int k = 1;
+      if (accept("["))
+      {
+        k = parseInt();
+        expect("]");
+      }
+      return Formula.next(k, parseUnary());
+    }
+    if (word.equals("G"))
+    {
+      return Formula.apply(Operator.G, parseUnary());
+    }
+    if (word.equals("F"))
+    {
+      return Formula.apply(Operator.F, parseUnary());
+    }
+    if (word.equals("true"))
+    {
+      return Formula.constant(true);
+    }
+    if (word.equals("false"))
+    {
+      return Formula.constant(false);
+    }
+    if (isReserved(word))
+    {
+      pos -= word.length();
+      throw error("Operator " + word + " is missing its left operand");
+    }
+    return Formula.atom(word);
+  }
+
+  private int parseInt()
+  {
+    skipSpaces();
+    int start = pos;
+    while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+    {
+      pos++;
+    }
+    if (start == pos)
+    {
+      throw error("Expected a number of steps");
+    }
+    try
+    {
+      return Integer.parseInt(text.substring(start, pos));
+    }
+    catch (NumberFormatException e)
+    {
+      pos = start;
+      throw error("Number of steps out of range");
+    }
+  }
+
+  private static boolean isReserved(String word)
+  {
+    return word.length() == 1 && "XGFUWRM".indexOf(word.charAt(0)) >= 0;
+  }
+
+  private static boolean isWordChar(char c)
+  {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  /**
+   * Gets the identifier starting at the current position, if any.
+   */
+  private String peekWord()
+  {
+    skipSpaces();
+    int end = pos;
+    while (end < text.length() && isWordChar(text.charAt(end)))
+    {
+      end++;
+    }
+    return end == pos ? null : text.substring(pos, end);
+  }
+
+  private boolean acceptKeyword(String keyword)
+  {
+    String word = peekWord();
+    if (keyword.equals(word))
+    {
+      pos += word.length();
+      return true;
+    }
+    return false;
+  }
+
+  private boolean accept(String symbol)
+  {
+    skipSpaces();
+    if (text.startsWith(symbol, pos))
+    {
+      pos += symbol.length();
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(String symbol)
+  {
+    if (!accept(symbol))
+    {
+      throw error("Expected '" + symbol + "'");
+    }
+  }
+
+  private void skipSpaces()
+  {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+    {
+      pos++;
+    }
+  }
+
+  private IllegalArgumentException error(String message)
+  {
+    return new IllegalArgumentException(message + " at position " + pos + " of \"" + text + "\"");
+  }
+}
@@ -0,0 +1,362 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.Queue;
+
+/**
+ * Abstract processor evaluating a bitmap connective or operator on a
+ * trace that keeps growing. Each input event is a <em>chunk</em>: a
+ * bitmap holding the values of an operand at the positions following
+ * those of the previous chunk. For each set of input chunks, the
+ * processor outputs one chunk with the values of its own bitmap that
+ * became <em>decided</em>, that is, that no further event can change;
+ * chunks may be empty. The values left undecided are output when the
+ * end of the trace is reached, at which point the concatenation of the
+ * chunks is the bitmap the batch processor would have computed.
+ * <p>
+ * Decided positions are never revisited. G, F and the U family only
+ * keep a count of the undecided positions at the end of the trace, which
+ * all get the same value once they are decided, so that each position
+ * costs constant amortized time. Chunks are read run by run, with
+ * {@link BitmapAdapter#nextSetBit(int)} and
+ * {@link BitmapAdapter#nextClearBit(int)}.
+ * <p>
+ * Operands of different lengths are buffered until all of them reach a
+ * position; at the end of the trace, the shorter ones are padded as the
+ * batch processors do, usually with 0s.
+ */
+public abstract class IncrementalBitmapProcessor extends SynchronousProcessor
+{
+  protected LTLBitmap.Type type;
+
+  /**
+   * The values received from each input and not processed yet
+   */
+  private final RunQueue[] queues;
+
+  /**
+   * The number of values received from each input
+   */
+  private final long[] received;
+
+  /**
+   * The values of the current run of each input, passed to
+   * {@link #process(boolean[], int)}
+   */
+  private final boolean[] values;
+
+  /**
+   * The chunk being output
+   */
+  private BitmapAdapter chunk = null;
+
+  /**
+   * The decided part of the bitmap of this processor, or null if it is
+   * not kept
+   */
+  protected BitmapAdapter m_bitmap;
+
+  public IncrementalBitmapProcessor(LTLBitmap.Type type, int in_arity)
+  {
+    super(in_arity, 1);
+    this.type = type;
+    queues = new RunQueue[in_arity];
+    for (int i = 0; i < in_arity; i++)
+    {
+      queues[i] = new RunQueue();
+    }
+    received = new long[in_arity];
+    values = new boolean[in_arity];
+    m_bitmap = LTLBitmap.createAdapter(type);
+  }
+
+  /**
+   * Declares whether this processor keeps the decided part of its bitmap,
+   * which it does by default. Processors whose only readers are other
+   * incremental processors do not need to.
+   * @param b Set to false to only output chunks
+   * @return This processor
+   */
+  public IncrementalBitmapProcessor setKeepBitmap(boolean b)
+  {
+    if (!b)
+    {
+      m_bitmap = null;
+    }
+    else if (m_bitmap == null)
+    {
+      throw new IllegalStateException("The bitmap was not kept");
+    }
+    return this;
+  }
+
+  /**
+   * Gets the decided part of the bitmap of this processor.
+   * @return The bitmap, or null if it is not kept
+   */
+  public BitmapAdapter getBitmap()
+  {
+    return m_bitmap;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    for (int i = 0; i < inputs.length; i++)
+    {
+      BitmapAdapter bm = (BitmapAdapter) inputs[i];
+      LTLBitmap.append(bm, queues[i]);
+      received[i] += bm.size();
+    }
+    drain();
+    outputs.add(new Object[] {takeChunk()});
+    return true;
+  }
+
+  /**
+   * Pads the shorter inputs, processes them and outputs the positions
+   * left undecided.
+   */
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    long length = 0;
+    for (long r : received)
+    {
+      length = Math.max(length, r);
+    }
+    for (int i = 0; i < queues.length; i++)
+    {
+      queues[i].addMany(padding(i), (int) (length - received[i]));
+      received[i] = length;
+    }
+    drain();
+    flush();
+    outputs.add(new Object[] {takeChunk()});
+    return true;
+  }
+
+  /**
+   * Processes the positions received from all the inputs, one run of
+   * constant inputs at a time.
+   */
+  private void drain()
+  {
+    while (true)
+    {
+      int length = Integer.MAX_VALUE;
+      for (RunQueue q : queues)
+      {
+        if (q.isEmpty())
+        {
+          return;
+        }
+        length = Math.min(length, q.frontLength());
+      }
+      for (int i = 0; i < queues.length; i++)
+      {
+        values[i] = queues[i].frontBit();
+        queues[i].remove(length);
+      }
+      process(values, length);
+    }
+  }
+
+  /**
+   * Processes consecutive positions at which each input has a constant
+   * value.
+   * @param values The value of each input
+   * @param length The number of positions
+   */
+  protected abstract void process(boolean[] values, int length);
+
+  /**
+   * Gets the value padding an input shorter than the others at the end
+   * of the trace.
+   */
+  protected boolean padding(int input)
+  {
+    return false;
+  }
+
+  /**
+   * Outputs the positions still undecided at the end of the trace.
+   */
+  protected void flush()
+  {
+    // Nothing is left undecided by default
+  }
+
+  /**
+   * Outputs decided positions, following those already output.
+   */
+  protected void emit(boolean bit, int count)
+  {
+    if (count == 0)
+    {
+      return;
+    }
+    if (chunk == null)
+    {
+      chunk = LTLBitmap.createAdapter(type);
+    }
+    chunk.addMany(bit, count);
+    if (m_bitmap != null)
+    {
+      m_bitmap.addMany(bit, count);
+    }
+  }
+
+  private BitmapAdapter takeChunk()
+  {
+    BitmapAdapter out = chunk == null ? LTLBitmap.createAdapter(type) : chunk;
+    chunk = null;
+    return out;
+  }
+
+  /**
+   * Duplicates this processor. With its state, the copy also gets the
+   * values buffered from the inputs, the decided part of the bitmap and
+   * the positions left undecided.
+   */
+  @Override
+  public IncrementalBitmapProcessor duplicate(boolean with_state)
+  {
+    IncrementalBitmapProcessor p = newInstance();
+    if (m_bitmap == null)
+    {
+      p.setKeepBitmap(false);
+    }
+    if (with_state)
+    {
+      copyState(p);
+    }
+    return p;
+  }
+
+  /**
+   * Creates a processor with the same parameters as this one, in its
+   * initial state.
+   */
+  protected abstract IncrementalBitmapProcessor newInstance();
+
+  /**
+   * Copies the state of this processor into another one of the same
+   * class. Subclasses keeping undecided positions copy them as well.
+   */
+  protected void copyState(IncrementalBitmapProcessor p)
+  {
+    for (int i = 0; i < queues.length; i++)
+    {
+      p.queues[i] = queues[i].copy();
+    }
+    System.arraycopy(received, 0, p.received, 0, received.length);
+    if (m_bitmap != null)
+    {
+      p.m_bitmap = m_bitmap.clone();
+    }
+  }
+
+  /**
+   * First-in first-out queue of bits, stored as runs of equal bits
+   */
+  static class RunQueue implements LTLBitmap.BitSink
+  {
+    /**
+     * The length of each run, shifted left by one, with its bit in the
+     * lowest bit, in a circular array
+     */
+    private long[] runs = new long[8];
+
+    private int head = 0;
+
+    private int count = 0;
+
+    boolean isEmpty()
+    {
+      return count == 0;
+    }
+
+    boolean frontBit()
+    {
+      return (runs[head] & 1) != 0;
+    }
+
+    int frontLength()
+    {
+      return (int) Math.min(runs[head] >>> 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes bits from the front of the queue, which must not be more
+     * than those of the first run.
+     */
+    void remove(int length)
+    {
+      runs[head] -= (long) length << 1;
+      if (runs[head] >>> 1 == 0)
+      {
+        head = (head + 1) & (runs.length - 1);
+        count--;
+      }
+    }
+
+    @Override
+    public void addMany(boolean bit, int length)
+    {
+      if (length == 0)
+      {
+        return;
+      }
+      if (count > 0)
+      {
+        int last = (head + count - 1) & (runs.length - 1);
+        if (((runs[last] & 1) != 0) == bit)
+        {
+          runs[last] += (long) length << 1;
+          return;
+        }
+      }
+      if (count == runs.length)
+      {
+        long[] grown = new long[runs.length * 2];
+        for (int i = 0; i < count; i++)
+        {
+          grown[i] = runs[(head + i) & (runs.length - 1)];
+        }
+        runs = grown;
+        head = 0;
+      }
+      runs[(head + count) & (runs.length - 1)] = ((long) length << 1) | (bit ? 1 : 0);
+      count++;
+    }
+
+    RunQueue copy()
+    {
+      RunQueue q = new RunQueue();
+      q.runs = runs.clone();
+      q.head = head;
+      q.count = count;
+      return q;
+    }
+  }
+}
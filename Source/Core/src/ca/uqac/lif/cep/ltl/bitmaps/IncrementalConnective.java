@@ -0,0 +1,106 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of the Boolean connectives, whose positions are
+ * decided as soon as those of all their operands.
+ */
+public class IncrementalConnective extends IncrementalBitmapProcessor
+{
+  protected Operator operator;
+
+  /**
+   * Creates a processor for a connective.
+   * @param type The type of the bitmaps
+   * @param operator {@link Operator#AND} or {@link Operator#OR}, of any
+   *   arity, or {@link Operator#XOR} or {@link Operator#IMPLIES}, of
+   *   arity 2
+   * @param arity The number of operands
+   */
+  public IncrementalConnective(Type type, Operator operator, int arity)
+  {
+    super(type, arity);
+    switch (operator)
+    {
+    case AND:
+    case OR:
+      if (arity < 1)
+      {
+        throw new IllegalArgumentException(operator + " needs at least one operand");
+      }
+      break;
+    case XOR:
+    case IMPLIES:
+      if (arity != 2)
+      {
+        throw new IllegalArgumentException(operator + " has two operands");
+      }
+      break;
+    default:
+      throw new IllegalArgumentException(operator + " is not a connective");
+    }
+    this.operator = operator;
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalConnective(type, operator, getInputArity());
+  }
+
+  /**
+   * As in {@link BitmapImplies}, the left operand of an implication is
+   * negated before it is padded with 0s.
+   */
+  @Override
+  protected boolean padding(int input)
+  {
+    return operator == Operator.IMPLIES && input == 0;
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    boolean b;
+    switch (operator)
+    {
+    case XOR:
+      b = values[0] != values[1];
+      break;
+    case IMPLIES:
+      b = !values[0] || values[1];
+      break;
+    default:
+      boolean all = operator == Operator.AND;
+      b = all;
+      for (boolean v : values)
+      {
+        if (v != all)
+        {
+          b = !all;
+          break;
+        }
+      }
+    }
+    emit(b, length);
+  }
+}
@@ -0,0 +1,324 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Evaluates an LTL formula on a trace that keeps growing, with one
+ * {@link IncrementalBitmapProcessor} per distinct subformula. The bitmaps
+ * of the atoms are given in chunks of new events; each chunk yields the
+ * positions of the bitmap of the formula that became decided, so that
+ * the cost of an event does not depend on the length of the trace.
+ * <p>
+ * Once {@link #end()} is called, the decided bitmap is the one computed
+ * by {@link BitmapCircuit#evaluate(Map)} on the whole trace.
+ */
+public class IncrementalEvaluator
+{
+  /**
+   * A subformula, with the processor computing it if it is not a leaf
+   */
+  private static class Node
+  {
+    private final Formula formula;
+
+    private final IncrementalBitmapProcessor processor;
+
+    private final Node[] inputs;
+
+    /**
+     * The number of positions output so far
+     */
+    private int size = 0;
+
+    /**
+     * The chunk output for the events being appended
+     */
+    private BitmapAdapter chunk;
+
+    Node(Formula formula, IncrementalBitmapProcessor processor, Node[] inputs)
+    {
+      this.formula = formula;
+      this.processor = processor;
+      this.inputs = inputs;
+    }
+  }
+
+  protected LTLBitmap.Type type;
+
+  protected Formula formula;
+
+  /**
+   * The nodes, each one after its inputs
+   */
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  private final Node output;
+
+  /**
+   * The decided part of the bitmap of the formula
+   */
+  private final BitmapAdapter bitmap;
+
+  /**
+   * The number of events appended
+   */
+  private int length = 0;
+
+  private boolean ended = false;
+
+  private final Queue<Object[]> queue = new ArrayDeque<Object[]>(1);
+
+  public IncrementalEvaluator(LTLBitmap.Type type, Formula formula)
+  {
+    this.type = type;
+    this.formula = formula;
+    output = node(new FormulaCompiler(type).simplify(formula), new HashMap<Formula, Node>());
+    bitmap = LTLBitmap.createAdapter(type);
+  }
+
+  /**
+   * Creates an evaluator for a formula.
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public IncrementalEvaluator(LTLBitmap.Type type, String formula)
+  {
+    this(type, FormulaParser.parse(formula));
+  }
+
+  private Node node(Formula f, Map<Formula, Node> built)
+  {
+    Node node = built.get(f);
+    if (node != null)
+    {
+      return node;
+    }
+    Node[] inputs = new Node[f.getArity()];
+    for (int i = 0; i < inputs.length; i++)
+    {
+      inputs[i] = node(f.getOperand(i), built);
+    }
+    node = new Node(f, create(f), inputs);
+    built.put(f, node);
+    nodes.add(node);
+    return node;
+  }
+
+  private IncrementalBitmapProcessor create(Formula f)
+  {
+    IncrementalBitmapProcessor p;
+    switch (f.getOperator())
+    {
+    case TRUE:
+    case FALSE:
+    case ATOM:
+      return null;
+    case NOT:
+      p = new IncrementalNot(type);
+      break;
+    case X:
+      p = new IncrementalXn(type, f.getSteps());
+      break;
+    case G:
+      p = new IncrementalG(type);
+      break;
+    case F:
+      p = new IncrementalF(type);
+      break;
+    case U:
+    case W:
+    case R:
+    case M:
+      p = new IncrementalUntil(type, f.getOperator());
+      break;
+    default:
+      p = new IncrementalConnective(type, f.getOperator(), f.getArity());
+    }
+    // The evaluator keeps the bitmap of the formula itself
+    return p.setKeepBitmap(false);
+  }
+
+  /**
+   * Appends events to the trace.
+   * @param chunks The values of each atom at the new events, all of the
+   *   same length. The bitmaps are not modified. A formula without atoms
+   *   reads the length of any bitmap in the map.
+   * @return The positions of the bitmap of the formula that became
+   *   decided, following those already returned
+   */
+  public BitmapAdapter append(Map<String, BitmapAdapter> chunks)
+  {
+    if (ended)
+    {
+      throw new IllegalStateException("The trace has ended");
+    }
+    int added = -1;
+    for (Node node : nodes)
+    {
+      if (node.formula.getOperator() == Operator.ATOM)
+      {
+        BitmapAdapter bm = chunks.get(node.formula.getName());
+        if (bm == null)
+        {
+          throw new IllegalArgumentException("No bitmap for atom " + node.formula.getName());
+        }
+        if (added >= 0 && bm.size() != added)
+        {
+          throw new IllegalArgumentException("The bitmaps of the atoms are of different lengths");
+        }
+        added = bm.size();
+      }
+    }
+    if (added < 0)
+    {
+      if (chunks.isEmpty())
+      {
+        throw new IllegalArgumentException("The length of the chunk is unknown");
+      }
+      added = chunks.values().iterator().next().size();
+    }
+    length += added;
+    for (Node node : nodes)
+    {
+      Formula f = node.formula;
+      if (node.processor != null)
+      {
+        node.chunk = compute(node, false);
+      }
+      else if (f.isConstant())
+      {
+        int size = Math.max(length - f.getDeficit(), 0);
+        node.chunk = new ConstantBitmap(type, size - node.size, f.getOperator() == Operator.TRUE);
+      }
+      else
+      {
+        node.chunk = chunks.get(f.getName());
+      }
+      node.size += node.chunk.size();
+    }
+    return decided();
+  }
+
+  /**
+   * Ends the trace, which decides all the remaining positions.
+   * @return The positions of the bitmap of the formula that were not
+   *   decided yet
+   */
+  public BitmapAdapter end()
+  {
+    if (ended)
+    {
+      throw new IllegalStateException("The trace has ended");
+    }
+    ended = true;
+    for (Node node : nodes)
+    {
+      if (node.processor != null)
+      {
+        node.chunk = compute(node, true);
+      }
+      else
+      {
+        // Leaves are complete
+        node.chunk = new ConstantBitmap(type, 0, false);
+      }
+    }
+    return decided();
+  }
+
+  /**
+   * Runs the processor of a node on the chunks of its inputs, followed by
+   * its end of trace if the trace has ended.
+   */
+  private BitmapAdapter compute(Node node, boolean end)
+  {
+    Object[] inputs = new Object[node.inputs.length];
+    for (int i = 0; i < inputs.length; i++)
+    {
+      inputs[i] = node.inputs[i].chunk;
+    }
+    node.processor.compute(inputs, queue);
+    BitmapAdapter out = (BitmapAdapter) queue.remove()[0];
+    if (end)
+    {
+      node.processor.onEndOfTrace(queue);
+      LTLBitmap.append((BitmapAdapter) queue.remove()[0], out);
+    }
+    return out;
+  }
+
+  /**
+   * Gets the chunk of the formula, after which the chunks of the other
+   * nodes are dropped.
+   */
+  private BitmapAdapter decided()
+  {
+    BitmapAdapter out = output.chunk;
+    if (output.processor == null)
+    {
+      // The caller owns the bitmap of an atom
+      out = out.clone();
+    }
+    LTLBitmap.append(out, bitmap);
+    for (Node node : nodes)
+    {
+      node.chunk = null;
+    }
+    return out;
+  }
+
+  /**
+   * Gets the decided part of the bitmap of the formula.
+   */
+  public BitmapAdapter getBitmap()
+  {
+    return bitmap;
+  }
+
+  /**
+   * Gets the number of events appended.
+   */
+  public int size()
+  {
+    return length;
+  }
+
+  /**
+   * Gets the number of positions of the bitmap of the formula that are
+   * decided.
+   */
+  public int getDecided()
+  {
+    return bitmap.size();
+  }
+
+  public Formula getFormula()
+  {
+    return formula;
+  }
+}
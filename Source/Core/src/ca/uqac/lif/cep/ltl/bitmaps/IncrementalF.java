@@ -0,0 +1,72 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of {@link BitmapF}. The positions after the last 1
+ * of the operand are undecided; they all become true at the next 1, and
+ * false at the end of the trace.
+ */
+public class IncrementalF extends IncrementalBitmapProcessor
+{
+  /**
+   * The number of undecided positions
+   */
+  protected int pending = 0;
+
+  public IncrementalF(Type type)
+  {
+    super(type, 1);
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    if (values[0])
+    {
+      emit(true, pending + length);
+      pending = 0;
+    }
+    else
+    {
+      pending += length;
+    }
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalF(type);
+  }
+
+  @Override
+  protected void copyState(IncrementalBitmapProcessor p)
+  {
+    super.copyState(p);
+    ((IncrementalF) p).pending = pending;
+  }
+
+  @Override
+  protected void flush()
+  {
+    emit(false, pending);
+    pending = 0;
+  }
+}
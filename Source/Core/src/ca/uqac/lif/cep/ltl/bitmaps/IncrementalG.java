@@ -0,0 +1,72 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of {@link BitmapG}. The positions after the last 0
+ * of the operand are undecided; they all become false at the next 0, and
+ * true at the end of the trace.
+ */
+public class IncrementalG extends IncrementalBitmapProcessor
+{
+  /**
+   * The number of undecided positions
+   */
+  protected int pending = 0;
+
+  public IncrementalG(Type type)
+  {
+    super(type, 1);
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    if (values[0])
+    {
+      pending += length;
+    }
+    else
+    {
+      emit(false, pending + length);
+      pending = 0;
+    }
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalG(type);
+  }
+
+  @Override
+  protected void copyState(IncrementalBitmapProcessor p)
+  {
+    super.copyState(p);
+    ((IncrementalG) p).pending = pending;
+  }
+
+  @Override
+  protected void flush()
+  {
+    emit(true, pending);
+    pending = 0;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of {@link BitmapNot}, whose positions are decided
+ * as soon as those of its operand.
+ */
+public class IncrementalNot extends IncrementalBitmapProcessor
+{
+  public IncrementalNot(Type type)
+  {
+    super(type, 1);
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalNot(type);
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    emit(!values[0], length);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of the processors of the U family:
+ * {@link BitmapU}, {@link BitmapW}, {@link BitmapR} and {@link BitmapM}.
+ * For U, the positions after the last one where either the right operand
+ * holds or the left one does not are undecided; they all become true at
+ * the next 1 of the right operand, false at the next 0 of the left one,
+ * and false at the end of the trace, or true for W. R and M are their
+ * duals, with the operands and the verdicts negated.
+ */
+public class IncrementalUntil extends IncrementalBitmapProcessor
+{
+  protected Operator operator;
+
+  /**
+   * Whether the operator is R or M, which exchange 0s and 1s around U
+   * and W
+   */
+  protected boolean dual;
+
+  /**
+   * The value of the undecided positions at the end of the trace
+   */
+  protected boolean atEnd;
+
+  /**
+   * The number of undecided positions
+   */
+  protected int pending = 0;
+
+  /**
+   * Creates a processor for an operator of the U family.
+   * @param type The type of the bitmaps
+   * @param operator One of {@link Operator#U}, {@link Operator#W},
+   *   {@link Operator#R} or {@link Operator#M}
+   */
+  public IncrementalUntil(Type type, Operator operator)
+  {
+    super(type, 2);
+    switch (operator)
+    {
+    case U:
+    case W:
+      dual = false;
+      break;
+    case R:
+    case M:
+      dual = true;
+      break;
+    default:
+      throw new IllegalArgumentException(operator + " is not an operator of the U family");
+    }
+    this.operator = operator;
+    // W and R hold where nothing happens until the end of the trace
+    atEnd = operator == Operator.W || operator == Operator.R;
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    // The operands padded with 0s, then negated for R and M
+    boolean left = values[0] != dual;
+    boolean right = values[1] != dual;
+    if (right || !left)
+    {
+      emit(right != dual, pending + length);
+      pending = 0;
+    }
+    else
+    {
+      pending += length;
+    }
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalUntil(type, operator);
+  }
+
+  @Override
+  protected void copyState(IncrementalBitmapProcessor p)
+  {
+    super.copyState(p);
+    ((IncrementalUntil) p).pending = pending;
+  }
+
+  @Override
+  protected void flush()
+  {
+    emit(atEnd, pending);
+    pending = 0;
+  }
+}
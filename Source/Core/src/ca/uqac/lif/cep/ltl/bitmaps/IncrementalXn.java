@@ -0,0 +1,69 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.Type;
+
+/**
+ * Incremental version of {@link BitmapXn}, which drops the first
+ * <i>k</i> positions of its operand.
+ */
+public class IncrementalXn extends IncrementalBitmapProcessor
+{
+  /**
+   * The number of positions to shift
+   */
+  protected int k;
+
+  /**
+   * The number of positions still to drop
+   */
+  protected int skip;
+
+  public IncrementalXn(Type type, int k)
+  {
+    super(type, 1);
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("The number of steps cannot be negative");
+    }
+    this.k = k;
+    skip = k;
+  }
+
+  @Override
+  protected IncrementalBitmapProcessor newInstance()
+  {
+    return new IncrementalXn(type, k);
+  }
+
+  @Override
+  protected void copyState(IncrementalBitmapProcessor p)
+  {
+    super.copyState(p);
+    ((IncrementalXn) p).skip = skip;
+  }
+
+  @Override
+  protected void process(boolean[] values, int length)
+  {
+    int dropped = Math.min(skip, length);
+    skip -= dropped;
+    emit(values[0], length - dropped);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
+import java.util.Queue;
+
+/**
+ * Abstract processor implementing a connective over any number of
+ * bitmaps. It replaces a chain of binary processors, which would compute
+ * one intermediate bitmap per input, with a single call to a bulk
+ * operator of {@link BitmapAdapter}. The inputs are either all
+ * {@link BitmapAdapter}s or all {@link LongBitmapAdapter}s.
+ * <p>
+ * These processors are stateless; subclasses duplicate themselves with
+ * the same type and arity.
+ */
+public abstract class NaryBitmapProcessor extends SynchronousProcessor
+{
+  protected LTLBitmap.Type type;
+
+  /**
+   * @param type The type of the bitmaps
+   * @param arity The number of inputs, at least 2
+   */
+  public NaryBitmapProcessor(LTLBitmap.Type type, int arity)
+  {
+    super(arity, 1);
+    if (arity < 2)
+    {
+      throw new IllegalArgumentException("A connective needs at least 2 inputs");
+    }
+    this.type = type;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    if (inputs[0] instanceof LongBitmapAdapter)
+    {
+      LongBitmapAdapter[] others = new LongBitmapAdapter[inputs.length - 1];
+      for (int i = 1; i < inputs.length; i++)
+      {
+        others[i - 1] = (LongBitmapAdapter) inputs[i];
+      }
+      outputs.add(new Object[] {processLongBitmaps((LongBitmapAdapter) inputs[0], others)});
+      return false;
+    }
+    BitmapAdapter[] bitmaps = new BitmapAdapter[inputs.length];
+    for (int i = 0; i < inputs.length; i++)
+    {
+      bitmaps[i] = (BitmapAdapter) inputs[i];
+    }
+    outputs.add(new Object[] {processBitmaps(bitmaps)});
+    return false;
+  }
+
+  protected abstract BitmapAdapter processBitmaps(BitmapAdapter[] bitmaps);
+
+  protected abstract LongBitmapAdapter processLongBitmaps(LongBitmapAdapter first, LongBitmapAdapter[] others);
+}
@@ -20,6 +20,7 @@ package ca.uqac.lif.cep.ltl.bitmaps;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.SynchronousProcessor;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import java.util.Queue;
 
 /**
@@ -35,6 +36,15 @@ public class ReleaseBitmap extends SynchronousProcessor
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
+    if (inputs[0] instanceof LongBitmapAdapter)
+    {
+      LongBitmapAdapter lba = (LongBitmapAdapter) inputs[0];
+      for (long i = 0; i < lba.size(); i++)
+      {
+        outputs.add(new Object[] {lba.get(i)});
+      }
+      return false;
+    }
     BitmapAdapter ba = (BitmapAdapter) inputs[0];
     for (int i = 0; i < ba.size(); i++)
     {
@@ -21,15 +21,26 @@ import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.SynchronousProcessor;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
 import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.LongBitmapAdapter;
 import java.util.Queue;
 
 /**
  * Abstract processor implementing a unary bitmap connective or operator.
+ * The input can be either a {@link BitmapAdapter} or, for traces longer
+ * than {@link Integer#MAX_VALUE} events, a {@link LongBitmapAdapter}; the
+ * output is of the same kind.
  */
 public abstract class UnaryBitmapProcessor extends SynchronousProcessor
 {
   protected LTLBitmap.Type type;
   
+  /**
+   * Whether this processor is the only reader of its input bitmap, in which
+   * case it may modify it and return it as its output instead of
+   * allocating a new bitmap
+   */
+  protected boolean inPlace = false;
+  
   public UnaryBitmapProcessor()
   {
     this(LTLBitmap.Type.RAW);
@@ -41,9 +52,27 @@ public abstract class UnaryBitmapProcessor extends SynchronousProcessor
     this.type = type;
   }
 
+  /**
+   * Declares whether this processor is the only reader of its input bitmap.
+   * This is only safe if no other processor receives the same bitmap.
+   * @param b Set to true to let the processor write its output into its
+   *   input
+   * @return This processor
+   */
+  public UnaryBitmapProcessor setInPlace(boolean b)
+  {
+    inPlace = b;
+    return this;
+  }
+
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
+    if (inputs[0] instanceof LongBitmapAdapter)
+    {
+      outputs.add(new Object[] {processLongBitmap((LongBitmapAdapter) inputs[0])});
+      return false;
+    }
     BitmapAdapter ba = (BitmapAdapter) inputs[0];
     outputs.add(new Object[] {processBitmap(ba)});
     return false;
@@ -51,6 +80,8 @@ public abstract class UnaryBitmapProcessor extends SynchronousProcessor
   
   protected abstract BitmapAdapter processBitmap(BitmapAdapter bitmap);
 
+  protected abstract LongBitmapAdapter processLongBitmap(LongBitmapAdapter bitmap);
+
   @Override
   public Processor duplicate(boolean with_state)
   {
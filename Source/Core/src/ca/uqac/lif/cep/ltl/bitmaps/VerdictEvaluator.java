@@ -0,0 +1,852 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the truth value of a formula at a few positions of a trace,
+ * without computing its whole bitmap.
+ * <p>
+ * Each subformula is a view of its bitmap that can only find the next or
+ * the previous position holding a given value, which is what the bitmaps
+ * of the atoms offer through {@link BitmapAdapter#nextSetBit(int)} and
+ * its siblings. Operators answer such searches with searches on their
+ * operands, so that only the parts of the operands a verdict depends on
+ * are read:
+ * <ul>
+ * <li>G &phi; only needs the last 0 of &phi;, and F &phi; its last
+ * 1;</li>
+ * <li>&phi; U &psi; at position <i>i</i> only needs the first 1 of &psi;
+ * after <i>i</i>, and the last 0 of &phi; before it;</li>
+ * <li>conjunctions and disjunctions hop from operand to operand until
+ * they agree.</li>
+ * </ul>
+ * The verdicts are those of the bitmap computed by
+ * {@link BitmapCircuit#evaluate(Map)}, shorter operands being padded with
+ * 0s.
+ */
+public class VerdictEvaluator
+{
+  protected Formula formula;
+
+  public VerdictEvaluator(Formula formula)
+  {
+    this.formula = formula;
+  }
+
+  /**
+   * Creates an evaluator for a formula.
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public VerdictEvaluator(String formula)
+  {
+    this(FormulaParser.parse(formula));
+  }
+
+  /**
+   * Gets the truth value of the formula at a position.
+   * @see #evaluate(Map, int...)
+   */
+  public boolean holds(Map<String, BitmapAdapter> bitmaps, int position)
+  {
+    return evaluate(bitmaps, position)[0];
+  }
+
+  /**
+   * Gets the truth value of the formula at given positions. The bitmaps
+   * are not modified.
+   * @param bitmaps The bitmap of each atom. A formula without atoms is
+   *   evaluated over a trace of the length of any bitmap in the map.
+   * @param positions The positions, which must be within the bitmap of
+   *   the formula: a formula starting with X<sup><i>k</i></sup> has no
+   *   value at the last <i>k</i> positions
+   * @return The truth value at each position
+   */
+  public boolean[] evaluate(Map<String, BitmapAdapter> bitmaps, int ... positions)
+  {
+    int length = -1;
+    if (!bitmaps.isEmpty())
+    {
+      length = bitmaps.values().iterator().next().size();
+    }
+    Node root = new Builder(bitmaps, length).node(formula);
+    boolean[] verdicts = new boolean[positions.length];
+    for (int i = 0; i < positions.length; i++)
+    {
+      int p = positions[i];
+      if (p < 0 || p >= root.size)
+      {
+        throw new IllegalArgumentException("Position " + p + " is outside the bitmap of "
+            + formula + ", of length " + root.size);
+      }
+      verdicts[i] = root.get(p);
+    }
+    return verdicts;
+  }
+
+  /**
+   * Turns a formula into views, one per distinct subformula
+   */
+  private static class Builder
+  {
+    private final Map<String, BitmapAdapter> bitmaps;
+
+    private final int length;
+
+    private final Map<Formula, Node> built = new HashMap<Formula, Node>();
+
+    Builder(Map<String, BitmapAdapter> bitmaps, int length)
+    {
+      this.bitmaps = bitmaps;
+      this.length = length;
+    }
+
+    Node node(Formula f)
+    {
+      Node node = built.get(f);
+      if (node == null)
+      {
+        node = create(f);
+        built.put(f, node);
+      }
+      return node;
+    }
+
+    private Node create(Formula f)
+    {
+      switch (f.getOperator())
+      {
+      case TRUE:
+      case FALSE:
+        if (length < 0)
+        {
+          throw new IllegalArgumentException("The length of the trace is unknown");
+        }
+        return new Constant(Math.max(length - f.getDeficit(), 0),
+            f.getOperator() == Operator.TRUE);
+      case ATOM:
+        BitmapAdapter bm = bitmaps.get(f.getName());
+        if (bm == null)
+        {
+          throw new IllegalArgumentException("No bitmap for atom " + f.getName());
+        }
+        return new Atom(bm);
+      case NOT:
+        return new Not(node(f.getOperand(0)));
+      case X:
+        return new Next(node(f.getOperand(0)), f.getSteps());
+      case G:
+        return new Global(node(f.getOperand(0)));
+      case F:
+        return new Future(node(f.getOperand(0)));
+      case AND:
+      case OR:
+        Node[] operands = new Node[f.getArity()];
+        for (int i = 0; i < operands.length; i++)
+        {
+          operands[i] = node(f.getOperand(i));
+        }
+        return new Junction(operands, f.getOperator() == Operator.AND);
+      case IMPLIES:
+        // The left operand is negated before it is padded
+        return new Junction(new Node[] {new Not(node(f.getOperand(0))), node(f.getOperand(1))},
+            false);
+      case XOR:
+        return new Xor(node(f.getOperand(0)), node(f.getOperand(1)));
+      case U:
+        return new Until(node(f.getOperand(0)), node(f.getOperand(1)), false);
+      case W:
+        return new Until(node(f.getOperand(0)), node(f.getOperand(1)), true);
+      default:
+        // R and M exchange 0s and 1s around U and W, after padding
+        Node left = Node.pad(node(f.getOperand(0)), node(f.getOperand(1)).size);
+        Node right = Node.pad(node(f.getOperand(1)), left.size);
+        return new Not(new Until(new Not(left), new Not(right), f.getOperator() == Operator.M));
+      }
+    }
+  }
+
+  /**
+   * A view of the bitmap of a subformula
+   */
+  private abstract static class Node
+  {
+    protected final int size;
+
+    Node(int size)
+    {
+      this.size = size;
+    }
+
+    /**
+     * Gets a view padded with 0s to a given size.
+     */
+    static Node pad(Node node, int size)
+    {
+      return node.size >= size ? node : new Pad(node, size);
+    }
+
+    /**
+     * Gets the value at a position within the bitmap.
+     */
+    boolean get(int position)
+    {
+      return next(true, position) == position;
+    }
+
+    /**
+     * Finds the first position holding a value at or after a position.
+     * @return The position, or -1 if there is none
+     */
+    final int next(boolean bit, int from)
+    {
+      if (from >= size)
+      {
+        return -1;
+      }
+      return find(bit, Math.max(from, 0));
+    }
+
+    /**
+     * Finds the last position holding a value at or before a position.
+     * @return The position, or -1 if there is none
+     */
+    final int prev(boolean bit, int from)
+    {
+      if (from < 0)
+      {
+        return -1;
+      }
+      return findBack(bit, Math.min(from, size - 1));
+    }
+
+    /**
+     * Implements {@link #next(boolean, int)} for a position within the
+     * bitmap.
+     */
+    protected abstract int find(boolean bit, int from);
+
+    /**
+     * Implements {@link #prev(boolean, int)} for a position within the
+     * bitmap.
+     */
+    protected abstract int findBack(boolean bit, int from);
+  }
+
+  private static class Atom extends Node
+  {
+    private final BitmapAdapter bitmap;
+
+    Atom(BitmapAdapter bitmap)
+    {
+      super(bitmap.size());
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return bitmap.get(position);
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      int p = bit ? bitmap.nextSetBit(from) : bitmap.nextClearBit(from);
+      return p >= size ? -1 : p;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      if (from == size - 1)
+      {
+        // What G and F ask for, which bitmaps find without a cursor
+        return bit ? bitmap.last1() : bitmap.last0();
+      }
+      return bit ? bitmap.prevSetBit(from) : bitmap.prevClearBit(from);
+    }
+  }
+
+  private static class Constant extends Node
+  {
+    private final boolean value;
+
+    Constant(int size, boolean value)
+    {
+      super(size);
+      this.value = value;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return value;
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      return bit == value ? from : -1;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      return bit == value ? from : -1;
+    }
+  }
+
+  /**
+   * A view followed by 0s
+   */
+  private static class Pad extends Node
+  {
+    private final Node node;
+
+    Pad(Node node, int size)
+    {
+      super(size);
+      this.node = node;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return position < node.size && node.get(position);
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      if (bit)
+      {
+        return node.next(true, from);
+      }
+      if (from >= node.size)
+      {
+        return from;
+      }
+      int p = node.next(false, from);
+      return p == -1 ? node.size : p;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      if (from < node.size)
+      {
+        return node.prev(bit, from);
+      }
+      return bit ? node.prev(true, node.size - 1) : from;
+    }
+  }
+
+  private static class Not extends Node
+  {
+    private final Node node;
+
+    Not(Node node)
+    {
+      super(node.size);
+      this.node = node;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return !node.get(position);
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      return node.next(!bit, from);
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      return node.prev(!bit, from);
+    }
+  }
+
+  /**
+   * X<sup><i>k</i></sup>, which drops the first <i>k</i> positions
+   */
+  private static class Next extends Node
+  {
+    private final Node node;
+
+    private final int k;
+
+    Next(Node node, int k)
+    {
+      super(Math.max(node.size - k, 0));
+      this.node = node;
+      this.k = k;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return node.get(position + k);
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      int p = node.next(bit, from + k);
+      return p == -1 ? -1 : p - k;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      int p = node.prev(bit, from + k);
+      return p < k ? -1 : p - k;
+    }
+  }
+
+  /**
+   * G &phi;, which is 1 after the last 0 of &phi;
+   */
+  private static class Global extends Node
+  {
+    private final Node node;
+
+    /**
+     * The last 0 of the operand, -2 until it is looked up
+     */
+    private int last0 = -2;
+
+    Global(Node node)
+    {
+      super(node.size);
+      this.node = node;
+    }
+
+    private int last0()
+    {
+      if (last0 == -2)
+      {
+        last0 = node.prev(false, size - 1);
+      }
+      return last0;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return position > last0();
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      if (bit)
+      {
+        int p = Math.max(from, last0() + 1);
+        return p < size ? p : -1;
+      }
+      return from <= last0() ? from : -1;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      if (bit)
+      {
+        return from > last0() ? from : -1;
+      }
+      return Math.min(from, last0());
+    }
+  }
+
+  /**
+   * F &phi;, which is 1 up to the last 1 of &phi;
+   */
+  private static class Future extends Node
+  {
+    private final Node node;
+
+    /**
+     * The last 1 of the operand, -2 until it is looked up
+     */
+    private int last1 = -2;
+
+    Future(Node node)
+    {
+      super(node.size);
+      this.node = node;
+    }
+
+    private int last1()
+    {
+      if (last1 == -2)
+      {
+        last1 = node.prev(true, size - 1);
+      }
+      return last1;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return position <= last1();
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      if (bit)
+      {
+        return from <= last1() ? from : -1;
+      }
+      int p = Math.max(from, last1() + 1);
+      return p < size ? p : -1;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      if (bit)
+      {
+        return Math.min(from, last1());
+      }
+      return from > last1() ? from : -1;
+    }
+  }
+
+  /**
+   * A conjunction, or a disjunction. For the value that needs all the
+   * operands to agree, searches leapfrog from operand to operand; for the
+   * other one, the nearest position found by any operand wins.
+   */
+  private static class Junction extends Node
+  {
+    private final Node[] operands;
+
+    /**
+     * The value all the operands must have for the result to have it
+     */
+    private final boolean all;
+
+    Junction(Node[] operands, boolean and)
+    {
+      super(maxSize(operands));
+      this.operands = new Node[operands.length];
+      for (int i = 0; i < operands.length; i++)
+      {
+        this.operands[i] = pad(operands[i], size);
+      }
+      this.all = and;
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      for (Node n : operands)
+      {
+        if (n.get(position) != all)
+        {
+          return !all;
+        }
+      }
+      return all;
+    }
+
+    private static int maxSize(Node[] nodes)
+    {
+      int size = 0;
+      for (Node n : nodes)
+      {
+        size = Math.max(size, n.size);
+      }
+      return size;
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      if (bit == all)
+      {
+        int p = from;
+        int agreed = 0;
+        for (int i = 0; agreed < operands.length; i = (i + 1) % operands.length)
+        {
+          int q = operands[i].next(bit, p);
+          if (q == -1)
+          {
+            return -1;
+          }
+          if (q == p)
+          {
+            agreed++;
+          }
+          else
+          {
+            p = q;
+            agreed = 1;
+          }
+        }
+        return p;
+      }
+      int best = -1;
+      for (Node n : operands)
+      {
+        int q = n.next(bit, from);
+        if (q != -1 && (best == -1 || q < best))
+        {
+          best = q;
+        }
+      }
+      return best;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      if (bit == all)
+      {
+        int p = from;
+        int agreed = 0;
+        for (int i = 0; agreed < operands.length; i = (i + 1) % operands.length)
+        {
+          int q = operands[i].prev(bit, p);
+          if (q == -1)
+          {
+            return -1;
+          }
+          if (q == p)
+          {
+            agreed++;
+          }
+          else
+          {
+            p = q;
+            agreed = 1;
+          }
+        }
+        return p;
+      }
+      int best = -1;
+      for (Node n : operands)
+      {
+        best = Math.max(best, n.prev(bit, from));
+      }
+      return best;
+    }
+  }
+
+  /**
+   * An exclusive or, which hops to the next change of either operand
+   */
+  private static class Xor extends Node
+  {
+    private final Node left;
+
+    private final Node right;
+
+    Xor(Node left, Node right)
+    {
+      super(Math.max(left.size, right.size));
+      this.left = pad(left, size);
+      this.right = pad(right, size);
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return left.get(position) != right.get(position);
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      int p = from;
+      while (true)
+      {
+        boolean l = left.get(p);
+        boolean r = right.get(p);
+        if ((l != r) == bit)
+        {
+          return p;
+        }
+        int nl = left.next(!l, p);
+        int nr = right.next(!r, p);
+        if (nl == -1 && nr == -1)
+        {
+          return -1;
+        }
+        p = nl == -1 ? nr : nr == -1 ? nl : Math.min(nl, nr);
+      }
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      int p = from;
+      while (true)
+      {
+        boolean l = left.get(p);
+        boolean r = right.get(p);
+        if ((l != r) == bit)
+        {
+          return p;
+        }
+        p = Math.max(left.prev(!l, p), right.prev(!r, p));
+        if (p == -1)
+        {
+          return -1;
+        }
+      }
+    }
+  }
+
+  /**
+   * &phi; U &psi;, or &phi; W &psi; if weak. Between two 1s of &psi;, the
+   * result is 1 exactly after the last 0 of &phi; before the next 1 of
+   * &psi;, as in <code>LTLBitmap.runUntil</code>; searches only visit the
+   * runs of &psi; they cross.
+   */
+  private static class Until extends Node
+  {
+    private final Node left;
+
+    private final Node right;
+
+    private final boolean weak;
+
+    Until(Node left, Node right, boolean weak)
+    {
+      super(Math.max(left.size, right.size));
+      this.left = pad(left, size);
+      this.right = pad(right, size);
+      this.weak = weak;
+    }
+
+    /**
+     * Gets the end of the stretch without a 1 of &psi; that starts at a
+     * position where &psi; is 0: the next 1 of &psi;, or the size.
+     */
+    private int end(int from)
+    {
+      int j = right.next(true, from);
+      return j == -1 ? size : j;
+    }
+
+    /**
+     * Gets the last position of a stretch where the result is 0: the
+     * last 0 of &phi; in it, or its last position if &psi; never holds
+     * again and the operator is not weak.
+     */
+    private int lastZero(int end)
+    {
+      if (end == size && !weak)
+      {
+        return end - 1;
+      }
+      return left.prev(false, end - 1);
+    }
+
+    @Override
+    boolean get(int position)
+    {
+      return right.get(position) || lastZero(end(position)) < position;
+    }
+
+    @Override
+    protected int find(boolean bit, int from)
+    {
+      int p = from;
+      while (p != -1 && p < size)
+      {
+        if (right.get(p))
+        {
+          if (bit)
+          {
+            return p;
+          }
+          p = right.next(false, p);
+          continue;
+        }
+        int end = end(p);
+        int z = lastZero(end);
+        if (bit)
+        {
+          if (z < end - 1)
+          {
+            return Math.max(p, z + 1);
+          }
+        }
+        else if (z >= p)
+        {
+          return p;
+        }
+        p = end;
+      }
+      return -1;
+    }
+
+    @Override
+    protected int findBack(boolean bit, int from)
+    {
+      int p = from;
+      while (p >= 0)
+      {
+        if (right.get(p))
+        {
+          if (bit)
+          {
+            return p;
+          }
+          p = right.prev(false, p);
+          continue;
+        }
+        // The stretch without a 1 of psi around p
+        int start = right.prev(true, p) + 1;
+        int z = lastZero(end(p));
+        if (bit)
+        {
+          if (z < p)
+          {
+            return p;
+          }
+        }
+        else
+        {
+          if (z >= p)
+          {
+            return p;
+          }
+          if (z >= start)
+          {
+            return z;
+          }
+        }
+        p = start - 1;
+      }
+      return -1;
+    }
+  }
+}
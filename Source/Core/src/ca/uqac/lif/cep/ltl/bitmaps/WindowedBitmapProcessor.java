@@ -0,0 +1,132 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import java.util.Queue;
+
+/**
+ * Abstract processor evaluating a bitmap connective or operator over a
+ * sliding window of a trace. Each input event is the
+ * {@link BitmapWindow} of an operand, all of them starting at the same
+ * event; the output is the window of the processor, which is updated in
+ * place. As the values of a formula at a position only depend on the
+ * events at or after it, those of the positions kept from the previous
+ * window are reused: only the positions from the first one that changed
+ * in an operand are recomputed, word by word, along with the positions
+ * before it that depend on them.
+ * <p>
+ * Positions past the end of a shorter operand are read as 0s, as the
+ * batch processors pad them.
+ */
+public abstract class WindowedBitmapProcessor extends SynchronousProcessor
+{
+  protected BitmapWindow m_window = new BitmapWindow();
+
+  /**
+   * The windows of the operands, during an update
+   */
+  protected BitmapWindow[] m_inputs;
+
+  public WindowedBitmapProcessor(int in_arity)
+  {
+    super(in_arity, 1);
+    m_inputs = new BitmapWindow[in_arity];
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    for (int i = 0; i < inputs.length; i++)
+    {
+      m_inputs[i] = (BitmapWindow) inputs[i];
+    }
+    long start = m_inputs[0].start;
+    long end = Math.max(getEnd(), start);
+    long old_end = m_window.end;
+    // The positions appended since the last update are new
+    long from = Math.max(start, Math.min(Math.min(getChanged(), old_end), end));
+    m_window.resize(start, end);
+    m_window.changed = update(from, old_end);
+    outputs.add(new Object[] {m_window});
+    return true;
+  }
+
+  /**
+   * Gets the absolute position following the last one of the window of
+   * this processor, by default that of its longest operand.
+   */
+  protected long getEnd()
+  {
+    long end = 0;
+    for (BitmapWindow in : m_inputs)
+    {
+      end = Math.max(end, in.end);
+    }
+    return end;
+  }
+
+  /**
+   * Gets the first absolute position of this processor the changes of
+   * its operands can affect directly, by default the first position
+   * that changed in any of them.
+   */
+  protected long getChanged()
+  {
+    long changed = Long.MAX_VALUE;
+    for (BitmapWindow in : m_inputs)
+    {
+      changed = Math.min(changed, in.changed);
+    }
+    return changed;
+  }
+
+  /**
+   * Recomputes the window of this processor from a position to its end.
+   * @param from The first absolute position to recompute
+   * @param old_end The end of the window before the update
+   * @return The first absolute position whose value changed
+   */
+  protected abstract long update(long from, long old_end);
+
+  public BitmapWindow getWindow()
+  {
+    return m_window;
+  }
+
+  /**
+   * Duplicates this processor. With its state, the copy also gets the
+   * current window, from which its next update starts.
+   */
+  @Override
+  public WindowedBitmapProcessor duplicate(boolean with_state)
+  {
+    WindowedBitmapProcessor p = newInstance();
+    if (with_state)
+    {
+      p.m_window = m_window.copy();
+    }
+    return p;
+  }
+
+  /**
+   * Creates a processor with the same parameters as this one, with an
+   * empty window.
+   */
+  protected abstract WindowedBitmapProcessor newInstance();
+}
@@ -0,0 +1,103 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+
+/**
+ * Windowed version of the Boolean connectives.
+ * @see IncrementalConnective
+ */
+public class WindowedConnective extends WindowedBitmapProcessor
+{
+  protected Operator operator;
+
+  /**
+   * Creates a processor for a connective.
+   * @param operator {@link Operator#AND} or {@link Operator#OR}, of any
+   *   arity, or {@link Operator#XOR} or {@link Operator#IMPLIES}, of
+   *   arity 2
+   * @param arity The number of operands
+   */
+  public WindowedConnective(Operator operator, int arity)
+  {
+    super(arity);
+    switch (operator)
+    {
+    case AND:
+    case OR:
+      if (arity < 1)
+      {
+        throw new IllegalArgumentException(operator + " needs at least one operand");
+      }
+      break;
+    case XOR:
+    case IMPLIES:
+      if (arity != 2)
+      {
+        throw new IllegalArgumentException(operator + " has two operands");
+      }
+      break;
+    default:
+      throw new IllegalArgumentException(operator + " is not a connective");
+    }
+    this.operator = operator;
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedConnective(operator, getInputArity());
+  }
+
+  @Override
+  protected long update(long from, long old_end)
+  {
+    for (long w = from >>> 6; from < m_window.end && w <= (m_window.end - 1) >>> 6; w++)
+    {
+      m_window.setWord(w, combine(w), BitmapWindow.mask(w, from, m_window.end));
+    }
+    return from;
+  }
+
+  private long combine(long w)
+  {
+    switch (operator)
+    {
+    case XOR:
+      return m_inputs[0].word(w) ^ m_inputs[1].word(w);
+    case IMPLIES:
+      // The left operand is negated before it is padded with 0s
+      return (~m_inputs[0].word(w) & m_inputs[0].extent(w)) | m_inputs[1].word(w);
+    case AND:
+      long v = -1L;
+      for (BitmapWindow in : m_inputs)
+      {
+        v &= in.word(w);
+      }
+      return v;
+    default:
+      v = 0;
+      for (BitmapWindow in : m_inputs)
+      {
+        v |= in.word(w);
+      }
+      return v;
+    }
+  }
+}
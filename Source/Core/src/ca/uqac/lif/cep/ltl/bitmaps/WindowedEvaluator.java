@@ -0,0 +1,266 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.SynchronousProcessor;
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+import ca.uqac.phoenixxie.ltl.bitmap.ConstantBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap;
+import ca.uqac.phoenixxie.ltl.bitmap.LTLBitmap.BitmapAdapter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Evaluates an LTL formula over the last events of a trace, as if they
+ * were the whole trace, with one {@link WindowedBitmapProcessor} per
+ * distinct subformula. The bitmaps of the atoms are given in chunks of
+ * new events, typically of a fixed length; after each chunk, the window
+ * of the formula is that {@link BitmapCircuit#evaluate(Map)} would
+ * compute on the bitmaps of the atoms over the window, but only the
+ * positions that depend on the new events are recomputed.
+ */
+public class WindowedEvaluator
+{
+  /**
+   * A subformula and the processor computing it
+   */
+  private static class Node
+  {
+    private final SynchronousProcessor processor;
+
+    private final Node[] inputs;
+
+    /**
+     * The name of an atom, whose chunks the processor receives
+     */
+    private final String atom;
+
+    /**
+     * The value of a constant, whose chunks the processor receives
+     */
+    private final Boolean constant;
+
+    private BitmapWindow window;
+
+    Node(SynchronousProcessor processor, Node[] inputs, String atom, Boolean constant)
+    {
+      this.processor = processor;
+      this.inputs = inputs;
+      this.atom = atom;
+      this.constant = constant;
+    }
+  }
+
+  protected Formula formula;
+
+  /**
+   * The number of events in a full window
+   */
+  protected int width;
+
+  /**
+   * The nodes, each one after its inputs
+   */
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  private final Node output;
+
+  private final Queue<Object[]> queue = new ArrayDeque<Object[]>(1);
+
+  /**
+   * Creates an evaluator.
+   * @param formula The formula
+   * @param width The number of events in a full window
+   */
+  public WindowedEvaluator(Formula formula, int width)
+  {
+    if (width < 1)
+    {
+      throw new IllegalArgumentException("A window holds at least one event");
+    }
+    this.formula = formula;
+    this.width = width;
+    // The encoding does not matter to the simplifications
+    Formula root = new FormulaCompiler(LTLBitmap.Type.RAW64).simplify(formula);
+    output = node(root, new HashMap<Formula, Node>());
+  }
+
+  /**
+   * Creates an evaluator for a formula.
+   * @throws IllegalArgumentException If the text is not a formula
+   */
+  public WindowedEvaluator(String formula, int width)
+  {
+    this(FormulaParser.parse(formula), width);
+  }
+
+  private Node node(Formula f, Map<Formula, Node> built)
+  {
+    Node node = built.get(f);
+    if (node != null)
+    {
+      return node;
+    }
+    Node[] inputs = new Node[f.getArity()];
+    for (int i = 0; i < inputs.length; i++)
+    {
+      inputs[i] = node(f.getOperand(i), built);
+    }
+    switch (f.getOperator())
+    {
+    case ATOM:
+      node = new Node(new CollectWindow(width), inputs, f.getName(), null);
+      break;
+    case TRUE:
+    case FALSE:
+      node = new Node(new CollectWindow(width), inputs, null, f.getOperator() == Operator.TRUE);
+      if (f.getDeficit() > 0)
+      {
+        // A constant lacking k positions is X^k of the full constant
+        nodes.add(node);
+        node = new Node(new WindowedXn(f.getDeficit()), new Node[] {node}, null, null);
+      }
+      break;
+    default:
+      node = new Node(create(f), inputs, null, null);
+    }
+    built.put(f, node);
+    nodes.add(node);
+    return node;
+  }
+
+  private static WindowedBitmapProcessor create(Formula f)
+  {
+    switch (f.getOperator())
+    {
+    case NOT:
+      return new WindowedNot();
+    case X:
+      return new WindowedXn(f.getSteps());
+    case G:
+      return new WindowedG();
+    case F:
+      return new WindowedF();
+    case U:
+    case W:
+    case R:
+    case M:
+      return new WindowedUntil(f.getOperator());
+    default:
+      return new WindowedConnective(f.getOperator(), f.getArity());
+    }
+  }
+
+  /**
+   * Appends events to the trace, dropping the oldest ones beyond the
+   * width of the window.
+   * @param chunks The values of each atom at the new events, all of the
+   *   same length. The bitmaps are not modified. A formula without atoms
+   *   reads the length of any bitmap in the map.
+   * @return The window of the formula, which is updated in place by
+   *   the next call
+   */
+  public BitmapWindow append(Map<String, BitmapAdapter> chunks)
+  {
+    int added = -1;
+    for (Node node : nodes)
+    {
+      if (node.atom != null)
+      {
+        BitmapAdapter bm = chunks.get(node.atom);
+        if (bm == null)
+        {
+          throw new IllegalArgumentException("No bitmap for atom " + node.atom);
+        }
+        if (added >= 0 && bm.size() != added)
+        {
+          throw new IllegalArgumentException("The bitmaps of the atoms are of different lengths");
+        }
+        added = bm.size();
+      }
+    }
+    if (added < 0)
+    {
+      if (chunks.isEmpty())
+      {
+        throw new IllegalArgumentException("The length of the chunk is unknown");
+      }
+      added = chunks.values().iterator().next().size();
+    }
+    for (Node node : nodes)
+    {
+      Object[] inputs;
+      if (node.atom != null)
+      {
+        inputs = new Object[] {chunks.get(node.atom)};
+      }
+      else if (node.constant != null)
+      {
+        inputs = new Object[] {new ConstantBitmap(LTLBitmap.Type.RAW64, added, node.constant)};
+      }
+      else
+      {
+        inputs = new Object[node.inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+        {
+          inputs[i] = node.inputs[i].window;
+        }
+      }
+      compute(node.processor, inputs, queue);
+      node.window = (BitmapWindow) queue.remove()[0];
+    }
+    return output.window;
+  }
+
+  private static void compute(SynchronousProcessor p, Object[] inputs, Queue<Object[]> outputs)
+  {
+    if (p instanceof CollectWindow)
+    {
+      ((CollectWindow) p).compute(inputs, outputs);
+    }
+    else
+    {
+      ((WindowedBitmapProcessor) p).compute(inputs, outputs);
+    }
+  }
+
+  /**
+   * Gets the window of the formula, or null before the first chunk.
+   */
+  public BitmapWindow getWindow()
+  {
+    return output.window;
+  }
+
+  public Formula getFormula()
+  {
+    return formula;
+  }
+
+  /**
+   * Gets the number of events in a full window.
+   */
+  public int getWidth()
+  {
+    return width;
+  }
+}
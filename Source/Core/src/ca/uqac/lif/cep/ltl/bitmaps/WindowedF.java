@@ -0,0 +1,49 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+/**
+ * Windowed version of {@link BitmapF}: a position generates a 1 where
+ * the operand holds and propagates elsewhere, and the end of the window
+ * holds a 0.
+ */
+public class WindowedF extends WindowedTemporalProcessor
+{
+  public WindowedF()
+  {
+    super(1, false);
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedF();
+  }
+
+  @Override
+  protected long generate(long w)
+  {
+    return m_inputs[0].word(w);
+  }
+
+  @Override
+  protected long propagate(long w)
+  {
+    return -1L;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+/**
+ * Windowed version of {@link BitmapG}: a position propagates where the
+ * operand holds, and the end of the window holds a 1.
+ */
+public class WindowedG extends WindowedTemporalProcessor
+{
+  public WindowedG()
+  {
+    super(1, true);
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedG();
+  }
+
+  @Override
+  protected long generate(long w)
+  {
+    return 0;
+  }
+
+  @Override
+  protected long propagate(long w)
+  {
+    return m_inputs[0].word(w);
+  }
+}
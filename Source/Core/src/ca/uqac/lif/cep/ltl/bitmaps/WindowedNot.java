@@ -0,0 +1,46 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+/**
+ * Windowed version of {@link BitmapNot}.
+ */
+public class WindowedNot extends WindowedBitmapProcessor
+{
+  public WindowedNot()
+  {
+    super(1);
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedNot();
+  }
+
+  @Override
+  protected long update(long from, long old_end)
+  {
+    BitmapWindow in = m_inputs[0];
+    for (long w = from >>> 6; from < m_window.end && w <= (m_window.end - 1) >>> 6; w++)
+    {
+      m_window.setWord(w, ~in.word(w), BitmapWindow.mask(w, from, m_window.end));
+    }
+    return from;
+  }
+}
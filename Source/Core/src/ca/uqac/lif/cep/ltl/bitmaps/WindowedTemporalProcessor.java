@@ -0,0 +1,102 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+/**
+ * Abstract windowed processor for an operator whose value at a position
+ * is either decided there, or that at the next position: G, F and the U
+ * family. Each position <em>generates</em> a 1, <em>propagates</em> the
+ * value of the next position, or else holds a 0; the position past the
+ * end of the window holds a fixed value.
+ * <p>
+ * The window is recomputed from its end down to the first position that
+ * changed in an operand, 64 positions at a time: within a word, the
+ * value of a position is that of the closest position after it that
+ * does not propagate, which an addition on the reversed word computes,
+ * as a carry ripples through the bits of an adder. If the value at the
+ * first recomputed position changed, so do the positions before it that
+ * propagate, up to the closest one that does not.
+ */
+public abstract class WindowedTemporalProcessor extends WindowedBitmapProcessor
+{
+  /**
+   * The value of the position past the end of the window
+   */
+  protected boolean atEnd;
+
+  public WindowedTemporalProcessor(int in_arity, boolean at_end)
+  {
+    super(in_arity);
+    atEnd = at_end;
+  }
+
+  /**
+   * Gets the positions of a word that hold a 1 whatever follows them.
+   */
+  protected abstract long generate(long w);
+
+  /**
+   * Gets the positions of a word that hold the value of the next
+   * position, unless they generate a 1.
+   */
+  protected abstract long propagate(long w);
+
+  @Override
+  protected long update(long from, long old_end)
+  {
+    BitmapWindow window = m_window;
+    long end = window.end;
+    boolean before = from < old_end ? window.getAt(from) : atEnd;
+    boolean carry = atEnd;
+    for (long w = (end - 1) >>> 6; from < end && w >= from >>> 6; w--)
+    {
+      long mask = BitmapWindow.mask(w, from, end);
+      long g = generate(w) & mask;
+      long p = propagate(w) & mask & ~g;
+      // Reversed, the carry enters at the last position of the interval
+      long rg = Long.reverse(g);
+      long rx = Long.reverse(g | p);
+      long sum = rx + rg + (carry ? Long.lowestOneBit(Long.reverse(mask)) : 0);
+      long v = Long.reverse(rg | (rx & ~sum)) & mask;
+      window.setWord(w, v, mask);
+      carry = (v & Long.lowestOneBit(mask)) != 0;
+    }
+    if (carry == before)
+    {
+      return from;
+    }
+    // The positions propagating the value at from, backwards
+    long pos = from;
+    while (pos > window.start)
+    {
+      long w = (pos - 1) >>> 6;
+      long mask = BitmapWindow.mask(w, window.start, pos);
+      long stop = mask & ~(propagate(w) & ~generate(w));
+      if (stop != 0)
+      {
+        int last = 63 - Long.numberOfLeadingZeros(stop);
+        long run = mask & (-2L << last);
+        window.setWord(w, carry ? -1L : 0, run);
+        return (w << 6) + last + 1;
+      }
+      window.setWord(w, carry ? -1L : 0, mask);
+      pos = Math.max(window.start, w << 6);
+    }
+    return pos;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+import ca.uqac.lif.cep.ltl.bitmaps.Formula.Operator;
+
+/**
+ * Windowed version of the processors of the U family. For U and W, a
+ * position generates a 1 where the right operand holds, and propagates
+ * where only the left one does. R and M, their duals, generate where
+ * both operands hold and propagate where only the right one does.
+ */
+public class WindowedUntil extends WindowedTemporalProcessor
+{
+  protected Operator operator;
+
+  /**
+   * Whether the operator is R or M
+   */
+  protected boolean dual;
+
+  /**
+   * Creates a processor for an operator of the U family.
+   * @param operator One of {@link Operator#U}, {@link Operator#W},
+   *   {@link Operator#R} or {@link Operator#M}
+   */
+  public WindowedUntil(Operator operator)
+  {
+    super(2, operator == Operator.W || operator == Operator.R);
+    this.operator = operator;
+    switch (operator)
+    {
+    case U:
+    case W:
+      dual = false;
+      break;
+    case R:
+    case M:
+      dual = true;
+      break;
+    default:
+      throw new IllegalArgumentException(operator + " is not an operator of the U family");
+    }
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedUntil(operator);
+  }
+
+  @Override
+  protected long generate(long w)
+  {
+    long right = m_inputs[1].word(w);
+    return dual ? right & m_inputs[0].word(w) : right;
+  }
+
+  @Override
+  protected long propagate(long w)
+  {
+    return dual ? m_inputs[1].word(w) : m_inputs[0].word(w);
+  }
+}
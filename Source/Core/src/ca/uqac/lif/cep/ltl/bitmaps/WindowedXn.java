@@ -0,0 +1,74 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.ltl.bitmaps;
+
+/**
+ * Windowed version of {@link BitmapXn}, whose window is that of its
+ * operand shifted by <i>k</i> positions, and <i>k</i> positions shorter.
+ */
+public class WindowedXn extends WindowedBitmapProcessor
+{
+  /**
+   * The number of positions to shift
+   */
+  protected int k;
+
+  public WindowedXn(int k)
+  {
+    super(1);
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("The number of steps cannot be negative");
+    }
+    this.k = k;
+  }
+
+  @Override
+  protected WindowedBitmapProcessor newInstance()
+  {
+    return new WindowedXn(k);
+  }
+
+  @Override
+  protected long getEnd()
+  {
+    return m_inputs[0].end - k;
+  }
+
+  @Override
+  protected long getChanged()
+  {
+    return m_inputs[0].changed - k;
+  }
+
+  @Override
+  protected long update(long from, long old_end)
+  {
+    BitmapWindow in = m_inputs[0];
+    for (long w = from >>> 6; from < m_window.end && w <= (m_window.end - 1) >>> 6; w++)
+    {
+      // The word of the operand starting k positions further
+      long src = (w << 6) + k;
+      long q = src >>> 6;
+      int s = (int) (src & 63);
+      long v = s == 0 ? in.word(q) : (in.word(q) >>> s) | (in.word(q + 1) << (64 - s));
+      m_window.setWord(w, v, BitmapWindow.mask(w, from, m_window.end));
+    }
+    return from;
+  }
+}
@@ -0,0 +1,364 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+/**
+ * Bitmap that picks its own encoding from the number of 1s and of runs
+ * of 1s it contains:
+ * <ul>
+ * <li>when runs change every word or so, compression cannot win and words
+ * are stored as is ({@link LTLBitmap.Type#RAW64});</li>
+ * <li>when most runs of 1s are isolated events,
+ * {@link LTLBitmap.Type#ROARING} stores them as sorted positions;</li>
+ * <li>otherwise runs are long, and {@link LTLBitmap.Type#EWAH} compresses
+ * them into fill words.</li>
+ * </ul>
+ * Both counts are kept up to date on appends, and the choice is revised
+ * each time the size doubles. Results of operators measure themselves and
+ * pick their own encoding, since they often look nothing like their
+ * operands.
+ */
+public class AutoBitmap implements LTLBitmap.BitmapAdapter {
+    /**
+     * Below this size, bitmaps stay uncompressed
+     */
+    private static final int FIRST_CHECK = 1 << 12;
+
+    private LTLBitmap.Type encoding;
+
+    private LTLBitmap.BitmapAdapter bitmap;
+
+    private int ones;
+
+    private int runs;
+
+    private boolean lastBit;
+
+    private int nextCheck = FIRST_CHECK;
+
+    public AutoBitmap() {
+        this(LTLBitmap.Type.RAW64, new Raw64Bitmap());
+    }
+
+    private AutoBitmap(LTLBitmap.Type encoding, LTLBitmap.BitmapAdapter bitmap) {
+        this.encoding = encoding;
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Gets the encoding currently used to store this bitmap.
+     */
+    public LTLBitmap.Type getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Picks the encoding for a bitmap with the given statistics.
+     */
+    static LTLBitmap.Type choose(int size, int ones, int runs) {
+        int words = size / Raw64Bitmap.WORD_IN_BITS;
+        if (size < FIRST_CHECK || 2L * runs >= words / 2) {
+            return LTLBitmap.Type.RAW64;
+        }
+        if (ones <= 2L * runs) {
+            return LTLBitmap.Type.ROARING;
+        }
+        return LTLBitmap.Type.EWAH;
+    }
+
+    /**
+     * Wraps the result of an operator, measuring it to pick its encoding.
+     * Runs are only counted up to the point where the choice can no longer
+     * change, so this costs at most one search per four words.
+     */
+    private AutoBitmap wrap(LTLBitmap.BitmapAdapter result) {
+        AutoBitmap bm = new AutoBitmap(encoding, result);
+        bm.measure();
+        return bm;
+    }
+
+    /**
+     * Recounts the statistics of the bitmap after it was replaced by the
+     * result of an operator, and adapts its encoding.
+     */
+    private void measure() {
+        ones = bitmap.cardinality();
+        int cap = bitmap.size() / Raw64Bitmap.WORD_IN_BITS / 4 + 1;
+        int count = 0;
+        int pos = bitmap.nextSetBit(0);
+        while (pos != -1 && count < cap) {
+            ++count;
+            int end = bitmap.nextClearBit(pos);
+            if (end == -1) {
+                break;
+            }
+            pos = bitmap.nextSetBit(end);
+        }
+        runs = count;
+        lastBit = bitmap.size() > 0 && bitmap.get(bitmap.size() - 1);
+        adapt();
+    }
+
+    /**
+     * Converts the bitmap to the encoding its statistics call for, if it
+     * is not already stored that way.
+     */
+    private void adapt() {
+        nextCheck = Math.max(FIRST_CHECK, bitmap.size() * 2);
+        LTLBitmap.Type best = choose(bitmap.size(), ones, runs);
+        if (best != encoding) {
+            bitmap = LTLBitmap.convert(bitmap, best);
+            encoding = best;
+        }
+    }
+
+    /**
+     * Gets the bitmap of another operand in the encoding of this one.
+     */
+    private LTLBitmap.BitmapAdapter operand(LTLBitmap.BitmapAdapter bm) {
+        AutoBitmap other = (AutoBitmap) bm;
+        if (other.encoding == encoding) {
+            return other.bitmap;
+        }
+        return LTLBitmap.convert(other.bitmap, encoding);
+    }
+
+    private LTLBitmap.BitmapAdapter[] operands(LTLBitmap.BitmapAdapter[] bms) {
+        LTLBitmap.BitmapAdapter[] operands = new LTLBitmap.BitmapAdapter[bms.length];
+        for (int i = 0; i < bms.length; ++i) {
+            operands[i] = operand(bms[i]);
+        }
+        return operands;
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (bit) {
+            if (bitmap.size() == 0 || !lastBit) {
+                ++runs;
+            }
+            ones += count;
+        }
+        lastBit = bit;
+        bitmap.addMany(bit, count);
+        if (bitmap.size() >= nextCheck) {
+            adapt();
+        }
+    }
+
+    @Override
+    public boolean get(int index) {
+        return bitmap.get(index);
+    }
+
+    @Override
+    public int size() {
+        return bitmap.size();
+    }
+
+    @Override
+    public int getRealSize() {
+        return bitmap.getRealSize();
+    }
+
+    @Override
+    public boolean firstBit() {
+        return bitmap.firstBit();
+    }
+
+    @Override
+    public int cardinality() {
+        return ones;
+    }
+
+    @Override
+    public int last0() {
+        return bitmap.last0();
+    }
+
+    @Override
+    public int last1() {
+        return bitmap.last1();
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        return bitmap.nextSetBit(from);
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        return bitmap.nextClearBit(from);
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        return bitmap.prevSetBit(from);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        return bitmap.prevClearBit(from);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        AutoBitmap bm = (AutoBitmap) clone();
+        bm.notInPlace();
+        return bm;
+    }
+
+    @Override
+    public void notInPlace() {
+        int size = bitmap.size();
+        boolean firstBit = bitmap.firstBit();
+        bitmap.notInPlace();
+        ones = size - ones;
+        if (size == 0) {
+            runs = 0;
+        } else if (runs == 0) {
+            runs = 1;
+        } else {
+            // Runs of 0s sit between runs of 1s, plus one at each end not
+            // covered by a 1
+            runs = runs - 1 + (firstBit ? 0 : 1) + (lastBit ? 0 : 1);
+        }
+        lastBit = size > 0 && !lastBit;
+        adapt();
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        return wrap(bitmap.opAnd(operand(bm)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        return wrap(bitmap.opOr(operand(bm)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        return wrap(bitmap.opXor(operand(bm)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return wrap(bitmap.opAndNot(operand(bm)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        return wrap(bitmap.opOrNot(operand(bm)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return wrap(bitmap.opAndAll(operands(bms)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return wrap(bitmap.opOrAll(operands(bms)));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        return wrap(bitmap.removeFirstBit());
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        return wrap(bitmap.shiftLeft(k));
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        bitmap.andInPlace(operand(bm));
+        measure();
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        bitmap.orInPlace(operand(bm));
+        measure();
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        bitmap.xorInPlace(operand(bm));
+        measure();
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        bitmap.removeFirstBitInPlace();
+        measure();
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        AutoBitmap other = (AutoBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        if (other.encoding == encoding) {
+            bitmap.assign(other.bitmap);
+        } else {
+            bitmap = other.bitmap.clone();
+            encoding = other.encoding;
+        }
+        ones = other.ones;
+        runs = other.runs;
+        lastBit = other.lastBit;
+        nextCheck = other.nextCheck;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        AutoBitmap bm = new AutoBitmap(encoding, bitmap.clone());
+        bm.ones = ones;
+        bm.runs = runs;
+        bm.lastBit = lastBit;
+        bm.nextCheck = nextCheck;
+        return bm;
+    }
+
+    @Override
+    public String toString() {
+        return bitmap.toString();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        return bitmap.begin();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        return bitmap.end();
+    }
+}
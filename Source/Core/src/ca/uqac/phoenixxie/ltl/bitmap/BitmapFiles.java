@@ -0,0 +1,126 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves bitmaps to files and maps them back into memory. A mapped bitmap
+ * is not read into the heap: its adapter reads the file through the
+ * operating system's page cache, so opening a large trace is immediate
+ * and several processes evaluating the same trace share one copy of it.
+ * Mapped bitmaps are read-only; operators on them produce ordinary
+ * bitmaps.
+ * <p>
+ * A file starts with a 16-byte header: a magic number, the format, the
+ * number of positions and a reserved word. Two formats are available:
+ * <ul>
+ * <li>{@link #FORMAT_WORDS}: 64-bit little-endian words, mapped as an
+ * {@link OffHeapBitmap} ({@link LTLBitmap.Type#OFFHEAP});</li>
+ * <li>{@link #FORMAT_EWAH}: the serialized form of an EWAH bitmap, mapped
+ * as an {@link EWAH64Bitmap} ({@link LTLBitmap.Type#EWAH}).</li>
+ * </ul>
+ */
+public class BitmapFiles {
+    public static final int FORMAT_WORDS = 0;
+
+    public static final int FORMAT_EWAH = 1;
+
+    private static final int MAGIC = 0x4C544C42;
+
+    private static final int HEADER_IN_BYTES = 16;
+
+    private BitmapFiles() {
+    }
+
+    /**
+     * Writes a bitmap to a file. EWAH bitmaps are written in their own
+     * format, all others as words.
+     */
+    public static void write(LTLBitmap.BitmapAdapter bm, File file) throws IOException {
+        write(bm, file, bm instanceof EWAH64Bitmap ? FORMAT_EWAH : FORMAT_WORDS);
+    }
+
+    public static void write(LTLBitmap.BitmapAdapter bm, File file, int format) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(format);
+            out.writeInt(bm.size());
+            out.writeInt(0);
+            if (format == FORMAT_EWAH) {
+                if (!(bm instanceof EWAH64Bitmap)) {
+                    bm = EWAH64Bitmap.fromWords(UntilKernel.toWords(bm), bm.size());
+                }
+                ((EWAH64Bitmap) bm).serialize(out);
+            } else if (format == FORMAT_WORDS) {
+                long[] words = UntilKernel.toWords(bm);
+                int nwords = Raw64Bitmap.wordsFor(bm.size());
+                for (int i = 0; i < nwords; ++i) {
+                    out.writeLong(Long.reverseBytes(words[i]));
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #write(LTLBitmap.BitmapAdapter, File)}.
+     * The mapping stays valid after the file is closed, until the bitmap
+     * is collected.
+     */
+    public static LTLBitmap.BitmapAdapter map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer data;
+        try {
+            FileChannel channel = raf.getChannel();
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        if (data.capacity() < HEADER_IN_BYTES || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a bitmap file: " + file);
+        }
+        int format = data.getInt(4);
+        int size = data.getInt(8);
+        data.position(HEADER_IN_BYTES);
+        ByteBuffer payload = data.slice();
+        if (format == FORMAT_WORDS) {
+            payload.order(ByteOrder.LITTLE_ENDIAN);
+            if (payload.capacity() < Raw64Bitmap.wordsFor(size) * 8) {
+                throw new IOException("Truncated bitmap file: " + file);
+            }
+            return new OffHeapBitmap(payload, size);
+        }
+        if (format == FORMAT_EWAH) {
+            return EWAH64Bitmap.map(payload);
+        }
+        throw new IOException("Unknown bitmap format " + format + " in " + file);
+    }
+}
@@ -0,0 +1,776 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Bitmap stored as a list of fixed-size chunks, each with its own
+ * encoding. When a chunk is full, it becomes a shared constant if all its
+ * bits are equal, a {@link RunBitmap} if it has few runs, and otherwise
+ * stays a {@link Raw64Bitmap}. Only the last chunk is modified by
+ * appends.
+ * <p>
+ * Full chunks are never modified, so results of operators share them with
+ * their operands instead of copying them: a conjunction with a chunk of 1s
+ * is the other chunk itself. Operators work chunk by chunk, and run on the
+ * executor set with {@link #setExecutor(ExecutorService)} when there are
+ * enough chunks.
+ * <p>
+ * A clone shares the list of chunks with the original. The first of the
+ * two to be appended to copies the list and replaces its last chunk with
+ * a clone, which in turn only copies its words when a 1 is written, so
+ * cloning costs the same whatever the size of the bitmap.
+ */
+public class ChunkedBitmap implements LTLBitmap.BitmapAdapter {
+    static final int CHUNK_SHIFT = 16;
+
+    static final int CHUNK_IN_BITS = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_IN_BITS - 1;
+
+    /**
+     * A full chunk with at least this many runs of 1s is stored as words,
+     * which then take less space than the runs
+     */
+    private static final int MAX_RUNS = CHUNK_IN_BITS / Raw64Bitmap.WORD_IN_BITS / 2;
+
+    /**
+     * Number of chunks handled by one task of a parallel operator
+     */
+    private static final int CHUNKS_PER_TASK = 8;
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+    private static final int OP_AND_NOT = 3;
+
+    private static final RunBitmap ZEROS = new RunBitmap();
+    private static final RunBitmap ONES = new RunBitmap();
+
+    static {
+        ZEROS.addMany(false, CHUNK_IN_BITS);
+        ONES.addMany(true, CHUNK_IN_BITS);
+    }
+
+    private static volatile ExecutorService executor;
+
+    private List<LTLBitmap.BitmapAdapter> chunks;
+
+    private int size;
+
+    /**
+     * Set when {@link #chunks} is shared with a clone
+     */
+    private boolean shared = false;
+
+    public ChunkedBitmap() {
+        this(new ArrayList<LTLBitmap.BitmapAdapter>(), 0);
+    }
+
+    private ChunkedBitmap(List<LTLBitmap.BitmapAdapter> chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Sets the executor on which operators process chunks, or null to
+     * process them on the calling thread. The executor is shared by all
+     * chunked bitmaps.
+     */
+    public static void setExecutor(ExecutorService executor) {
+        ChunkedBitmap.executor = executor;
+    }
+
+    /**
+     * Gets the encoding a full chunk should have: a shared constant, runs,
+     * or words, whichever is smallest. Chunks that are not full are
+     * returned as is.
+     */
+    private static LTLBitmap.BitmapAdapter seal(LTLBitmap.BitmapAdapter chunk) {
+        if (chunk.size() != CHUNK_IN_BITS || chunk == ZEROS || chunk == ONES) {
+            return chunk;
+        }
+        int runs;
+        if (chunk instanceof RunBitmap) {
+            runs = ((RunBitmap) chunk).runCount();
+        } else {
+            runs = ((Raw64Bitmap) chunk).runCount();
+        }
+        if (runs == 0) {
+            return ZEROS;
+        }
+        if (runs == 1 && chunk.firstBit() && chunk.last1() == CHUNK_IN_BITS - 1) {
+            return ONES;
+        }
+        if (runs < MAX_RUNS) {
+            return chunk instanceof RunBitmap ? chunk : toRuns(chunk);
+        }
+        return chunk instanceof Raw64Bitmap ? chunk : toRaw(chunk);
+    }
+
+    private static RunBitmap toRuns(LTLBitmap.BitmapAdapter chunk) {
+        RunBitmap bm = new RunBitmap();
+        copyRuns(chunk, bm);
+        return bm;
+    }
+
+    private static Raw64Bitmap toRaw(LTLBitmap.BitmapAdapter chunk) {
+        if (chunk instanceof Raw64Bitmap) {
+            return (Raw64Bitmap) chunk;
+        }
+        Raw64Bitmap bm = new Raw64Bitmap();
+        copyRuns(chunk, bm);
+        return bm;
+    }
+
+    private static void copyRuns(LTLBitmap.BitmapAdapter from, LTLBitmap.BitmapAdapter to) {
+        LTLBitmap.appendRange(from, 0, from.size(), to);
+    }
+
+    /**
+     * Combines two chunks at the same index; either may be null if the
+     * operand has no chunk there, and then stands for 0s. Full constant
+     * chunks short-circuit the operator and the result shares a chunk of
+     * an operand.
+     */
+    private static LTLBitmap.BitmapAdapter combineChunk(LTLBitmap.BitmapAdapter x,
+                                                        LTLBitmap.BitmapAdapter y, int op) {
+        if (x == null) {
+            x = new RunBitmap();
+        }
+        if (y == null) {
+            y = new RunBitmap();
+        }
+        if (x.size() == CHUNK_IN_BITS && y.size() == CHUNK_IN_BITS) {
+            if (op == OP_AND) {
+                if (x == ZEROS || y == ONES) {
+                    return x;
+                }
+                if (y == ZEROS || x == ONES) {
+                    return y;
+                }
+            } else if (op == OP_OR) {
+                if (x == ONES || y == ZEROS) {
+                    return x;
+                }
+                if (y == ONES || x == ZEROS) {
+                    return y;
+                }
+            } else if (op == OP_AND_NOT) {
+                if (x == ZEROS || y == ZEROS) {
+                    return x;
+                }
+                if (y == ONES) {
+                    return ZEROS;
+                }
+                if (x == ONES) {
+                    return seal(y.opNot());
+                }
+            } else {
+                if (x == ZEROS) {
+                    return y;
+                }
+                if (y == ZEROS) {
+                    return x;
+                }
+                if (x == ONES) {
+                    return seal(y.opNot());
+                }
+                if (y == ONES) {
+                    return seal(x.opNot());
+                }
+            }
+        }
+        if (!(x instanceof RunBitmap) || !(y instanceof RunBitmap)) {
+            x = toRaw(x);
+            y = toRaw(y);
+        }
+        LTLBitmap.BitmapAdapter answer;
+        if (op == OP_AND) {
+            answer = x.opAnd(y);
+        } else if (op == OP_OR) {
+            answer = x.opOr(y);
+        } else if (op == OP_XOR) {
+            answer = x.opXor(y);
+        } else {
+            answer = x.opAndNot(y);
+        }
+        return seal(answer);
+    }
+
+    private LTLBitmap.BitmapAdapter chunk(int i) {
+        return i < chunks.size() ? chunks.get(i) : null;
+    }
+
+    private interface ChunkTask {
+        void run(int i);
+    }
+
+    /**
+     * Runs a task for every chunk index in [0, <i>count</i>), in blocks of
+     * consecutive chunks on the executor if one is set.
+     */
+    private static void forEachChunk(final int count, final ChunkTask task) {
+        ExecutorService ex = executor;
+        if (ex == null || count < 2 * CHUNKS_PER_TASK) {
+            for (int i = 0; i < count; ++i) {
+                task.run(i);
+            }
+            return;
+        }
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int start = 0; start < count; start += CHUNKS_PER_TASK) {
+            final int from = start;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int to = Math.min(from + CHUNKS_PER_TASK, count);
+                    for (int i = from; i < to; ++i) {
+                        task.run(i);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> f : ex.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private ChunkedBitmap combine(final ChunkedBitmap right, final int op) {
+        int count = Math.max(chunks.size(), right.chunks.size());
+        final LTLBitmap.BitmapAdapter[] result = new LTLBitmap.BitmapAdapter[count];
+        forEachChunk(count, new ChunkTask() {
+            @Override
+            public void run(int i) {
+                result[i] = combineChunk(chunk(i), right.chunk(i), op);
+            }
+        });
+        return new ChunkedBitmap(new ArrayList<LTLBitmap.BitmapAdapter>(Arrays.asList(result)),
+                Math.max(size, right.size));
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        if (count > 0 && shared) {
+            chunks = new ArrayList<LTLBitmap.BitmapAdapter>(chunks);
+            int last = chunks.size() - 1;
+            if (last >= 0 && chunks.get(last).size() != CHUNK_IN_BITS) {
+                chunks.set(last, chunks.get(last).clone());
+            }
+            shared = false;
+        }
+        while (count > 0) {
+            int last = chunks.size() - 1;
+            if (last < 0 || chunks.get(last).size() == CHUNK_IN_BITS) {
+                if (count >= CHUNK_IN_BITS) {
+                    chunks.add(bit ? ONES : ZEROS);
+                    size += CHUNK_IN_BITS;
+                    count -= CHUNK_IN_BITS;
+                    continue;
+                }
+                chunks.add(new Raw64Bitmap());
+                ++last;
+            }
+            LTLBitmap.BitmapAdapter tail = chunks.get(last);
+            int n = Math.min(count, CHUNK_IN_BITS - tail.size());
+            tail.addMany(bit, n);
+            size += n;
+            count -= n;
+            if (tail.size() == CHUNK_IN_BITS) {
+                chunks.set(last, seal(tail));
+            }
+        }
+    }
+
+    @Override
+    public boolean get(int index) {
+        if (index >= size || index < 0) {
+            throw new InvalidParameterException();
+        }
+        return chunks.get(index >>> CHUNK_SHIFT).get(index & CHUNK_MASK);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getRealSize() {
+        int bytes = 0;
+        for (LTLBitmap.BitmapAdapter c : chunks) {
+            bytes += 4;
+            if (c != ZEROS && c != ONES) {
+                bytes += c.getRealSize();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean firstBit() {
+        return size > 0 && chunks.get(0).firstBit();
+    }
+
+    @Override
+    public int cardinality() {
+        int card = 0;
+        for (LTLBitmap.BitmapAdapter c : chunks) {
+            card += c == ONES ? CHUNK_IN_BITS : c.cardinality();
+        }
+        return card;
+    }
+
+    @Override
+    public int last0() {
+        return prevClearBit(size - 1);
+    }
+
+    @Override
+    public int last1() {
+        return prevSetBit(size - 1);
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        for (int i = from >>> CHUNK_SHIFT; i < chunks.size(); ++i) {
+            LTLBitmap.BitmapAdapter c = chunks.get(i);
+            if (c == ZEROS) {
+                continue;
+            }
+            int base = i << CHUNK_SHIFT;
+            int pos = c.nextSetBit(Math.max(from - base, 0));
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        for (int i = from >>> CHUNK_SHIFT; i < chunks.size(); ++i) {
+            LTLBitmap.BitmapAdapter c = chunks.get(i);
+            if (c == ONES) {
+                continue;
+            }
+            int base = i << CHUNK_SHIFT;
+            int pos = c.nextClearBit(Math.max(from - base, 0));
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        from = Math.min(from, size - 1);
+        if (from < 0) {
+            return -1;
+        }
+        for (int i = from >>> CHUNK_SHIFT; i >= 0; --i) {
+            LTLBitmap.BitmapAdapter c = chunks.get(i);
+            if (c == ZEROS) {
+                continue;
+            }
+            int base = i << CHUNK_SHIFT;
+            int pos = c.prevSetBit(Math.min(from - base, CHUNK_MASK));
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        from = Math.min(from, size - 1);
+        if (from < 0) {
+            return -1;
+        }
+        for (int i = from >>> CHUNK_SHIFT; i >= 0; --i) {
+            LTLBitmap.BitmapAdapter c = chunks.get(i);
+            if (c == ONES) {
+                continue;
+            }
+            int base = i << CHUNK_SHIFT;
+            int pos = c.prevClearBit(Math.min(from - base, CHUNK_MASK));
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        final LTLBitmap.BitmapAdapter[] result = new LTLBitmap.BitmapAdapter[chunks.size()];
+        forEachChunk(result.length, new ChunkTask() {
+            @Override
+            public void run(int i) {
+                LTLBitmap.BitmapAdapter c = chunks.get(i);
+                if (c == ZEROS) {
+                    result[i] = ONES;
+                } else if (c == ONES) {
+                    result[i] = ZEROS;
+                } else {
+                    result[i] = c.opNot();
+                }
+            }
+        });
+        return new ChunkedBitmap(new ArrayList<LTLBitmap.BitmapAdapter>(Arrays.asList(result)), size);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        return combine((ChunkedBitmap) bm, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        return combine((ChunkedBitmap) bm, OP_OR);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        return combine((ChunkedBitmap) bm, OP_XOR);
+    }
+
+    /**
+     * Shifts every chunk by one position, taking in the first bit of the
+     * chunk after it. Constant chunks followed by the same bit are kept.
+     */
+    /**
+     * Drops the first <i>k</i> / {@link #CHUNK_IN_BITS} chunks and shifts
+     * the others by the rest: each chunk of the result is the end of a
+     * chunk followed by the start of the next one. Between two equal
+     * constant chunks, this is the constant itself, which is shared.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        if (k >= size) {
+            return new ChunkedBitmap();
+        }
+        final int first = k >>> CHUNK_SHIFT;
+        final int offset = k & CHUNK_MASK;
+        final int count = chunks.size() - first;
+        final LTLBitmap.BitmapAdapter[] result = new LTLBitmap.BitmapAdapter[count];
+        forEachChunk(count, new ChunkTask() {
+            @Override
+            public void run(int i) {
+                LTLBitmap.BitmapAdapter c = chunks.get(first + i);
+                LTLBitmap.BitmapAdapter next = i + 1 < count ? chunks.get(first + i + 1) : null;
+                if (offset == 0) {
+                    // Only the last chunk may still be appended to
+                    result[i] = c.size() == CHUNK_IN_BITS ? c : c.clone();
+                    return;
+                }
+                if (next == c && (c == ZEROS || c == ONES)) {
+                    result[i] = c;
+                    return;
+                }
+                LTLBitmap.BitmapAdapter shifted = c.shiftLeft(offset);
+                if (next != null) {
+                    LTLBitmap.appendRange(next, 0, Math.min(offset, next.size()), shifted);
+                }
+                result[i] = seal(shifted);
+            }
+        });
+        List<LTLBitmap.BitmapAdapter> list = new ArrayList<LTLBitmap.BitmapAdapter>(Arrays.asList(result));
+        if (list.get(count - 1).size() == 0) {
+            list.remove(count - 1);
+        }
+        return new ChunkedBitmap(list, size - k);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return combine((ChunkedBitmap) bm, OP_AND_NOT);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        return ((ChunkedBitmap) bm).combine(this, OP_AND_NOT).opNot();
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_OR);
+    }
+
+    private ChunkedBitmap combineAll(LTLBitmap.BitmapAdapter[] bms, final int op) {
+        final ChunkedBitmap[] operands = new ChunkedBitmap[bms.length + 1];
+        operands[0] = this;
+        int count = chunks.size();
+        int newSize = size;
+        for (int j = 0; j < bms.length; ++j) {
+            operands[j + 1] = (ChunkedBitmap) bms[j];
+            count = Math.max(count, operands[j + 1].chunks.size());
+            newSize = Math.max(newSize, operands[j + 1].size);
+        }
+        final LTLBitmap.BitmapAdapter[] result = new LTLBitmap.BitmapAdapter[count];
+        forEachChunk(count, new ChunkTask() {
+            @Override
+            public void run(int i) {
+                LTLBitmap.BitmapAdapter[] xs = new LTLBitmap.BitmapAdapter[operands.length];
+                for (int j = 0; j < operands.length; ++j) {
+                    xs[j] = operands[j].chunk(i);
+                }
+                result[i] = combineChunks(xs, op);
+            }
+        });
+        return new ChunkedBitmap(new ArrayList<LTLBitmap.BitmapAdapter>(Arrays.asList(result)),
+                newSize);
+    }
+
+    /**
+     * Combines the chunks of many operands at the same index with a
+     * conjunction or a disjunction, like
+     * {@link #combineChunk(LTLBitmap.BitmapAdapter, LTLBitmap.BitmapAdapter, int)}.
+     * When all the chunks are full, a constant chunk decides the result
+     * or is left out; the others are merged in one pass, as runs if they
+     * all are and as words otherwise.
+     */
+    private static LTLBitmap.BitmapAdapter combineChunks(LTLBitmap.BitmapAdapter[] xs, int op) {
+        LTLBitmap.BitmapAdapter absorbing = op == OP_AND ? ZEROS : ONES;
+        LTLBitmap.BitmapAdapter neutral = op == OP_AND ? ONES : ZEROS;
+        boolean full = true;
+        boolean runs = true;
+        for (int j = 0; j < xs.length; ++j) {
+            if (xs[j] == null) {
+                xs[j] = new RunBitmap();
+            }
+            full &= xs[j].size() == CHUNK_IN_BITS;
+            runs &= xs[j] instanceof RunBitmap;
+        }
+        List<LTLBitmap.BitmapAdapter> operands = new ArrayList<LTLBitmap.BitmapAdapter>(xs.length);
+        for (LTLBitmap.BitmapAdapter x : xs) {
+            if (full && x == absorbing) {
+                return x;
+            }
+            if (!full || x != neutral) {
+                operands.add(runs ? x : toRaw(x));
+            }
+        }
+        if (operands.isEmpty()) {
+            return neutral;
+        }
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        LTLBitmap.BitmapAdapter first = operands.get(0);
+        LTLBitmap.BitmapAdapter[] others = operands.subList(1, operands.size()).toArray(
+                new LTLBitmap.BitmapAdapter[operands.size() - 1]);
+        return seal(op == OP_AND ? first.opAndAll(others) : first.opOrAll(others));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        if (size == 0) {
+            return new ChunkedBitmap();
+        }
+        final int count = chunks.size();
+        final LTLBitmap.BitmapAdapter[] result = new LTLBitmap.BitmapAdapter[count];
+        forEachChunk(count, new ChunkTask() {
+            @Override
+            public void run(int i) {
+                LTLBitmap.BitmapAdapter c = chunks.get(i);
+                if (i + 1 == count) {
+                    result[i] = c.removeFirstBit();
+                    return;
+                }
+                boolean carry = chunks.get(i + 1).firstBit();
+                if ((c == ZEROS && !carry) || (c == ONES && carry)) {
+                    result[i] = c;
+                    return;
+                }
+                LTLBitmap.BitmapAdapter shifted = c.removeFirstBit();
+                shifted.add(carry);
+                result[i] = seal(shifted);
+            }
+        });
+        List<LTLBitmap.BitmapAdapter> list = new ArrayList<LTLBitmap.BitmapAdapter>(Arrays.asList(result));
+        if (list.get(count - 1).size() == 0) {
+            list.remove(count - 1);
+        }
+        return new ChunkedBitmap(list, size - 1);
+    }
+
+    /**
+     * Takes over the chunks of a newly computed bitmap. Chunks are never
+     * modified once full, so operators gain nothing from writing into
+     * the chunks of an operand; the in-place operators only avoid a new
+     * adapter.
+     */
+    private void become(ChunkedBitmap bm) {
+        chunks = bm.chunks;
+        size = bm.size;
+        shared = bm.shared;
+    }
+
+    @Override
+    public void notInPlace() {
+        become((ChunkedBitmap) opNot());
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((ChunkedBitmap) bm, OP_AND));
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((ChunkedBitmap) bm, OP_OR));
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((ChunkedBitmap) bm, OP_XOR));
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        become((ChunkedBitmap) removeFirstBit());
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        ChunkedBitmap other = (ChunkedBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        become(other);
+        shared = true;
+        other.shared = true;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        ChunkedBitmap bm = new ChunkedBitmap(chunks, size);
+        bm.shared = true;
+        shared = true;
+        return bm;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size);
+        for (LTLBitmap.BitmapAdapter c : chunks) {
+            sb.append(c.toString());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        return new Iterator(size);
+    }
+
+    class Iterator implements LTLBitmap.BitmapIterator {
+        private int index;
+
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(int offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return get(index);
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
@@ -20,10 +20,33 @@ package ca.uqac.phoenixxie.ltl.bitmap;
 import it.uniroma3.mat.extendedset.intset.ConciseSet;
 import it.uniroma3.mat.extendedset.intset.IntSet;
 
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
 public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
+    /**
+     * Number of positions covered by a literal word or by each block of a
+     * fill word
+     */
+    private static final int BLOCK_IN_BITS = 31;
+
     private ConciseSet bitmap;
     private int size;
 
+    /**
+     * Cursor over the words of the bitmap, created on the first read and
+     * discarded when a 1 is appended.
+     */
+    private WordCursor cursor = null;
+
+    /**
+     * Set when {@link #bitmap} is shared with a clone; the set is then
+     * copied before a 1 is appended.
+     */
+    private boolean shared = false;
+
     public ConciseBitmap() {
         this(false);
     }
@@ -41,7 +64,9 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
     @Override
     public void add(boolean bit) {
         if (bit) {
+            unshare();
             bitmap.add(size);
+            cursor = null;
         }
         ++size;
     }
@@ -53,14 +78,64 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
         }
 
         if (bit) {
+            unshare();
             bitmap.addMany(size, count);
+            cursor = null;
         }
         size += count;
     }
 
+    private void unshare() {
+        if (shared) {
+            bitmap = bitmap.clone();
+            shared = false;
+        }
+    }
+
     @Override
     public boolean get(int position) {
-        return bitmap.contains(position);
+        return cursor().get(position);
+    }
+
+    private WordCursor cursor() {
+        if (cursor == null) {
+            cursor = new WordCursor(bitmap.getWords());
+        }
+        return cursor;
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int pos = cursor().next(from, true);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int pos = cursor().next(from, false);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        if (from < 0 || size == 0) {
+            return -1;
+        }
+        return cursor().prev(Math.min(from, size - 1), true);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        if (from < 0 || size == 0) {
+            return -1;
+        }
+        return cursor().prev(Math.min(from, size - 1), false);
     }
 
     @Override
@@ -110,7 +185,7 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
         if (last1() != size - 1) {
             return size - 1;
         }
-        return bitmap.last0();
+        return cursor().last0();
     }
 
     @Override
@@ -123,20 +198,13 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opNot() {
-        ConciseBitmap bm = new ConciseBitmap(bitmap.complemented(), size);
-
-        int bmSize = 0;
-        if (bitmap.isEmpty()) {
-            bmSize = 0;
-        } else {
-            bmSize = bitmap.last() + 1;
+        // Removes the set from a fill of the whole range: the library
+        // fails to complement sets whose words were all cleared
+        ConciseSet all = bitmap.empty();
+        if (size > 0) {
+            all.fill(0, size - 1);
         }
-
-        if (bmSize < size) {
-            bm.bitmap.fill(bmSize, size - 1);
-        }
-
-        return bm;
+        return new ConciseBitmap(all.difference(bitmap), size);
     }
 
     @Override
@@ -160,46 +228,179 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
         );
     }
 
+    /**
+     * Copies the bits past the first <i>k</i> run by run; the library
+     * only shifts by one position at a time.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        ConciseBitmap bm = new ConciseBitmap();
+        LTLBitmap.appendRange(this, Math.min(k, size()), size(), bm);
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return new ConciseBitmap(bitmap.difference(((ConciseBitmap) bm).bitmap),
+                Math.max(size, bm.size()));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        return bm.opAndNot(this).opNot();
+    }
+
+    /**
+     * Intersects the operands from the one with the fewest 1s up, so that
+     * no intermediate set is larger than that operand, and stops as soon
+     * as the result is empty.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        ConciseSet[] sets = operands(bms);
+        Arrays.sort(sets, new Comparator<ConciseSet>() {
+            @Override
+            public int compare(ConciseSet a, ConciseSet b) {
+                return a.size() - b.size();
+            }
+        });
+        ConciseSet answer = sets[0];
+        for (int i = 1; i < sets.length && answer.size() > 0; ++i) {
+            answer = answer.intersection(sets[i]);
+        }
+        if (answer.size() == 0) {
+            // Also avoids sharing an empty operand with the result
+            answer = bitmap.empty();
+        }
+        return new ConciseBitmap(answer, maxSize(bms));
+    }
+
+    /**
+     * Merges the operands two at a time, always taking the two smallest
+     * from a heap ordered by compressed size, so that large operands are
+     * only read once.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        ConciseSet[] sets = operands(bms);
+        PriorityQueue<ConciseSet> heap = new PriorityQueue<ConciseSet>(sets.length,
+                new Comparator<ConciseSet>() {
+                    @Override
+                    public int compare(ConciseSet a, ConciseSet b) {
+                        return a.getRealSize() - b.getRealSize();
+                    }
+                });
+        heap.addAll(Arrays.asList(sets));
+        while (heap.size() > 1) {
+            heap.add(heap.poll().union(heap.poll()));
+        }
+        return new ConciseBitmap(heap.poll(), maxSize(bms));
+    }
+
+    private ConciseSet[] operands(LTLBitmap.BitmapAdapter[] bms) {
+        ConciseSet[] sets = new ConciseSet[bms.length + 1];
+        sets[0] = bitmap;
+        for (int i = 0; i < bms.length; ++i) {
+            sets[i + 1] = ((ConciseBitmap) bms[i]).bitmap;
+        }
+        return sets;
+    }
+
+    private int maxSize(LTLBitmap.BitmapAdapter[] bms) {
+        int n = size;
+        for (LTLBitmap.BitmapAdapter bm : bms) {
+            n = Math.max(n, bm.size());
+        }
+        return n;
+    }
+
     @Override
     public LTLBitmap.BitmapAdapter removeFirstBit() {
-        return new ConciseBitmap(bitmap.shiftLeft1Bit(), size - 1);
+        ConciseSet shifted = bitmap.shiftLeft1Bit();
+        if (shifted.size() == 0) {
+            // A set emptied by the shift is not recognized as empty by the
+            // library, and later appends land at the wrong positions
+            shifted = bitmap.empty();
+        }
+        return new ConciseBitmap(shifted, size - 1);
+    }
+
+    /**
+     * Takes over the set of a newly computed bitmap; the library has no
+     * in-place operators, so only the adapter is saved.
+     */
+    private void become(ConciseBitmap bm) {
+        bitmap = bm.bitmap;
+        size = bm.size;
+        shared = bm.shared;
+        cursor = null;
+    }
+
+    @Override
+    public void notInPlace() {
+        become((ConciseBitmap) opNot());
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        become((ConciseBitmap) opAnd(bm));
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        become((ConciseBitmap) opOr(bm));
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        become((ConciseBitmap) opXor(bm));
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        become((ConciseBitmap) removeFirstBit());
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        ConciseBitmap other = (ConciseBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        become(other);
+        shared = true;
+        other.shared = true;
     }
 
     @Override
     public LTLBitmap.BitmapAdapter clone() {
-        return new ConciseBitmap(bitmap.clone(), size);
+        ConciseBitmap bm = new ConciseBitmap(bitmap, size);
+        bm.shared = true;
+        shared = true;
+        return bm;
     }
 
     @Override
     public LTLBitmap.BitmapIterator begin() {
-        return new Iterator();
+        return new Iterator(0);
     }
 
     @Override
     public LTLBitmap.BitmapIterator end() {
-        return new Iterator(null, size);
+        return new Iterator(size);
     }
 
     private class Iterator implements LTLBitmap.BitmapIterator {
-        private ConciseSet.LTLIterator itor;
         private int index;
-        private boolean isEnd;
-
-        public Iterator() {
-            itor = bitmap.getLTLIterator();
-            index = 0;
-            isEnd = false;
-            if (size == 0) {
-                isEnd = true;
-            }
-        }
 
-        private Iterator(ConciseSet.LTLIterator it, int index) {
-            this.itor = it;
-            this.index = index;
-            if (index == size) {
-                this.isEnd = true;
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new IndexOutOfBoundsException();
             }
+            this.index = index;
         }
 
         @Override
@@ -209,78 +410,252 @@ public class ConciseBitmap implements LTLBitmap.BitmapAdapter {
 
         @Override
         public void moveForward(int offset) {
-            index += offset;
-            if (index > size) {
+            if (offset < 0 || index + offset > size) {
                 throw new IndexOutOfBoundsException();
             }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
             if (index == size) {
-                isEnd = true;
-                return;
+                throw new IndexOutOfBoundsException();
             }
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
 
-            if (bitmap.isEmpty() || index > bitmap.last()) {
-                return;
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
             }
-
-            itor.moveForward(offset);
-            assert index == itor.index();
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
         }
 
         @Override
-        public LTLBitmap.BitmapIterator find0() {
-            if (isEnd) {
+        public boolean currentBit() {
+            if (index == size) {
                 throw new IndexOutOfBoundsException();
             }
+            return get(index);
+        }
 
-            if (bitmap.isEmpty() || index > bitmap.last()) {
-                return new Iterator(null, index);
-            }
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
 
-            ConciseSet.LTLIterator it = itor.find0();
-            if (it == null) {
-                if (size > bitmap.last() + 1) {
-                    return new Iterator(null, bitmap.last() + 1);
-                }
-                return null;
-            }
+    /**
+     * Cursor walking the words of a Concise (or WAH) bitmap directly.
+     * Each word covers a whole number of 31-bit blocks: a literal word holds
+     * the bits of one block, and a fill word holds a sequence of blocks of
+     * 0s or of 1s, where the first block may have one flipped bit. The
+     * cursor moves word by word in either direction, so that a fill is
+     * skipped in a single step, and successive searches at nearby
+     * positions only visit the words in between.
+     */
+    private static class WordCursor {
+        private final int[] words;
+
+        /**
+         * Index of the current word; equal to the number of words when the
+         * cursor is past the last word
+         */
+        private int wi = 0;
+
+        /**
+         * First position covered by the current word
+         */
+        private int start = 0;
+
+        WordCursor(int[] words) {
+            this.words = words;
+        }
 
-            return new Iterator(it, it.index());
+        private static boolean isLiteral(int word) {
+            return (word & 0x80000000) != 0;
         }
 
-        @Override
-        public LTLBitmap.BitmapIterator find1() {
-            if (isEnd) {
-                throw new IndexOutOfBoundsException();
-            }
+        private static boolean isOneSequence(int word) {
+            return (word & 0xC0000000) == 0x40000000;
+        }
 
-            if (bitmap.isEmpty() || index > bitmap.last()) {
-                return null;
-            }
+        private static int blocks(int word) {
+            return isLiteral(word) ? 1 : (word & 0x01FFFFFF) + 1;
+        }
 
-            ConciseSet.LTLIterator it = itor.find1();
-            if (it == null) {
-                return null;
-            }
+        /**
+         * Gets the position of the flipped bit in the first block of a
+         * sequence word, or -1 if there is none.
+         */
+        private static int flippedBit(int word) {
+            return ((word >>> 25) & 0x1F) - 1;
+        }
 
-            return new Iterator(it, it.index());
+        private int end() {
+            return start + blocks(words[wi]) * BLOCK_IN_BITS;
         }
 
-        @Override
-        public boolean currentBit() {
-            if (isEnd) {
-                throw new IndexOutOfBoundsException();
+        /**
+         * Moves the cursor to the word covering a position, or past the last
+         * word if no word covers it.
+         */
+        private void seek(int pos) {
+            while (wi > 0 && pos < start) {
+                --wi;
+                start -= blocks(words[wi]) * BLOCK_IN_BITS;
             }
+            while (wi < words.length && pos >= end()) {
+                start = end();
+                ++wi;
+            }
+        }
 
-            if (bitmap.isEmpty() || index > bitmap.last()) {
+        boolean get(int pos) {
+            seek(pos);
+            if (wi == words.length) {
                 return false;
             }
+            int word = words[wi];
+            int off = pos - start;
+            if (isLiteral(word)) {
+                return (word & (1 << off)) != 0;
+            }
+            boolean flipped = off == flippedBit(word);
+            return isOneSequence(word) != flipped;
+        }
+
+        /**
+         * Finds the first position at or after <i>from</i> holding a given
+         * bit. Positions past the last word are 0s.
+         * @return The position, or -1 if the bit is 1 and there is no 1
+         * after <i>from</i>
+         */
+        int next(int from, boolean bit) {
+            seek(from);
+            while (wi < words.length) {
+                int word = words[wi];
+                if (isLiteral(word)) {
+                    int bits = bit ? word : ~word;
+                    bits &= 0x7FFFFFFF & (-1 << (from - start));
+                    if (bits != 0) {
+                        return start + Integer.numberOfTrailingZeros(bits);
+                    }
+                } else {
+                    int f = flippedBit(word);
+                    int flipped = f >= 0 ? start + f : -1;
+                    if (isOneSequence(word) == bit) {
+                        int candidate = from == flipped ? from + 1 : from;
+                        if (candidate < end()) {
+                            return candidate;
+                        }
+                    } else if (flipped >= from) {
+                        return flipped;
+                    }
+                }
+                start = end();
+                ++wi;
+                from = start;
+            }
+            return bit ? -1 : from;
+        }
 
-            return itor.currentBit();
+        /**
+         * Finds the last position at or before <i>from</i> holding a given
+         * bit, walking the words backwards. Positions past the last word
+         * are 0s.
+         * @return The position, or -1 if there is none
+         */
+        int prev(int from, boolean bit) {
+            seek(from);
+            if (wi == words.length) {
+                if (!bit) {
+                    return from;
+                }
+                if (wi == 0) {
+                    return -1;
+                }
+                from = start - 1;
+                --wi;
+                start -= blocks(words[wi]) * BLOCK_IN_BITS;
+            }
+            while (true) {
+                int word = words[wi];
+                if (isLiteral(word)) {
+                    int bits = bit ? word : ~word;
+                    bits &= 0x7FFFFFFF & (-1 >>> (BLOCK_IN_BITS - (from - start)));
+                    if (bits != 0) {
+                        return start + 31 - Integer.numberOfLeadingZeros(bits);
+                    }
+                } else {
+                    int f = flippedBit(word);
+                    int flipped = f >= 0 ? start + f : -1;
+                    if (isOneSequence(word) == bit) {
+                        int candidate = from == flipped ? from - 1 : from;
+                        if (candidate >= start) {
+                            return candidate;
+                        }
+                    } else if (flipped >= 0 && flipped <= from) {
+                        return flipped;
+                    }
+                }
+                if (wi == 0) {
+                    return -1;
+                }
+                from = start - 1;
+                --wi;
+                start -= blocks(words[wi]) * BLOCK_IN_BITS;
+            }
         }
 
-        @Override
-        public boolean isEnd() {
-            return isEnd;
+        /**
+         * Finds the last 0 of a bitmap whose last position holds a 1, that
+         * is, the last 0 within the words. The words are walked backwards
+         * from the end.
+         * @return The position, or -1 if all positions are 1s
+         */
+        int last0() {
+            seek(Integer.MAX_VALUE);
+            while (wi > 0) {
+                --wi;
+                int word = words[wi];
+                int end = start;
+                start -= blocks(word) * BLOCK_IN_BITS;
+                if (isLiteral(word)) {
+                    int zeros = ~word & 0x7FFFFFFF;
+                    if (wi == words.length - 1) {
+                        // Ignore the 0s after the last 1
+                        zeros &= -1 >>> Integer.numberOfLeadingZeros(word & 0x7FFFFFFF);
+                    }
+                    if (zeros != 0) {
+                        return start + 31 - Integer.numberOfLeadingZeros(zeros);
+                    }
+                    continue;
+                }
+                int f = flippedBit(word);
+                int flipped = f >= 0 ? start + f : -1;
+                if (isOneSequence(word)) {
+                    if (flipped >= 0) {
+                        return flipped;
+                    }
+                    continue;
+                }
+                int last = end - 1;
+                if (wi == words.length - 1) {
+                    // A trailing sequence of 0s can only end with its flipped 1
+                    last = flipped;
+                }
+                if (last != flipped) {
+                    return last;
+                }
+                if (last - 1 >= start) {
+                    return last - 1;
+                }
+            }
+            return -1;
         }
     }
 }
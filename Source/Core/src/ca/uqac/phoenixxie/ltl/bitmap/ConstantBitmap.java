@@ -0,0 +1,606 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Bitmap whose positions all hold the same value, stored as that value
+ * and a length. Atoms that never change over a trace, and formulas such
+ * as G of a condition that never fails, give such bitmaps; operators on
+ * them take constant time.
+ * <p>
+ * A constant bitmap can be combined with a bitmap of any other class:
+ * its operators apply the identities of the connectives (0 &and;
+ * <i>x</i> = 0, 1 &and; <i>x</i> = <i>x</i>, and so on) and return
+ * either a constant or the other operand. When the operands are of
+ * different lengths, the padding of the shorter one with 0s can break
+ * these identities; the constant is then expanded into a bitmap of its
+ * type. Since other bitmaps only accept operands of their own class, a
+ * constant must be the receiver of a binary operator; the static
+ * operators of {@link LTLBitmap} take care of this.
+ * <p>
+ * Appending a bit of the other value, or an in-place operator whose
+ * result is not constant, expands the bitmap into one of its type, to
+ * which it forwards all its methods from then on; {@link #isConstant()}
+ * tells whether this happened.
+ */
+public class ConstantBitmap implements LTLBitmap.BitmapAdapter {
+    /**
+     * Type of the bitmap this one is expanded into when it stops being
+     * constant
+     */
+    private final LTLBitmap.Type type;
+
+    private boolean value;
+
+    private int size;
+
+    /**
+     * The bitmap this one was expanded into, or null while it is constant
+     */
+    private LTLBitmap.BitmapAdapter expanded = null;
+
+    public ConstantBitmap(LTLBitmap.Type type, int size, boolean value) {
+        if (size < 0) {
+            throw new InvalidParameterException();
+        }
+        this.type = type;
+        this.size = size;
+        this.value = value;
+    }
+
+    public LTLBitmap.Type getType() {
+        return type;
+    }
+
+    /**
+     * Tells whether all the positions still hold the same value, that is,
+     * whether this bitmap was not expanded.
+     */
+    public boolean isConstant() {
+        return expanded == null;
+    }
+
+    /**
+     * Tells whether a bitmap is a constant that was not expanded.
+     */
+    public static boolean isConstant(LTLBitmap.BitmapAdapter bm) {
+        return bm instanceof ConstantBitmap && ((ConstantBitmap) bm).expanded == null;
+    }
+
+    /**
+     * Gets the value held at every position.
+     *
+     * @throws IllegalStateException If the bitmap was expanded
+     */
+    public boolean getValue() {
+        if (expanded != null) {
+            throw new IllegalStateException("The bitmap is no longer constant");
+        }
+        return value;
+    }
+
+    /**
+     * Creates a bitmap of the type of this constant with the same bits.
+     */
+    public LTLBitmap.BitmapAdapter expand() {
+        if (expanded != null) {
+            return expanded.clone();
+        }
+        LTLBitmap.BitmapAdapter bm = LTLBitmap.createAdapter(type);
+        bm.addMany(value, size);
+        return bm;
+    }
+
+    /**
+     * Expands a bitmap if it is a constant.
+     */
+    static LTLBitmap.BitmapAdapter expand(LTLBitmap.BitmapAdapter bm) {
+        return bm instanceof ConstantBitmap ? ((ConstantBitmap) bm).expand() : bm;
+    }
+
+    /**
+     * Tells whether a bitmap is a constant of a given value.
+     */
+    static boolean is(LTLBitmap.BitmapAdapter bm, boolean value) {
+        return isConstant(bm) && ((ConstantBitmap) bm).value == value;
+    }
+
+    /**
+     * Makes this bitmap hold the bits of another one, expanding it unless
+     * they are constant.
+     */
+    private void become(LTLBitmap.BitmapAdapter bm) {
+        if (isConstant(bm)) {
+            ConstantBitmap other = (ConstantBitmap) bm;
+            value = other.value;
+            size = other.size;
+            expanded = null;
+        } else {
+            expanded = LTLBitmap.convert(bm, type);
+        }
+    }
+
+    private ConstantBitmap constant(int size, boolean value) {
+        return new ConstantBitmap(type, size, value);
+    }
+
+    /**
+     * Copies a bitmap, padded with 0s to a given length.
+     */
+    private static LTLBitmap.BitmapAdapter padded(LTLBitmap.BitmapAdapter bm, int size) {
+        LTLBitmap.BitmapAdapter answer = bm.clone();
+        answer.addMany(false, size - answer.size());
+        return answer;
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (expanded == null && bit != value && size > 0) {
+            expanded = expand();
+        }
+        if (expanded != null) {
+            expanded.addMany(bit, count);
+            return;
+        }
+        value = bit;
+        size += count;
+    }
+
+    @Override
+    public boolean get(int position) {
+        if (expanded != null) {
+            return expanded.get(position);
+        }
+        if (position >= size || position < 0) {
+            throw new InvalidParameterException();
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        if (expanded != null) {
+            return expanded.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int getRealSize() {
+        if (expanded != null) {
+            return expanded.getRealSize();
+        }
+        return 8;
+    }
+
+    @Override
+    public boolean firstBit() {
+        if (expanded != null) {
+            return expanded.firstBit();
+        }
+        return size > 0 && value;
+    }
+
+    @Override
+    public int cardinality() {
+        if (expanded != null) {
+            return expanded.cardinality();
+        }
+        return value ? size : 0;
+    }
+
+    @Override
+    public int last0() {
+        if (expanded != null) {
+            return expanded.last0();
+        }
+        return value ? -1 : size - 1;
+    }
+
+    @Override
+    public int last1() {
+        if (expanded != null) {
+            return expanded.last1();
+        }
+        return value ? size - 1 : -1;
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (expanded != null) {
+            return expanded.nextSetBit(from);
+        }
+        return next(from, true);
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (expanded != null) {
+            return expanded.nextClearBit(from);
+        }
+        return next(from, false);
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        if (expanded != null) {
+            return expanded.prevSetBit(from);
+        }
+        return prev(from, true);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        if (expanded != null) {
+            return expanded.prevClearBit(from);
+        }
+        return prev(from, false);
+    }
+
+    private int next(int from, boolean bit) {
+        if (bit != value) {
+            return -1;
+        }
+        from = Math.max(from, 0);
+        return from < size ? from : -1;
+    }
+
+    private int prev(int from, boolean bit) {
+        if (bit != value || from < 0) {
+            return -1;
+        }
+        return Math.min(from, size - 1);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        if (expanded != null) {
+            return expanded.opNot();
+        }
+        return constant(size, !value);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            return expanded.opAnd(expand(bm));
+        }
+        int n = Math.max(size, bm.size());
+        if (!value || is(bm, false)) {
+            return constant(n, false);
+        }
+        if (bm instanceof ConstantBitmap) {
+            if (size == bm.size()) {
+                return constant(n, true);
+            }
+        } else if (bm.size() <= size) {
+            return padded(bm, n);
+        }
+        return expand().opAnd(expand(bm));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            return expanded.opOr(expand(bm));
+        }
+        int n = Math.max(size, bm.size());
+        if (bm instanceof ConstantBitmap) {
+            boolean other = ((ConstantBitmap) bm).value;
+            if (size == bm.size() || value == other) {
+                return constant(n, value || other);
+            }
+        } else if (!value) {
+            return padded(bm, n);
+        } else if (bm.size() <= size) {
+            return constant(n, true);
+        }
+        return expand().opOr(expand(bm));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            return expanded.opXor(expand(bm));
+        }
+        int n = Math.max(size, bm.size());
+        if (bm instanceof ConstantBitmap) {
+            if (size == bm.size()) {
+                return constant(n, value != ((ConstantBitmap) bm).value);
+            }
+        } else if (!value) {
+            return padded(bm, n);
+        } else if (size == bm.size()) {
+            return bm.opNot();
+        }
+        return expand().opXor(expand(bm));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            return expanded.opAndNot(expand(bm));
+        }
+        int n = Math.max(size, bm.size());
+        if (!value || is(bm, true) && bm.size() >= size) {
+            return constant(n, false);
+        }
+        if (size == bm.size()) {
+            // This is all 1s, so the result is the negation of the operand
+            return bm.opNot();
+        }
+        return expand().opAndNot(expand(bm));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            return expanded.opOrNot(expand(bm));
+        }
+        int n = Math.max(size, bm.size());
+        if (value && bm.size() <= size || is(bm, false)) {
+            return constant(n, true);
+        }
+        if (size == bm.size()) {
+            // This is all 0s, so the result is the negation of the operand
+            return bm.opNot();
+        }
+        return expand().opOrNot(expand(bm));
+    }
+
+    /**
+     * Computes the conjunction with {@link LTLBitmap#andAll}, which drops
+     * this bitmap or returns it depending on its value.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return LTLBitmap.andAll(withThis(bms));
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return LTLBitmap.orAll(withThis(bms));
+    }
+
+    private LTLBitmap.BitmapAdapter[] withThis(LTLBitmap.BitmapAdapter[] bms) {
+        LTLBitmap.BitmapAdapter[] operands = new LTLBitmap.BitmapAdapter[bms.length + 1];
+        operands[0] = expanded == null ? this : expanded;
+        System.arraycopy(bms, 0, operands, 1, bms.length);
+        return operands;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        if (expanded != null) {
+            return expanded.removeFirstBit();
+        }
+        return constant(Math.max(size - 1, 0), value);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (expanded != null) {
+            return expanded.shiftLeft(k);
+        }
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        return constant(Math.max(size - k, 0), value);
+    }
+
+    @Override
+    public void notInPlace() {
+        if (expanded != null) {
+            expanded.notInPlace();
+            return;
+        }
+        value = !value;
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            expanded.andInPlace(expand(bm));
+            return;
+        }
+        become(opAnd(bm));
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            expanded.orInPlace(expand(bm));
+            return;
+        }
+        become(opOr(bm));
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        if (expanded != null) {
+            expanded.xorInPlace(expand(bm));
+            return;
+        }
+        become(opXor(bm));
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        if (expanded != null) {
+            expanded.removeFirstBitInPlace();
+            return;
+        }
+        size = Math.max(size - 1, 0);
+    }
+
+    /**
+     * Copies the bits of a bitmap of any class, which expands this one
+     * unless they are constant.
+     */
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        if (bm != this) {
+            become(bm);
+        }
+    }
+
+    /**
+     * Copies this bitmap; once expanded, the copy is a bitmap of its type.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        if (expanded != null) {
+            return expanded.clone();
+        }
+        return constant(size, value);
+    }
+
+    @Override
+    public String toString() {
+        if (expanded != null) {
+            return expanded.toString();
+        }
+        StringBuilder answer = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            answer.append(value ? '1' : '0');
+        }
+        return answer.toString();
+    }
+
+    /**
+     * Evaluates an until-like operator, with the same parameters as
+     * {@link LTLBitmap#runUntil}, when an operand is a constant of the
+     * length of the other. With 0s and 1s exchanged when <i>dual</i> is
+     * set, <i>a</i> U 1 = 1, 0 U <i>b</i> = <i>b</i>, 1 U <i>b</i> =
+     * F <i>b</i> and <i>a</i> U 0 = 0, and likewise for W with G
+     * <i>a</i> and 1.
+     *
+     * @return The result, or null if no operand is a constant, in which
+     *   case the operator has to be evaluated
+     */
+    static LTLBitmap.BitmapAdapter until(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                         LTLBitmap.BitmapAdapter right, boolean dual, boolean weak) {
+        if (!isConstant(left) && !isConstant(right)) {
+            return null;
+        }
+        int n = left.size();
+        if (n != right.size()) {
+            // Padding would append 0s to a constant
+            LTLBitmap.BitmapAdapter l = expand(left);
+            LTLBitmap.BitmapAdapter r = expand(right);
+            return LTLBitmap.runUntil(type, l, r, dual, weak);
+        }
+        // The values of the operands in the convention of U
+        if (is(right, !dual)) {
+            return new ConstantBitmap(type, n, !dual);
+        }
+        if (is(left, dual)) {
+            return right.clone();
+        }
+        if (is(right, dual)) {
+            if (!weak) {
+                return new ConstantBitmap(type, n, dual);
+            }
+            // a W 0 = G a, and dually a M 1 = F a
+            return dual ? LTLBitmap.future(type, left) : LTLBitmap.global(type, left);
+        }
+        // The left operand is 1 in the convention of U
+        if (weak) {
+            return new ConstantBitmap(type, n, !dual);
+        }
+        return dual ? LTLBitmap.global(type, right) : LTLBitmap.future(type, right);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        if (expanded != null) {
+            return expanded.begin();
+        }
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        if (expanded != null) {
+            return expanded.end();
+        }
+        return new Iterator(size);
+    }
+
+    class Iterator implements LTLBitmap.BitmapIterator {
+        private int index;
+
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(int offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return value;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
@@ -19,12 +19,37 @@ package ca.uqac.phoenixxie.ltl.bitmap;
 
 import com.googlecode.javaewah.Buffer;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.FastAggregation;
 import com.googlecode.javaewah.IntIterator;
 import com.googlecode.javaewah.RunningLengthWord;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
 public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
     private EWAHCompressedBitmap bitmap;
 
+    /**
+     * Cursor over the words of {@link #bitmap} used by the searches;
+     * dropped whenever a bit is appended.
+     */
+    private MarkerCursor cursor;
+
+    /**
+     * Set when {@link #bitmap} is shared with a clone; it is then copied
+     * before anything is appended, since appending 0s also writes to it.
+     */
+    private boolean shared = false;
+
+    /**
+     * Set when {@link #bitmap} reads its words from a buffer that cannot
+     * be written, such as a mapped file
+     */
+    private boolean readOnly = false;
+
     public EWAH64Bitmap() {
         bitmap = new EWAHCompressedBitmap();
     }
@@ -33,8 +58,69 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
         bitmap = bm;
     }
 
+    /**
+     * Wraps a serialized bitmap without copying it; the bitmap reads
+     * its words from the buffer, which may be a mapped file.
+     */
+    static EWAH64Bitmap map(ByteBuffer buffer) {
+        EWAH64Bitmap bm = new EWAH64Bitmap(new EWAHCompressedBitmap(buffer));
+        bm.readOnly = true;
+        return bm;
+    }
+
+    void serialize(DataOutput out) throws IOException {
+        bitmap.serialize(out);
+    }
+
+    /**
+     * Expands the compressed words into 64-bit words.
+     */
+    long[] toWords() {
+        int n = bitmap.sizeInBits();
+        long[] words = new long[Math.max(Raw64Bitmap.wordsFor(n), 1)];
+        Buffer buffer = bitmap.getBuffer();
+        int sizeInWords = buffer.sizeInWords();
+        int w = 0;
+        for (int marker = 0; marker < sizeInWords && w < words.length; ) {
+            int rl = (int) RunningLengthWord.getRunningLength(buffer, marker);
+            int literals = RunningLengthWord.getNumberOfLiteralWords(buffer, marker);
+            if (RunningLengthWord.getRunningBit(buffer, marker)) {
+                Arrays.fill(words, w, Math.min(w + rl, words.length), ~0L);
+            }
+            w += rl;
+            for (int i = 0; i < literals && w < words.length; ++i, ++w) {
+                words[w] = buffer.getWord(marker + 1 + i);
+            }
+            marker += 1 + literals;
+        }
+        words[words.length - 1] &= Raw64Bitmap.tailMask(n);
+        return words;
+    }
+
+    /**
+     * Builds a bitmap from 64-bit words, compressing them on the fly.
+     */
+    static EWAH64Bitmap fromWords(long[] words, int n) {
+        EWAHCompressedBitmap bm = new EWAHCompressedBitmap();
+        int full = n / EWAHCompressedBitmap.WORD_IN_BITS;
+        for (int i = 0; i < full; ++i) {
+            bm.addWord(words[i]);
+        }
+        int rest = n % EWAHCompressedBitmap.WORD_IN_BITS;
+        if (rest > 0) {
+            bm.addWord(words[full], rest);
+            // Like a shift, a partial last word breaks later appends of 0s;
+            // see removeFirstBit()
+            bm = bm.or(new EWAHCompressedBitmap());
+        }
+        return new EWAH64Bitmap(bm);
+    }
+
     @Override
     public void add(boolean bit) {
+        checkWritable();
+        unshare();
+        cursor = null;
         if (bit) {
             bitmap.set(bitmap.sizeInBits());
         } else {
@@ -44,6 +130,7 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public void addMany(boolean bit, int count) {
+        checkWritable();
         if (count <= 0) {
             return;
         }
@@ -58,12 +145,55 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
 
         int fullwords = count / EWAHCompressedBitmap.WORD_IN_BITS;
         left = count % EWAHCompressedBitmap.WORD_IN_BITS;
+        unshare();
+        cursor = null;
         bitmap.addStreamOfEmptyWords(bit, fullwords);
         for (int i = 0; i < left; ++i) {
             add(bit);
         }
     }
 
+    private MarkerCursor cursor() {
+        if (cursor == null) {
+            cursor = new MarkerCursor(bitmap.getBuffer());
+        }
+        return cursor;
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size()) {
+            return -1;
+        }
+        int pos = cursor().next(from, true);
+        return pos < size() ? pos : -1;
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size()) {
+            return -1;
+        }
+        int pos = cursor().next(from, false);
+        return pos < size() ? pos : -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        if (from < 0 || size() == 0) {
+            return -1;
+        }
+        return cursor().prev(Math.min(from, size() - 1), true);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        if (from < 0 || size() == 0) {
+            return -1;
+        }
+        return cursor().prev(Math.min(from, size() - 1), false);
+    }
+
     @Override
     public int size() {
         return bitmap.sizeInBits();
@@ -129,22 +259,152 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
         return new EWAH64Bitmap(bitmap.xor(((EWAH64Bitmap) bm).bitmap));
     }
 
+    /**
+     * Copies the bits past the first <i>k</i> run by run; the library
+     * only shifts by one position at a time.
+     */
     @Override
-    public LTLBitmap.BitmapAdapter removeFirstBit() {
-        return new EWAH64Bitmap(bitmap.removeFirstBit());
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        EWAH64Bitmap bm = new EWAH64Bitmap();
+        LTLBitmap.appendRange(this, Math.min(k, size()), size(), bm);
+        return bm;
     }
 
     @Override
-    public LTLBitmap.BitmapAdapter clone() {
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return new EWAH64Bitmap(bitmap.andNot(((EWAH64Bitmap) bm).bitmap));
+    }
+
+    /**
+     * Computes this &or; &not;<i>bm</i> as &not;(<i>bm</i> &and; &not;this),
+     * negating the intermediate result in place.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        EWAHCompressedBitmap answer = ((EWAH64Bitmap) bm).bitmap.andNot(bitmap);
+        answer.not();
+        return new EWAH64Bitmap(answer);
+    }
+
+    /**
+     * Uses the multi-way conjunction of the library, which reads the
+     * operands side by side and skips, in all of them at once, the fills
+     * of 0s of any of them.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return new EWAH64Bitmap(EWAHCompressedBitmap.and(operands(bms)));
+    }
+
+    /**
+     * Uses the aggregation of the library, which keeps the operands in a
+     * heap ordered by size and repeatedly merges the two smallest.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return new EWAH64Bitmap(FastAggregation.or(operands(bms)));
+    }
+
+    private EWAHCompressedBitmap[] operands(LTLBitmap.BitmapAdapter[] bms) {
+        EWAHCompressedBitmap[] operands = new EWAHCompressedBitmap[bms.length + 1];
+        operands[0] = bitmap;
+        for (int i = 0; i < bms.length; ++i) {
+            operands[i + 1] = ((EWAH64Bitmap) bms[i]).bitmap;
+        }
+        return operands;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        // The shifted bitmap is left in a state where appending a 0 adds
+        // a whole word; an OR with an empty bitmap rebuilds it properly
+        return new EWAH64Bitmap(bitmap.removeFirstBit().or(new EWAHCompressedBitmap()));
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Bitmap is read-only");
+        }
+    }
+
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
         try {
-            EWAHCompressedBitmap bm = bitmap.clone();
-            return new EWAH64Bitmap(bm);
+            bitmap = bitmap.clone();
+            shared = false;
         } catch (CloneNotSupportedException e) {
             e.printStackTrace();
-            return null;
         }
     }
 
+    @Override
+    public void notInPlace() {
+        checkWritable();
+        unshare();
+        cursor = null;
+        bitmap.not();
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        // The library has no in-place conjunction: only the adapter is saved
+        bitmap = bitmap.and(((EWAH64Bitmap) bm).bitmap);
+        shared = false;
+        readOnly = false;
+        cursor = null;
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        bitmap = bitmap.or(((EWAH64Bitmap) bm).bitmap);
+        shared = false;
+        readOnly = false;
+        cursor = null;
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        bitmap = bitmap.xor(((EWAH64Bitmap) bm).bitmap);
+        shared = false;
+        readOnly = false;
+        cursor = null;
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        bitmap = ((EWAH64Bitmap) removeFirstBit()).bitmap;
+        shared = false;
+        readOnly = false;
+        cursor = null;
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        EWAH64Bitmap other = (EWAH64Bitmap) bm;
+        if (other == this) {
+            return;
+        }
+        bitmap = other.bitmap;
+        shared = true;
+        other.shared = true;
+        readOnly = other.readOnly;
+        cursor = null;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        EWAH64Bitmap bm = new EWAH64Bitmap(bitmap);
+        bm.shared = true;
+        bm.readOnly = readOnly;
+        shared = true;
+        return bm;
+    }
+
     @Override
     public String toString() {
         StringBuilder answer = new StringBuilder();
@@ -174,6 +434,142 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
         return new Iterator('X');
     }
 
+    /**
+     * Walks the markers of a compressed word buffer to find the next or
+     * previous occurrence of a bit without creating iterators. The marker
+     * of the last search is kept, so searches from increasing positions
+     * read each marker once. Positions past the last word are 0s.
+     */
+    private static class MarkerCursor {
+        private static final int W = EWAHCompressedBitmap.WORD_IN_BITS;
+
+        private final Buffer buffer;
+        private final int sizeInWords;
+
+        /**
+         * Index of the current marker in the buffer; equal to the number
+         * of words when the cursor is past the last marker
+         */
+        private int marker = 0;
+
+        /**
+         * First position covered by the current marker
+         */
+        private int start = 0;
+
+        MarkerCursor(Buffer buffer) {
+            this.buffer = buffer;
+            this.sizeInWords = buffer.sizeInWords();
+        }
+
+        private int runningBits() {
+            return (int) RunningLengthWord.getRunningLength(buffer, marker) * W;
+        }
+
+        private int literals() {
+            return RunningLengthWord.getNumberOfLiteralWords(buffer, marker);
+        }
+
+        private int end() {
+            return start + runningBits() + literals() * W;
+        }
+
+        private void advance() {
+            start = end();
+            marker += 1 + literals();
+        }
+
+        private void rewind() {
+            marker = 0;
+            start = 0;
+        }
+
+        /**
+         * Moves the cursor to the marker covering a position, or past the
+         * last marker if no marker covers it.
+         */
+        private void seek(int pos) {
+            if (pos < start) {
+                rewind();
+            }
+            while (marker < sizeInWords && pos >= end()) {
+                advance();
+            }
+        }
+
+        /**
+         * Finds the first position at or after <i>from</i> holding a given
+         * bit. A literal word is resolved with a single trailing-zero count.
+         * @return The position, or -1 if the bit is 1 and there is no 1
+         * after <i>from</i>
+         */
+        int next(int from, boolean bit) {
+            seek(from);
+            while (marker < sizeInWords) {
+                int litStart = start + runningBits();
+                if (from < litStart && RunningLengthWord.getRunningBit(buffer, marker) == bit) {
+                    return from;
+                }
+                int n = literals();
+                int i = from < litStart ? 0 : (from - litStart) / W;
+                int wordStart = litStart + i * W;
+                long mask = ~0L << Math.max(from - wordStart, 0);
+                for (; i < n; ++i, wordStart += W, mask = ~0L) {
+                    long w = buffer.getWord(marker + 1 + i);
+                    if (!bit) {
+                        w = ~w;
+                    }
+                    w &= mask;
+                    if (w != 0) {
+                        return wordStart + Long.numberOfTrailingZeros(w);
+                    }
+                }
+                advance();
+                from = start;
+            }
+            return bit ? -1 : from;
+        }
+
+        /**
+         * Finds the last position at or before <i>from</i> holding a given
+         * bit. Markers can only be decoded forwards, so this walks the
+         * buffer from its start and keeps the last occurrence seen.
+         * @return The position, or -1 if there is none
+         */
+        int prev(int from, boolean bit) {
+            int found = -1;
+            rewind();
+            while (marker < sizeInWords && start <= from) {
+                int litStart = start + runningBits();
+                if (litStart > start && RunningLengthWord.getRunningBit(buffer, marker) == bit) {
+                    found = Math.min(from, litStart - 1);
+                }
+                int n = literals();
+                int wordStart = litStart;
+                for (int i = 0; i < n && wordStart <= from; ++i, wordStart += W) {
+                    long w = buffer.getWord(marker + 1 + i);
+                    if (!bit) {
+                        w = ~w;
+                    }
+                    if (from - wordStart < W - 1) {
+                        w &= ~0L >>> (W - 1 - (from - wordStart));
+                    }
+                    if (w != 0) {
+                        found = wordStart + W - 1 - Long.numberOfLeadingZeros(w);
+                    }
+                }
+                if (end() > from) {
+                    return found;
+                }
+                advance();
+            }
+            if (!bit && marker == sizeInWords && start <= from) {
+                return from;
+            }
+            return found;
+        }
+    }
+
     public class Iterator implements LTLBitmap.BitmapIterator {
         private final Buffer buffer = bitmap.getBuffer();
         private final int sizeInWords = buffer.sizeInWords();
@@ -305,121 +701,111 @@ public class EWAH64Bitmap implements LTLBitmap.BitmapAdapter {
             updatePointerInThisMarker(index - currMarkerStartPos);
         }
 
-        @Override
-        public LTLBitmap.BitmapIterator find0() {
-            if (isEnd) {
-                throw new IndexOutOfBoundsException();
-            }
+        /**
+         * Creates a copy of this iterator at the same position.
+         */
+        private Iterator copy() {
+            return new Iterator(index, pointerInWords, currMarkerStartPos);
+        }
+
+        /**
+         * Moves this iterator to the first 0 at or after its current
+         * position. No object is allocated, so this can be called on every
+         * step of a loop.
+         * @return The new index, or -1 if there is no 0 before the end, in
+         * which case the iterator is left at the end
+         */
+        public int next0() {
+            return seek(false);
+        }
 
-            final long full = ~0L;
+        /**
+         * Moves this iterator to the first 1 at or after its current
+         * position. No object is allocated, so this can be called on every
+         * step of a loop.
+         * @return The new index, or -1 if there is no 1 before the end, in
+         * which case the iterator is left at the end
+         */
+        public int next1() {
+            return seek(true);
+        }
 
-            Iterator itor = new Iterator(index, pointerInWords, currMarkerStartPos);
-            while (itor.pointerInWords < itor.sizeInWords) {
-                if (itor.inClean) {
-                    if (itor.currRunningBit == false) {
-                        return itor;
+        /**
+         * Moves this iterator to the next occurrence of a bit value. Clean
+         * words are skipped by marker; a literal word is resolved with a
+         * single trailing-zero count, and literal words that contain only
+         * the other value are skipped without looking at their bits.
+         */
+        private int seek(boolean bit) {
+            if (isEnd) {
+                return -1;
+            }
+            final int sizeInBits = bitmap.sizeInBits();
+            while (pointerInWords < sizeInWords) {
+                if (inClean) {
+                    if (currRunningBit == bit) {
+                        return index;
                     }
-                    // switch to dirty words
-                    if (itor.currNumberOfDirtyWords > 0) {
-                        itor.updatePointerInThisMarker(itor.currRunningLengthMaxBits);
+                    if (currNumberOfDirtyWords == 0) {
+                        moveForwardOneMarker();
+                        if (isEnd) {
+                            return -1;
+                        }
+                        index = currMarkerStartPos;
+                        updatePointerInThisMarker(0);
+                        continue;
                     }
+                    // switch to dirty words
+                    updatePointerInThisMarker(currRunningLengthMaxBits);
                 }
 
-                int startbits = itor.currMarkerStartPos + itor.currRunningLengthMaxBits + itor.pointerDirtyWord * EWAHCompressedBitmap.WORD_IN_BITS;
-                for (int i = itor.pointerDirtyWord;
-                     i < itor.currNumberOfDirtyWords;
-                     ++i, itor.pointerInDirtyWord = 0, startbits += EWAHCompressedBitmap.WORD_IN_BITS
-                        ) {
-
-                    long w = itor.buffer.getWord(itor.pointerInWords + 1 + i);
-                    int leftbits = Math.min(EWAHCompressedBitmap.WORD_IN_BITS, bitmap.sizeInBits() - startbits);
-                    long mask = full;
-                    if (leftbits != EWAHCompressedBitmap.WORD_IN_BITS) {
-                        mask = (1L << leftbits) - 1;
+                int startbits = currMarkerStartPos + currRunningLengthMaxBits
+                        + pointerDirtyWord * EWAHCompressedBitmap.WORD_IN_BITS;
+                long mask = ~0L << pointerInDirtyWord;
+                for (int i = pointerDirtyWord; i < currNumberOfDirtyWords;
+                     ++i, mask = ~0L, startbits += EWAHCompressedBitmap.WORD_IN_BITS) {
+                    long w = buffer.getWord(pointerInWords + 1 + i);
+                    if (!bit) {
+                        w = ~w;
                     }
-                    mask = (mask >>> itor.pointerInDirtyWord) << itor.pointerInDirtyWord;
-                    if ((w & mask) == mask) {
+                    w &= mask;
+                    if (w == 0) {
                         continue;
                     }
-
-                    mask = 1L << itor.pointerInDirtyWord;
-                    for (int j = itor.pointerInDirtyWord; j < leftbits; ++j) {
-                        if ((w & mask) == 0) {
-                            itor.index = startbits + j;
-                            itor.updatePointerInThisMarker(itor.index - itor.currMarkerStartPos);
-                            return itor;
-                        }
-                        mask <<= 1L;
+                    int pos = startbits + Long.numberOfTrailingZeros(w);
+                    if (pos >= sizeInBits) {
+                        break;
                     }
+                    index = pos;
+                    updatePointerInThisMarker(index - currMarkerStartPos);
+                    return index;
                 }
-                itor.moveForwardOneMarker();
-                if (itor.isEnd) {
-                    return null;
+                moveForwardOneMarker();
+                if (isEnd) {
+                    return -1;
                 }
-                itor.index = itor.currMarkerStartPos;
-                itor.updatePointerInThisMarker(0);
+                index = currMarkerStartPos;
+                updatePointerInThisMarker(0);
             }
-
-            return null;
+            return -1;
         }
 
         @Override
-        public LTLBitmap.BitmapIterator find1() {
+        public LTLBitmap.BitmapIterator find0() {
             if (isEnd) {
                 throw new IndexOutOfBoundsException();
             }
+            Iterator itor = copy();
+            return itor.next0() == -1 ? null : itor;
+        }
 
-            Iterator itor = new Iterator(index, pointerInWords, currMarkerStartPos);
-            while (itor.pointerInWords < itor.sizeInWords) {
-                if (itor.inClean) {
-                    if (itor.currRunningBit == true) {
-                        return itor;
-                    }
-                    // switch to dirty words
-                    if (itor.currNumberOfDirtyWords > 0) {
-                        itor.updatePointerInThisMarker(itor.currRunningLengthMaxBits);
-                    }
-                }
-
-                int startbits = itor.currMarkerStartPos + itor.currRunningLengthMaxBits + itor.pointerDirtyWord * EWAHCompressedBitmap.WORD_IN_BITS;
-                for (int i = itor.pointerDirtyWord;
-                     i < itor.currNumberOfDirtyWords;
-                     ++i, itor.pointerInDirtyWord = 0, startbits += EWAHCompressedBitmap.WORD_IN_BITS
-                        ) {
-
-                    long w = itor.buffer.getWord(itor.pointerInWords + 1 + i);
-                    int leftbits = Math.min(EWAHCompressedBitmap.WORD_IN_BITS, bitmap.sizeInBits() - startbits);
-
-                    long mask = 0L;
-                    if (leftbits != EWAHCompressedBitmap.WORD_IN_BITS) {
-                        mask = ~((1L << leftbits) - 1);
-                    }
-                    if (itor.pointerInDirtyWord > 0) {
-                        mask |= (1 << itor.pointerInDirtyWord) - 1;
-                    }
-                    if ((w | mask) == mask) {
-                        continue;
-                    }
-
-                    mask = 1L << itor.pointerInDirtyWord;
-                    for (int j = itor.pointerInDirtyWord; j < leftbits; ++j) {
-                        if ((w & mask) == mask) {
-                            itor.index = startbits + j;
-                            itor.updatePointerInThisMarker(itor.index - itor.currMarkerStartPos);
-                            return itor;
-                        }
-                        mask <<= 1L;
-                    }
-                }
-                itor.moveForwardOneMarker();
-                if (itor.isEnd) {
-                    return null;
-                }
-                itor.index = itor.currMarkerStartPos;
-                itor.updatePointerInThisMarker(0);
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            if (isEnd) {
+                throw new IndexOutOfBoundsException();
             }
-
-            return null;
+            Iterator itor = copy();
+            return itor.next1() == -1 ? null : itor;
         }
 
         @Override
@@ -18,14 +18,36 @@
 package ca.uqac.phoenixxie.ltl.bitmap;
 
 import java.security.InvalidParameterException;
-
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bitmap of the positions of a trace where a formula holds, with the
+ * operators of LTL.
+ * <p>
+ * Negation is not computed right away: {@link #opNot()} returns a
+ * complemented view that shares the bitmap of its operand and only flips a
+ * flag. Connectives and temporal operators push the flag through their
+ * operands with De Morgan's laws and the dualities of LTL, so that
+ * &not;<i>a</i> &and; <i>b</i> becomes one and-not, and G &not;<i>a</i>
+ * becomes &not;F <i>a</i>. A view is only turned into an actual bitmap when
+ * an operator cannot absorb the negation, such as the connectives on
+ * bitmaps of different lengths, where the padding with 0s of the shorter
+ * one does not commute with negation.
+ */
 public class LTLBitmap {
     private final Type type;
     private final BitmapAdapter bitmap;
 
+    /**
+     * Whether this bitmap stands for the negation of {@link #bitmap}
+     */
+    private final boolean negated;
+
     public LTLBitmap(Type type) {
         this.type = type;
         this.bitmap = createAdapter(type);
+        this.negated = false;
     }
 
     public LTLBitmap(Type type, String init) {
@@ -34,14 +56,27 @@ public class LTLBitmap {
     }
 
     private LTLBitmap(Type type, BitmapAdapter bm) {
+        this(type, bm, false);
+    }
+
+    private LTLBitmap(Type type, BitmapAdapter bm, boolean negated) {
         this.type = type;
         this.bitmap = bm;
+        this.negated = negated;
     }
 
     public static BitmapAdapter createAdapter(Type type) {
         switch (type) {
             case RAW:
                 return new RawBitmap();
+            case RAW64:
+                return new Raw64Bitmap();
+            case RUNS:
+                return new RunBitmap();
+            case CHUNKED:
+                return new ChunkedBitmap();
+            case OFFHEAP:
+                return new OffHeapBitmap();
             case EWAH:
                 return new EWAH64Bitmap();
             case EWAH32:
@@ -52,12 +87,23 @@ public class LTLBitmap {
                 return new ConciseBitmap();
             case WAHCONCISE:
                 return new ConciseBitmap(true);
+            case AUTO:
+                return new AutoBitmap();
         }
         throw new InvalidParameterException();
     }
 
+    /**
+     * Creates an empty long-indexed bitmap, for traces longer than
+     * {@link Integer#MAX_VALUE} positions, whose segments are of a given
+     * type.
+     */
+    public static LongBitmapAdapter createLongAdapter(Type type) {
+        return new SegmentedBitmap(type);
+    }
+
     public void add(boolean bit) {
-        bitmap.add(bit);
+        bitmap.add(bit != negated);
     }
 
     public void add(String in) {
@@ -72,7 +118,7 @@ public class LTLBitmap {
 
     @Override
     public String toString() {
-        return bitmap.toString();
+        return materialize().toString();
     }
 
     public int sizeInBits() {
@@ -84,443 +130,609 @@ public class LTLBitmap {
     }
 
     public int cardinality() {
-        return bitmap.cardinality();
+        return negated ? bitmap.size() - bitmap.cardinality() : bitmap.cardinality();
+    }
+
+    /**
+     * Tells whether this bitmap is a complemented view of another one.
+     */
+    public boolean isNegated() {
+        return negated;
+    }
+
+    /**
+     * Gets the bits of this bitmap, computing the negation of a
+     * complemented view.
+     */
+    private BitmapAdapter materialize() {
+        return negated ? bitmap.opNot() : bitmap;
     }
 
     public LTLBitmap opNot() {
-        return new LTLBitmap(type, bitmap.opNot());
+        // The clone shares the storage, so the view costs nothing
+        return new LTLBitmap(type, bitmap.clone(), !negated);
     }
 
     public LTLBitmap opAnd(LTLBitmap bm) {
-        return new LTLBitmap(type, bitmap.opAnd(bm.bitmap));
+        if (!negated && !bm.negated) {
+            return new LTLBitmap(type, bitmap.opAnd(bm.bitmap));
+        }
+        if (bitmap.size() != bm.bitmap.size()) {
+            return new LTLBitmap(type, materialize().opAnd(bm.materialize()));
+        }
+        if (!negated) {
+            return new LTLBitmap(type, bitmap.opAndNot(bm.bitmap));
+        }
+        if (!bm.negated) {
+            return new LTLBitmap(type, bm.bitmap.opAndNot(bitmap));
+        }
+        // !a & !b = !(a | b)
+        return new LTLBitmap(type, bitmap.opOr(bm.bitmap), true);
     }
 
     public LTLBitmap opOr(LTLBitmap bm) {
-        return new LTLBitmap(type, bitmap.opOr(bm.bitmap));
+        if (!negated && !bm.negated) {
+            return new LTLBitmap(type, bitmap.opOr(bm.bitmap));
+        }
+        if (bitmap.size() != bm.bitmap.size()) {
+            return new LTLBitmap(type, materialize().opOr(bm.materialize()));
+        }
+        // a | !b = !(b & !a), which is one and-not and a view
+        if (!negated) {
+            return new LTLBitmap(type, bm.bitmap.opAndNot(bitmap), true);
+        }
+        if (!bm.negated) {
+            return new LTLBitmap(type, bitmap.opAndNot(bm.bitmap), true);
+        }
+        return new LTLBitmap(type, bitmap.opAnd(bm.bitmap), true);
     }
 
+    /**
+     * Computes this &rarr; <i>bm</i>, that is, &not;this &or; <i>bm</i>.
+     */
     public LTLBitmap opThen(LTLBitmap bm) {
-        BitmapAdapter left = bitmap.opNot();
-        return new LTLBitmap(type, left.opOr(bm.bitmap));
+        return opNot().opOr(bm);
     }
 
     public LTLBitmap opNext() {
-        return new LTLBitmap(type, bitmap.removeFirstBit());
+        // Shifting commutes with negation
+        return new LTLBitmap(type, bitmap.removeFirstBit(), negated);
     }
 
-    public LTLBitmap opGlobal() {
-        int last0 = bitmap.last0();
-        if (last0 == -1) {
-            return new LTLBitmap(type, bitmap.clone());
-        }
+    /**
+     * Computes X<sup><i>k</i></sup>, applying X <i>k</i> times in a
+     * single pass.
+     */
+    public LTLBitmap opNext(int k) {
+        return new LTLBitmap(type, bitmap.shiftLeft(k), negated);
+    }
 
-        BitmapAdapter newBm = createAdapter(type);
-        newBm.addMany(false, last0 + 1);
-        newBm.addMany(true, bitmap.size() - last0 - 1);
-        return new LTLBitmap(type, newBm);
+    public LTLBitmap opGlobal() {
+        // G !a = !F a
+        return negated ? new LTLBitmap(type, bitmap).opFuture().opNot() : global(bitmap);
     }
 
     public LTLBitmap opFuture() {
-        int last1 = bitmap.last1();
-        if (last1 == -1) {
-            return new LTLBitmap(type, bitmap.clone());
-        }
+        // F !a = !G a
+        return negated ? new LTLBitmap(type, bitmap).opGlobal().opNot() : future(bitmap);
+    }
 
-        BitmapAdapter newBm = createAdapter(type);
-        newBm.addMany(true, last1 + 1);
-        newBm.addMany(false, bitmap.size() - last1 - 1);
-        return new LTLBitmap(type, newBm);
+    private LTLBitmap global(BitmapAdapter bm) {
+        return new LTLBitmap(type, ConstantBitmap.expand(global(type, bm)));
+    }
+
+    private LTLBitmap future(BitmapAdapter bm) {
+        return new LTLBitmap(type, ConstantBitmap.expand(future(type, bm)));
     }
 
     public LTLBitmap opUntil(LTLBitmap rightBm) {
+        return untilFamily(rightBm, false, false, null);
+    }
+
+    public LTLBitmap opWeakUntil(LTLBitmap rightBm) {
+        return untilFamily(rightBm, false, true, null);
+    }
+
+    public LTLBitmap opRelease(LTLBitmap rightBm) {
+        return untilFamily(rightBm, true, false, null);
+    }
+
+    public LTLBitmap opStrongRelease(LTLBitmap rightBm) {
+        return untilFamily(rightBm, true, true, null);
+    }
+
+    public LTLBitmap opUntil(LTLBitmap rightBm, ParallelUntil parallel) {
+        return untilFamily(rightBm, false, false, parallel);
+    }
+
+    public LTLBitmap opWeakUntil(LTLBitmap rightBm, ParallelUntil parallel) {
+        return untilFamily(rightBm, false, true, parallel);
+    }
+
+    public LTLBitmap opRelease(LTLBitmap rightBm, ParallelUntil parallel) {
+        return untilFamily(rightBm, true, false, parallel);
+    }
+
+    public LTLBitmap opStrongRelease(LTLBitmap rightBm, ParallelUntil parallel) {
+        return untilFamily(rightBm, true, true, parallel);
+    }
+
+    /**
+     * Applies U, W, R or M, as selected by the arguments of
+     * {@link #runUntil}. When both operands are views of the same length,
+     * the operator is replaced by its dual on the bitmaps they share,
+     * since &not;<i>a</i> U &not;<i>b</i> = &not;(<i>a</i> R <i>b</i>) and
+     * &not;<i>a</i> W &not;<i>b</i> = &not;(<i>a</i> M <i>b</i>).
+     */
+    private LTLBitmap untilFamily(LTLBitmap rightBm, boolean dual, boolean weak,
+                                  ParallelUntil parallel) {
         if (type != rightBm.type) {
             throw new InvalidParameterException();
         }
-
-        BitmapAdapter left = this.bitmap;
+        BitmapAdapter left = bitmap;
         BitmapAdapter right = rightBm.bitmap;
-        if (left.size() > right.size()) {
-            right.addMany(false, left.size() - right.size());
-        } else if (left.size() < right.size()) {
-            left.addMany(false, right.size() - left.size());
+        boolean result = false;
+        if (negated && rightBm.negated && left.size() == right.size()) {
+            dual = !dual;
+            result = true;
+        } else {
+            left = materialize();
+            right = rightBm.materialize();
         }
+        BitmapAdapter bm = parallel == null
+                ? runUntil(type, left, right, dual, weak)
+                : parallel.run(type, left, right, dual, weak);
+        return new LTLBitmap(type, bm, result);
+    }
 
-        BitmapIterator ita = left.begin();
-        BitmapIterator itb = right.begin();
-        BitmapAdapter answer = createAdapter(type);
+    /**
+     * Computes <i>left</i> &and; <i>right</i>, either of which may be a
+     * {@link ConstantBitmap}.
+     */
+    public static BitmapAdapter and(BitmapAdapter left, BitmapAdapter right) {
+        if (right instanceof ConstantBitmap) {
+            return right.opAnd(left);
+        }
+        return left.opAnd(right);
+    }
 
-        int pos = 0;
-        BitmapIterator ita1 = ita, ita0 = ita;
-        BitmapIterator itb1 = itb, itb0 = itb;
-        while (!ita.isEnd() && !itb.isEnd()) {
-            if (ita.index() >= ita1.index()) {
-                ita1 = ita.find1();
-            }
-            if (ita1 == null) {
-                ita = null;
-            }
-            if (itb.index() >= itb1.index()) {
-                itb1 = itb.find1();
-            }
-            if (itb1 == null) {
-                itb = null;
-            }
-            if (ita == null || itb == null) {
-                break;
-            }
+    /**
+     * Computes <i>left</i> &or; <i>right</i>, either of which may be a
+     * {@link ConstantBitmap}.
+     */
+    public static BitmapAdapter or(BitmapAdapter left, BitmapAdapter right) {
+        if (right instanceof ConstantBitmap) {
+            return right.opOr(left);
+        }
+        return left.opOr(right);
+    }
 
-            int near1 = Math.min(ita1.index(), itb1.index());
-            if (near1 > pos) {
-                int off = near1 - pos;
-                answer.addMany(false, off);
-                if (near1 == ita1.index()) {
-                    ita = ita1;
-                } else {
-                    ita.moveForward(off);
-                }
-                if (near1 == itb1.index()) {
-                    itb = itb1;
-                } else {
-                    itb.moveForward(off);
-                }
-
-                pos = near1;
-
-                continue;
-            }
+    /**
+     * Computes <i>left</i> &oplus; <i>right</i>, either of which may be a
+     * {@link ConstantBitmap}.
+     */
+    public static BitmapAdapter xor(BitmapAdapter left, BitmapAdapter right) {
+        if (right instanceof ConstantBitmap) {
+            return right.opXor(left);
+        }
+        return left.opXor(right);
+    }
 
-            if (itb1.index() == pos) {
-                if (itb0.index() <= itb1.index()) {
-                    itb0 = itb1.find0();
-                }
-                if (itb0 == null) {
-                    itb0 = right.end();
-                }
-
-                int off = itb0.index() - pos;
-                answer.addMany(true, off);
-                ita.moveForward(off);
-                itb = itb0;
-                pos = itb0.index();
-                continue;
-            }
+    /**
+     * Computes the conjunction of all the given bitmaps, in one pass when
+     * several of them are of the same class. Any of them may be a
+     * {@link ConstantBitmap}: if all the bitmaps have the same size, a
+     * constant 0 is the result and constant 1s are left out.
+     */
+    public static BitmapAdapter andAll(BitmapAdapter... bms) {
+        return combineAll(bms, false);
+    }
 
-            if (ita0.index() <= ita1.index()) {
-                ita0 = ita1.find0();
-            }
-            if (ita0 == null) {
-                ita0 = left.end();
-            }
+    /**
+     * Computes the disjunction of all the given bitmaps, in one pass when
+     * several of them are of the same class. Any of them may be a
+     * {@link ConstantBitmap}: if all the bitmaps have the same size, a
+     * constant 1 is the result and constant 0s are left out.
+     */
+    public static BitmapAdapter orAll(BitmapAdapter... bms) {
+        return combineAll(bms, true);
+    }
 
-            if (ita0.index() >= itb1.index()) {
-                int off = itb1.index() - pos + 1;
-                answer.addMany(true, off);
-                ita.moveForward(off);
-                itb.moveForward(off);
-                pos += off;
+    /**
+     * Computes {@link #andAll(BitmapAdapter...)} or, if <i>or</i> is set,
+     * {@link #orAll(BitmapAdapter...)}.
+     */
+    private static BitmapAdapter combineAll(BitmapAdapter[] bms, boolean or) {
+        if (bms.length == 0) {
+            throw new InvalidParameterException();
+        }
+        boolean sameSize = true;
+        for (BitmapAdapter bm : bms) {
+            sameSize &= bm.size() == bms[0].size();
+        }
+        // The value that decides the result; the other one is neutral
+        boolean absorbing = or;
+        List<BitmapAdapter> operands = new ArrayList<BitmapAdapter>(bms.length);
+        BitmapAdapter neutral = null;
+        for (BitmapAdapter bm : bms) {
+            if (!sameSize) {
+                // Padding would append 0s to a constant
+                operands.add(ConstantBitmap.expand(bm));
+            } else if (ConstantBitmap.is(bm, absorbing)) {
+                return bm.clone();
+            } else if (ConstantBitmap.isConstant(bm)) {
+                neutral = bm;
             } else {
-                int off = ita0.index() - pos + 1;
-                answer.addMany(false, off);
-                ita.moveForward(off);
-                itb.moveForward(off);
-                pos += off;
+                operands.add(ConstantBitmap.expand(bm));
             }
         }
+        if (operands.isEmpty()) {
+            return neutral.clone();
+        }
+        BitmapAdapter first = operands.get(0);
+        if (operands.size() == 1) {
+            return first.clone();
+        }
+        BitmapAdapter[] others = operands.subList(1, operands.size()).toArray(
+                new BitmapAdapter[operands.size() - 1]);
+        return or ? first.opOrAll(others) : first.opAndAll(others);
+    }
 
-        if (itb == null) {
-            answer.addMany(false, left.size() - answer.size());
-        } else if (ita == null) {
-            pos = itb.index();
-            while (!itb.isEnd()) {
-                if (itb1.index() <= itb.index()) {
-                    itb1 = itb.find1();
-                }
-                if (itb1 == null) {
-                    answer.addMany(false, left.size() - answer.size());
-                    break;
-                }
-                if (itb1.index() > pos) {
-                    int off = itb1.index() - pos;
-                    answer.addMany(false, off);
-                    pos = itb1.index();
-                    itb = itb1;
-                    continue;
-                }
-
-                if (itb0.index() <= itb1.index()) {
-                    itb0 = itb1.find0();
-                }
-                if (itb0 == null) {
-                    answer.addMany(true, left.size() - answer.size());
-                    break;
-                }
-                if (itb0.index() > pos) {
-                    int off = itb0.index() - pos;
-                    answer.addMany(true, off);
-                    pos = itb0.index();
-                    itb = itb0;
-                }
-            }
+    /**
+     * Computes &not;<i>left</i> &or; <i>right</i>, where a shorter
+     * <i>left</i> is negated before it is padded with 0s. Either operand
+     * may be a {@link ConstantBitmap}.
+     */
+    public static BitmapAdapter implies(BitmapAdapter left, BitmapAdapter right) {
+        if (left instanceof ConstantBitmap || right instanceof ConstantBitmap) {
+            if (ConstantBitmap.is(right, true) && right.size() >= left.size()) {
+                return new ConstantBitmap(((ConstantBitmap) right).getType(), right.size(), true);
+            }
+            return or(left.opNot(), right);
         }
+        if (left.size() >= right.size()) {
+            return right.opOrNot(left);
+        }
+        return left.opNot().opOr(right);
+    }
 
-        assert answer.size() == left.size();
-        return new LTLBitmap(type, answer);
+    /**
+     * Computes G <i>bm</i>. The result is a {@link ConstantBitmap} when it
+     * holds a single value, which is the case when <i>bm</i> ends with a 0
+     * or holds no 0 at all.
+     */
+    public static BitmapAdapter global(Type type, BitmapAdapter bm) {
+        if (ConstantBitmap.isConstant(bm)) {
+            return bm.clone();
+        }
+        int last0 = bm.last0();
+        if (last0 == -1 || last0 == bm.size() - 1) {
+            return new ConstantBitmap(type, bm.size(), last0 == -1);
+        }
+
+        BitmapAdapter newBm = createAdapter(type);
+        newBm.addMany(false, last0 + 1);
+        newBm.addMany(true, bm.size() - last0 - 1);
+        return newBm;
     }
 
-    public LTLBitmap opWeakUntil(LTLBitmap rightBm) {
-        if (type != rightBm.type) {
-            throw new InvalidParameterException();
+    /**
+     * Computes F <i>bm</i>. The result is a {@link ConstantBitmap} when it
+     * holds a single value, which is the case when <i>bm</i> ends with a 1
+     * or holds no 1 at all.
+     */
+    public static BitmapAdapter future(Type type, BitmapAdapter bm) {
+        if (ConstantBitmap.isConstant(bm)) {
+            return bm.clone();
+        }
+        int last1 = bm.last1();
+        if (last1 == -1 || last1 == bm.size() - 1) {
+            return new ConstantBitmap(type, bm.size(), last1 != -1);
         }
 
-        BitmapAdapter left = this.bitmap;
-        BitmapAdapter right = rightBm.bitmap;
-        if (left.size() > right.size()) {
-            right.addMany(false, left.size() - right.size());
-        } else if (left.size() < right.size()) {
-            left.addMany(false, right.size() - left.size());
+        BitmapAdapter newBm = createAdapter(type);
+        newBm.addMany(true, last1 + 1);
+        newBm.addMany(false, bm.size() - last1 - 1);
+        return newBm;
+    }
+
+    /**
+     * Computes G <i>bm</i> on a long-indexed bitmap.
+     */
+    public static LongBitmapAdapter global(Type type, LongBitmapAdapter bm) {
+        long last0 = bm.last0();
+        if (last0 == -1) {
+            return bm.clone();
         }
 
-        BitmapIterator ita = left.begin();
-        BitmapIterator itb = right.begin();
-        BitmapAdapter answer = createAdapter(type);
+        LongBitmapAdapter newBm = createLongAdapter(type);
+        newBm.addMany(false, last0 + 1);
+        newBm.addMany(true, bm.size() - last0 - 1);
+        return newBm;
+    }
 
-        int pos = 0;
-        BitmapIterator ita1 = ita, ita0 = ita;
-        BitmapIterator itb1 = itb, itb0 = itb;
-        while (!ita.isEnd() && !itb.isEnd()) {
-            if (ita1.index() <= ita.index()) {
-                ita1 = ita.find1();
-            }
-            if (ita1 == null) {
-                ita = null;
-            }
-            if (itb1.index() <= itb.index()) {
-                itb1 = itb.find1();
-            }
-            if (itb1 == null) {
-                itb = null;
-            }
-            if (ita == null || itb == null) {
-                break;
-            }
+    /**
+     * Computes F <i>bm</i> on a long-indexed bitmap.
+     */
+    public static LongBitmapAdapter future(Type type, LongBitmapAdapter bm) {
+        long last1 = bm.last1();
+        if (last1 == -1) {
+            return bm.clone();
+        }
 
-            int near1 = Math.min(ita1.index(), itb1.index());
-            if (near1 > pos) {
-                int off = near1 - pos;
-                answer.addMany(false, off);
-                if (near1 == ita1.index()) {
-                    ita = ita1;
-                } else {
-                    ita.moveForward(off);
-                }
-                if (near1 == itb1.index()) {
-                    itb = itb1;
-                } else {
-                    itb.moveForward(off);
-                }
-                pos = near1;
-                continue;
-            }
+        LongBitmapAdapter newBm = createLongAdapter(type);
+        newBm.addMany(true, last1 + 1);
+        newBm.addMany(false, bm.size() - last1 - 1);
+        return newBm;
+    }
 
-            if (itb1.index() == pos) {
-                if (itb0.index() <= itb1.index()) {
-                    itb0 = itb1.find0();
-                }
-                if (itb0 == null) {
-                    itb0 = right.end();
-                }
-
-                int off = itb0.index() - pos;
-                answer.addMany(true, off);
-                ita.moveForward(off);
-                itb = itb0;
-                pos = itb0.index();
-                continue;
-            }
+    /**
+     * Computes <i>left</i> U <i>right</i>. The shorter bitmap is first
+     * padded with 0s to the length of the other.
+     */
+    public static BitmapAdapter until(Type type, BitmapAdapter left, BitmapAdapter right) {
+        return runUntil(type, left, right, false, false);
+    }
 
-            if (ita0.index() <= ita1.index()) {
-                ita0 = ita1.find0();
-            }
-            if (ita0 == null) {
-                ita0 = left.end();
-            }
+    /**
+     * Computes <i>left</i> W <i>right</i>, which also holds at positions
+     * where <i>left</i> holds until the end of the trace.
+     */
+    public static BitmapAdapter weakUntil(Type type, BitmapAdapter left, BitmapAdapter right) {
+        return runUntil(type, left, right, false, true);
+    }
 
-            if (ita0.index() >= itb1.index()) {
-                int off = itb1.index() - pos + 1;
-                answer.addMany(true, off);
-                ita.moveForward(off);
-                itb.moveForward(off);
-                pos += off;
-            } else {
-                int off = ita0.index() - pos + 1;
-                answer.addMany(false, off);
-                ita.moveForward(off);
-                itb.moveForward(off);
-                pos += off;
-            }
-        }
+    /**
+     * Computes <i>left</i> R <i>right</i>, that is,
+     * &not;(&not;<i>left</i> U &not;<i>right</i>).
+     */
+    public static BitmapAdapter release(Type type, BitmapAdapter left, BitmapAdapter right) {
+        return runUntil(type, left, right, true, false);
+    }
 
-        if (itb == null) {
-            if (ita == null) {
-                answer.addMany(false, left.size() - answer.size());
-            } else {
-                int last0 = left.last0();
-                if (last0 == -1 || last0 < ita.index()) {
-                    answer.addMany(true, left.size() - answer.size());
-                } else {
-                    answer.addMany(false, last0 - ita.index() + 1);
-                    answer.addMany(true, left.size() - answer.size());
-                }
-            }
-        } else if (ita == null) {
-            pos = itb.index();
-            while (!itb.isEnd()) {
-                if (itb1.index() <= itb.index()) {
-                    itb1 = itb.find1();
-                }
-                if (itb1 == null) {
-                    answer.addMany(false, left.size() - answer.size());
-                    break;
-                }
-                if (itb1.index() > pos) {
-                    int off = itb1.index() - pos;
-                    answer.addMany(false, off);
-                    pos = itb1.index();
-                    itb = itb1;
-                    continue;
-                }
-
-                if (itb0.index() <= itb1.index()) {
-                    itb0 = itb1.find0();
-                }
-                if (itb0 == null) {
-                    answer.addMany(true, left.size() - answer.size());
-                    break;
-                }
-                if (itb0.index() > pos) {
-                    int off = itb0.index() - pos;
-                    answer.addMany(true, off);
-                    pos = itb0.index();
-                    itb = itb0;
-                }
-            }
-        }
+    /**
+     * Computes <i>left</i> M <i>right</i>, the strong release, which unlike
+     * R requires <i>left</i> to eventually hold.
+     */
+    public static BitmapAdapter strongRelease(Type type, BitmapAdapter left, BitmapAdapter right) {
+        return runUntil(type, left, right, true, true);
+    }
 
-        assert answer.size() == left.size();
-        return new LTLBitmap(type, answer);
+    /**
+     * Computes <i>left</i> U <i>right</i> on long-indexed bitmaps.
+     */
+    public static LongBitmapAdapter until(LongBitmapAdapter left, LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, false, false, null);
     }
 
-    public LTLBitmap opRelease(LTLBitmap rightBm) {
-        if (type != rightBm.type) {
-            throw new InvalidParameterException();
+    /**
+     * Computes <i>left</i> W <i>right</i> on long-indexed bitmaps.
+     */
+    public static LongBitmapAdapter weakUntil(LongBitmapAdapter left, LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, false, true, null);
+    }
+
+    /**
+     * Computes <i>left</i> R <i>right</i> on long-indexed bitmaps.
+     */
+    public static LongBitmapAdapter release(LongBitmapAdapter left, LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, true, false, null);
+    }
+
+    /**
+     * Computes <i>left</i> M <i>right</i> on long-indexed bitmaps.
+     */
+    public static LongBitmapAdapter strongRelease(LongBitmapAdapter left, LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, true, true, null);
+    }
+
+    /**
+     * Writes <i>bm</i> with its bits negated into <i>dest</i>, an adapter
+     * of the same type whose contents are discarded. The destination may
+     * be <i>bm</i> itself.
+     */
+    public static void notInto(BitmapAdapter bm, BitmapAdapter dest) {
+        dest.assign(bm);
+        dest.notInPlace();
+    }
+
+    /**
+     * Writes <i>left</i> &and; <i>right</i> into <i>dest</i>, which may be
+     * either operand.
+     */
+    public static void andInto(BitmapAdapter left, BitmapAdapter right, BitmapAdapter dest) {
+        if (dest == right) {
+            right.andInPlace(left);
+            return;
         }
+        dest.assign(left);
+        dest.andInPlace(right);
+    }
 
-        BitmapAdapter left = this.bitmap;
-        BitmapAdapter right = rightBm.bitmap;
-        if (left.size() > right.size()) {
-            right.addMany(false, left.size() - right.size());
-        } else if (left.size() < right.size()) {
-            left.addMany(false, right.size() - left.size());
+    /**
+     * Writes <i>left</i> &or; <i>right</i> into <i>dest</i>, which may be
+     * either operand.
+     */
+    public static void orInto(BitmapAdapter left, BitmapAdapter right, BitmapAdapter dest) {
+        if (dest == right) {
+            right.orInPlace(left);
+            return;
         }
+        dest.assign(left);
+        dest.orInPlace(right);
+    }
 
-        BitmapIterator ita = left.begin();
-        BitmapIterator itb = right.begin();
-        BitmapAdapter answer = createAdapter(type);
+    /**
+     * Writes <i>left</i> &oplus; <i>right</i> into <i>dest</i>, which may
+     * be either operand.
+     */
+    public static void xorInto(BitmapAdapter left, BitmapAdapter right, BitmapAdapter dest) {
+        if (dest == right) {
+            right.xorInPlace(left);
+            return;
+        }
+        dest.assign(left);
+        dest.xorInPlace(right);
+    }
 
-        int pos = 0;
-        BitmapIterator ita1 = ita, ita0 = ita;
-        BitmapIterator itb1 = itb, itb0 = itb;
+    /**
+     * Writes X <i>bm</i> into <i>dest</i>, which may be <i>bm</i> itself.
+     */
+    public static void removeFirstBitInto(BitmapAdapter bm, BitmapAdapter dest) {
+        dest.assign(bm);
+        dest.removeFirstBitInPlace();
+    }
 
-        while (!ita.isEnd() && !itb.isEnd()) {
-            int off;
+    /**
+     * Appends the bits of <i>from</i> to <i>to</i>, one run at a time.
+     */
+    public static void append(BitmapAdapter from, BitSink to) {
+        appendRange(from, 0, from.size(), to);
+    }
 
-            if (itb1.index() <= itb.index()) {
-                itb1 = itb.find1();
-            }
-            if (itb1 == null) {
-                itb = null;
+    /**
+     * Appends the bits of <i>from</i> in [<i>start</i>, <i>end</i>) to
+     * <i>to</i>, one run at a time, which lets any bitmap be copied into
+     * a bitmap of another class.
+     */
+    static void appendRange(BitmapAdapter from, int start, int end, BitSink to) {
+        int pos = start;
+        while (pos < end) {
+            int one = from.nextSetBit(pos);
+            if (one == -1 || one > end) {
+                one = end;
+            }
+            to.addMany(false, one - pos);
+            if (one == end) {
                 break;
             }
-
-            if (itb1.index() > pos) {
-                off = itb1.index() - pos;
-                answer.addMany(false, off);
-                ita.moveForward(off);
-                itb = itb1;
-                pos = itb1.index();
-                continue;
-            }
-
-            if (ita1.index() <= ita.index()) {
-                ita1 = ita.find1();
-            }
-            if (ita1 == null) {
-                ita = null;
-                break;
+            int zero = from.nextClearBit(one);
+            if (zero == -1 || zero > end) {
+                zero = end;
             }
+            to.addMany(true, zero - one);
+            pos = zero;
+        }
+    }
 
-            if (itb0.index() <= itb1.index()) {
-                itb0 = itb1.find0();
-            }
-            if (itb0 == null) {
-                itb0 = right.end();
-            }
+    /**
+     * Copies a bitmap into a new bitmap of a given type. A
+     * {@link ConstantBitmap} stays a constant, of the new type.
+     */
+    public static BitmapAdapter convert(BitmapAdapter bm, Type type) {
+        if (ConstantBitmap.isConstant(bm)) {
+            return new ConstantBitmap(type, bm.size(), ((ConstantBitmap) bm).getValue());
+        }
+        BitmapAdapter answer = createAdapter(type);
+        appendRange(bm, 0, bm.size(), answer);
+        return answer;
+    }
 
-            if (ita1.index() >= itb0.index()) {
-                off = itb0.index() - pos + 1;
-                answer.addMany(false, off);
-                ita.moveForward(off);
-                itb.moveForward(off);
-                pos += off;
-                continue;
-            }
+    /**
+     * Gets a bitmap padded with 0s to a given size: the bitmap itself if
+     * it already has that size, and otherwise a copy, since an operand may
+     * also be read by other operators.
+     */
+    static BitmapAdapter padTo(BitmapAdapter bm, int size) {
+        if (bm.size() >= size) {
+            return bm;
+        }
+        BitmapAdapter answer = bm.clone();
+        answer.addMany(false, size - answer.size());
+        return answer;
+    }
 
-            if (ita0.index() <= ita1.index()) {
-                ita0 = ita1.find0();
+    /**
+     * Evaluates an until-like operator by hopping from run to run of its
+     * operands. In a stretch of positions before the next 1 of
+     * <i>right</i>, the result is 1 exactly on the suffix where <i>left</i>
+     * is all 1s; on a run of 1s of <i>right</i>, the result is 1. Only
+     * forward searches are used, so each operand is scanned once. When
+     * runs are short, the word-parallel {@link UntilKernel} is used instead.
+     *
+     * @param dual If set, 0s and 1s are exchanged in the operands and in
+     *   the result, which turns U into R and W into M
+     * @param weak Whether the result is 1 on a final stretch where
+     *   <i>left</i> holds until the end of the trace
+     */
+    static BitmapAdapter runUntil(Type type, BitmapAdapter left, BitmapAdapter right,
+                                          boolean dual, boolean weak) {
+        BitmapAdapter constant = ConstantBitmap.until(type, left, right, dual, weak);
+        if (constant != null) {
+            return constant;
+        }
+        int size = Math.max(left.size(), right.size());
+        left = padTo(left, size);
+        right = padTo(right, size);
+        if (UntilKernel.prefersWords(left, right)) {
+            return UntilKernel.run(type, left, right, dual, weak);
+        }
+        BitmapAdapter answer = createAdapter(type);
+        int n = left.size();
+        int pos = 0;
+        while (pos < n) {
+            int nb = next(right, pos, !dual);
+            if (nb == -1) {
+                nb = n;
             }
-            if (ita0 == null) {
-                ita0 = left.end();
+            if (nb > pos) {
+                int z = nb == n && !weak ? nb - 1 : lastOther(left, pos, nb, !dual);
+                answer.addMany(dual, z + 1 - pos);
+                answer.addMany(!dual, nb - z - 1);
             }
-
-            int near0 = Math.min(ita0.index(), itb0.index());
-            off = near0 - pos;
-            answer.addMany(true, off);
-            if (near0 == ita0.index()) {
-                ita = ita0;
-            } else {
-                ita.moveForward(off);
+            if (nb == n) {
+                break;
             }
-            if (near0 == itb0.index()) {
-                itb = itb0;
-            } else {
-                itb.moveForward(off);
+            int e = next(right, nb, dual);
+            if (e == -1) {
+                e = n;
             }
-            pos = near0;
+            answer.addMany(!dual, e - nb);
+            pos = e;
         }
+        assert answer.size() == n;
+        return answer;
+    }
 
-        if (ita == null && itb != null) {
-            int last0 = right.last0();
-            if (last0 == -1 || last0 < itb.index()) {
-                answer.addMany(true, right.size() - answer.size());
-            } else {
-                answer.addMany(false, last0 - itb.index() + 1);
-                answer.addMany(true, right.size() - answer.size());
+    private static int next(BitmapAdapter bm, int from, boolean bit) {
+        return bit ? bm.nextSetBit(from) : bm.nextClearBit(from);
+    }
+
+    /**
+     * Finds the last position in [<i>from</i>, <i>to</i>) that does not hold
+     * a given bit, using forward searches only.
+     * @return The position, or <i>from</i> - 1 if all positions hold the
+     * bit
+     */
+    private static int lastOther(BitmapAdapter bm, int from, int to, boolean bit) {
+        int z = next(bm, from, !bit);
+        if (z == -1 || z >= to) {
+            return from - 1;
+        }
+        while (true) {
+            int o = next(bm, z, bit);
+            if (o == -1 || o >= to) {
+                return to - 1;
+            }
+            z = next(bm, o, !bit);
+            if (z == -1 || z >= to) {
+                return o - 1;
             }
-        } else {
-            answer.addMany(false, right.size() - answer.size());
         }
-
-        assert answer.size() == left.size();
-        return new LTLBitmap(type, answer);
     }
 
     public enum Type {
         RAW("Raw"),
+        RAW64("Raw(64bit words)"),
+        RUNS("Runs"),
+        CHUNKED("Chunked"),
+        OFFHEAP("Off-heap(64bit words)"),
         CONCISE("Concise"),
         WAHCONCISE("WAH"),
         EWAH("EWAH(64bit)"),
         EWAH32("EWAH(32bit)"),
-        ROARING("Roaring bitmap");
+        ROARING("Roaring bitmap"),
+        AUTO("Auto");
 
         private final String name;
 
@@ -551,7 +763,14 @@ public class LTLBitmap {
         boolean isEnd();
     }
 
-    public interface BitmapAdapter extends Cloneable {
+    /**
+     * Destination of bits appended run by run, such as a bitmap
+     */
+    public interface BitSink {
+        void addMany(boolean bit, int count);
+    }
+
+    public interface BitmapAdapter extends Cloneable, BitSink {
         void add(boolean bit);
 
         void addMany(boolean bit, int count);
@@ -578,14 +797,200 @@ public class LTLBitmap {
 
         BitmapAdapter opXor(BitmapAdapter bm);
 
+        /**
+         * Computes this &and; &not;<i>bm</i> in one operation, without
+         * materializing the negation of <i>bm</i>.
+         */
+        BitmapAdapter opAndNot(BitmapAdapter bm);
+
+        /**
+         * Computes this &or; &not;<i>bm</i>, the implication
+         * <i>bm</i> &rarr; this.
+         */
+        BitmapAdapter opOrNot(BitmapAdapter bm);
+
+        /**
+         * Computes the conjunction of this bitmap and of all the given
+         * bitmaps, of the same class, in a single pass over the operands
+         * instead of one pass, and one intermediate bitmap, per operand.
+         * As with {@link #opAnd(BitmapAdapter)}, shorter operands are
+         * padded with 0s.
+         */
+        BitmapAdapter opAndAll(BitmapAdapter[] bms);
+
+        /**
+         * Computes the disjunction of this bitmap and of all the given
+         * bitmaps in a single pass.
+         * @see #opAndAll(BitmapAdapter[])
+         */
+        BitmapAdapter opOrAll(BitmapAdapter[] bms);
+
         BitmapAdapter removeFirstBit();
 
+        /**
+         * Drops the first <i>k</i> bits of this bitmap, which gives
+         * X<sup><i>k</i></sup> in a single pass. The result is empty if
+         * <i>k</i> is at least the size of this bitmap.
+         */
+        BitmapAdapter shiftLeft(int k);
+
+        /**
+         * Replaces the contents of this bitmap by their negation. Like the
+         * other in-place operators, this gives the same result as its
+         * counterpart without allocating a new adapter, and reuses the
+         * storage of this bitmap when its encoding allows it.
+         */
+        void notInPlace();
+
+        void andInPlace(BitmapAdapter bm);
+
+        void orInPlace(BitmapAdapter bm);
+
+        void xorInPlace(BitmapAdapter bm);
+
+        void removeFirstBitInPlace();
+
+        /**
+         * Replaces the contents of this bitmap by those of another bitmap
+         * of the same type, reusing the storage of this bitmap where
+         * possible.
+         */
+        void assign(BitmapAdapter bm);
+
+        /**
+         * Creates a copy of this bitmap. The copy shares the storage of
+         * this bitmap until either of them is appended to, so cloning
+         * does not depend on the size of the bitmap.
+         */
         BitmapAdapter clone();
 
         BitmapIterator begin();
 
         BitmapIterator end();
 
+        /**
+         * Finds the first 1 at or after a position. Unlike
+         * {@link BitmapIterator#find1()}, no object is created, which makes
+         * it suitable for loops that hop from run to run.
+         * @return The position, or -1 if there is none
+         */
+        int nextSetBit(int from);
+
+        /**
+         * Finds the first 0 at or after a position.
+         * @return The position, or -1 if there is none
+         */
+        int nextClearBit(int from);
+
+        /**
+         * Finds the last 1 at or before a position.
+         * @return The position, or -1 if there is none
+         */
+        int prevSetBit(int from);
+
+        /**
+         * Finds the last 0 at or before a position.
+         * @return The position, or -1 if there is none
+         */
+        int prevClearBit(int from);
+
+        String toString();
+    }
+
+    /**
+     * Iterator over a {@link LongBitmapAdapter}.
+     */
+    public interface LongBitmapIterator {
+        long index();
+
+        void moveForward(long offset);
+
+        LongBitmapIterator find0();
+
+        LongBitmapIterator find1();
+
+        boolean currentBit();
+
+        boolean isEnd();
+    }
+
+    /**
+     * Counterpart of {@link BitmapAdapter} whose positions are
+     * <code>long</code>, for traces longer than {@link Integer#MAX_VALUE}
+     * positions. Operands of connectives must come from the same
+     * implementation.
+     */
+    public interface LongBitmapAdapter extends Cloneable {
+        void add(boolean bit);
+
+        void addMany(boolean bit, long count);
+
+        boolean get(long position);
+
+        long size();
+
+        long getRealSize();
+
+        boolean firstBit();
+
+        long cardinality();
+
+        long last0();
+
+        long last1();
+
+        LongBitmapAdapter opNot();
+
+        LongBitmapAdapter opAnd(LongBitmapAdapter bm);
+
+        LongBitmapAdapter opOr(LongBitmapAdapter bm);
+
+        LongBitmapAdapter opXor(LongBitmapAdapter bm);
+
+        /**
+         * @see BitmapAdapter#opAndAll(BitmapAdapter[])
+         */
+        LongBitmapAdapter opAndAll(LongBitmapAdapter[] bms);
+
+        /**
+         * @see BitmapAdapter#opOrAll(BitmapAdapter[])
+         */
+        LongBitmapAdapter opOrAll(LongBitmapAdapter[] bms);
+
+        LongBitmapAdapter removeFirstBit();
+
+        /**
+         * Drops the first <i>k</i> bits of this bitmap.
+         * @see BitmapAdapter#shiftLeft(int)
+         */
+        LongBitmapAdapter shiftLeft(long k);
+
+        LongBitmapAdapter clone();
+
+        LongBitmapIterator begin();
+
+        LongBitmapIterator end();
+
+        /**
+         * @see BitmapAdapter#nextSetBit(int)
+         */
+        long nextSetBit(long from);
+
+        /**
+         * @see BitmapAdapter#nextClearBit(int)
+         */
+        long nextClearBit(long from);
+
+        /**
+         * @see BitmapAdapter#prevSetBit(int)
+         */
+        long prevSetBit(long from);
+
+        /**
+         * @see BitmapAdapter#prevClearBit(int)
+         */
+        long prevClearBit(long from);
+
         String toString();
     }
 }
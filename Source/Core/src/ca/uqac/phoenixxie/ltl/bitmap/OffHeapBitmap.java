@@ -0,0 +1,707 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * Uncompressed bitmap whose 64-bit words live outside the Java heap, in a
+ * direct buffer. It has the same layout and algorithms as
+ * {@link Raw64Bitmap}, and its operators read and write the buffers
+ * directly; only a small handle is left on the heap, so large
+ * intermediate results do not lengthen garbage collections.
+ * <p>
+ * The memory is returned when the handle is collected, or right away by
+ * calling {@link #release()}, after which the bitmap must not be used.
+ * Freeing memory right away relies on internals of the runtime; on a
+ * runtime that hides them, {@link #release()} only drops the handle.
+ * A bitmap can also wrap a mapped file (see {@link BitmapFiles}), in which
+ * case it is read-only.
+ * <p>
+ * A clone shares the memory of the original; whichever is appended to
+ * first copies it, so a clone of a mapped bitmap can be written to.
+ * Releasing a bitmap that shares its memory only drops the handle, and
+ * the memory is left to the garbage collector.
+ */
+public class OffHeapBitmap implements LTLBitmap.BitmapAdapter {
+    private static final long FULL = ~0L;
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+    private static final int OP_AND_NOT = 3;
+    private static final int OP_OR_NOT = 4;
+
+    private ByteBuffer memory;
+
+    private LongBuffer words;
+
+    private int size;
+
+    /**
+     * Set when {@link #memory} is shared with a clone
+     */
+    private boolean shared = false;
+
+    public OffHeapBitmap() {
+        this(4, 0);
+    }
+
+    OffHeapBitmap(int capacityInWords, int size) {
+        allocate(Math.max(capacityInWords, 1));
+        this.size = size;
+    }
+
+    /**
+     * Wraps existing memory, such as a mapped file, holding the words of a
+     * bitmap. If the memory is read-only, so is the bitmap.
+     */
+    OffHeapBitmap(ByteBuffer memory, int size) {
+        this.memory = memory;
+        this.words = memory.asLongBuffer();
+        this.size = size;
+    }
+
+    private void allocate(int capacityInWords) {
+        memory = ByteBuffer.allocateDirect(capacityInWords * 8).order(ByteOrder.nativeOrder());
+        words = memory.asLongBuffer();
+    }
+
+    /**
+     * Gets the backing words; bits past the size are 0.
+     */
+    LongBuffer words() {
+        check();
+        return words;
+    }
+
+    private void check() {
+        if (words == null) {
+            throw new IllegalStateException("Bitmap has been released");
+        }
+    }
+
+    /**
+     * Frees the memory of this bitmap without waiting for the garbage
+     * collector. Releasing twice has no effect.
+     */
+    public void release() {
+        if (memory == null) {
+            return;
+        }
+        if (!shared) {
+            free(memory);
+        }
+        memory = null;
+        words = null;
+    }
+
+    /**
+     * Runs the cleaner of a direct buffer. The cleaner is not part of the
+     * public API, so it is reached by reflection: through
+     * sun.misc.Unsafe.invokeCleaner on Java 9 and later, where the
+     * internals of java.nio are closed, and through the cleaner() method
+     * of the buffer before. If neither works, the memory is left for the
+     * garbage collector.
+     */
+    private static void free(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception e) {
+            // Before Java 9, or a buffer without a cleaner of its own
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // Not available on this runtime
+        }
+    }
+
+    /**
+     * Moves this bitmap to memory of its own, with room for at least the
+     * given number of bits.
+     */
+    private void unshare(int bits) {
+        LongBuffer old = words;
+        int nwords = Raw64Bitmap.wordsFor(size);
+        allocate(Math.max(Math.max(Raw64Bitmap.wordsFor(bits), old.capacity()), 1));
+        for (int i = 0; i < nwords; ++i) {
+            words.put(i, old.get(i));
+        }
+        shared = false;
+    }
+
+    private void ensureCapacity(int bits) {
+        int needed = Raw64Bitmap.wordsFor(bits);
+        if (needed > words.capacity()) {
+            ByteBuffer old = memory;
+            LongBuffer oldWords = words;
+            allocate(Math.max(needed, words.capacity() * 2));
+            oldWords.clear();
+            words.put(oldWords);
+            words.clear();
+            free(old);
+        }
+    }
+
+    private long word(int i) {
+        return words.get(i);
+    }
+
+    /**
+     * Sets all bits in the range [from, to).
+     */
+    private void setRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = FULL << from;
+        long lastMask = FULL >>> -to;
+        if (first == last) {
+            words.put(first, word(first) | (firstMask & lastMask));
+            return;
+        }
+        words.put(first, word(first) | firstMask);
+        for (int i = first + 1; i < last; ++i) {
+            words.put(i, FULL);
+        }
+        words.put(last, word(last) | lastMask);
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        check();
+        if (shared && count > 0) {
+            unshare(size + count);
+        }
+        if (memory.isReadOnly()) {
+            throw new UnsupportedOperationException("Bitmap is read-only");
+        }
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        if (bit) {
+            setRange(size, size + count);
+        }
+        size += count;
+    }
+
+    @Override
+    public boolean get(int index) {
+        check();
+        if (index >= size || index < 0) {
+            throw new InvalidParameterException();
+        }
+        return (word(index >>> 6) & (1L << index)) != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getRealSize() {
+        return Raw64Bitmap.wordsFor(size) * (Raw64Bitmap.WORD_IN_BITS / 8);
+    }
+
+    @Override
+    public boolean firstBit() {
+        check();
+        return size > 0 && (word(0) & 1L) != 0;
+    }
+
+    @Override
+    public int cardinality() {
+        check();
+        int card = 0;
+        int nwords = Raw64Bitmap.wordsFor(size);
+        for (int i = 0; i < nwords; ++i) {
+            card += Long.bitCount(word(i));
+        }
+        return card;
+    }
+
+    @Override
+    public int last0() {
+        return prevClearBit(size - 1);
+    }
+
+    @Override
+    public int last1() {
+        return prevSetBit(size - 1);
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        check();
+        if (from >= size) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = word(u) & (FULL << from);
+        int nwords = Raw64Bitmap.wordsFor(size);
+        while (w == 0) {
+            if (++u == nwords) {
+                return -1;
+            }
+            w = word(u);
+        }
+        return (u << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        check();
+        if (from >= size) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = ~word(u) & (FULL << from);
+        int nwords = Raw64Bitmap.wordsFor(size);
+        while (w == 0) {
+            if (++u == nwords) {
+                return -1;
+            }
+            w = ~word(u);
+        }
+        int pos = (u << 6) + Long.numberOfTrailingZeros(w);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        check();
+        from = Math.min(from, size - 1);
+        if (from < 0) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = word(u) & (FULL >>> (Raw64Bitmap.WORD_IN_BITS - 1 - (from & 63)));
+        while (w == 0) {
+            if (--u < 0) {
+                return -1;
+            }
+            w = word(u);
+        }
+        return (u << 6) + Raw64Bitmap.WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        check();
+        from = Math.min(from, size - 1);
+        if (from < 0) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = ~word(u) & (FULL >>> (Raw64Bitmap.WORD_IN_BITS - 1 - (from & 63)));
+        while (w == 0) {
+            if (--u < 0) {
+                return -1;
+            }
+            w = ~word(u);
+        }
+        return (u << 6) + Raw64Bitmap.WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        check();
+        int nwords = Raw64Bitmap.wordsFor(size);
+        OffHeapBitmap bm = new OffHeapBitmap(nwords, size);
+        for (int i = 0; i < nwords; ++i) {
+            bm.words.put(i, ~word(i));
+        }
+        if (nwords > 0) {
+            bm.words.put(nwords - 1, bm.word(nwords - 1) & Raw64Bitmap.tailMask(size));
+        }
+        return bm;
+    }
+
+    /**
+     * Combines two bitmaps word by word; the shorter one is read as
+     * followed by 0s.
+     */
+    private OffHeapBitmap combine(OffHeapBitmap right, int op) {
+        check();
+        right.check();
+        int newSize = Math.max(size, right.size);
+        int nwords = Raw64Bitmap.wordsFor(newSize);
+        int leftWords = Raw64Bitmap.wordsFor(size);
+        int rightWords = Raw64Bitmap.wordsFor(right.size);
+        OffHeapBitmap bm = new OffHeapBitmap(nwords, newSize);
+        for (int i = 0; i < nwords; ++i) {
+            long x = i < leftWords ? word(i) : 0L;
+            long y = i < rightWords ? right.word(i) : 0L;
+            long r;
+            if (op == OP_AND) {
+                r = x & y;
+            } else if (op == OP_OR) {
+                r = x | y;
+            } else if (op == OP_XOR) {
+                r = x ^ y;
+            } else if (op == OP_AND_NOT) {
+                r = x & ~y;
+            } else {
+                r = x | ~y;
+            }
+            bm.words.put(i, r);
+        }
+        if (op == OP_OR_NOT && nwords > 0) {
+            bm.words.put(nwords - 1, bm.word(nwords - 1) & Raw64Bitmap.tailMask(newSize));
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        return combine((OffHeapBitmap) bm, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        return combine((OffHeapBitmap) bm, OP_OR);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        return combine((OffHeapBitmap) bm, OP_XOR);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        check();
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        if (k >= size) {
+            return new OffHeapBitmap();
+        }
+        int nwords = Raw64Bitmap.wordsFor(size);
+        int newSize = size - k;
+        int newWords = Raw64Bitmap.wordsFor(newSize);
+        int wordShift = k >>> 6;
+        int bitShift = k & (Raw64Bitmap.WORD_IN_BITS - 1);
+        OffHeapBitmap bm = new OffHeapBitmap(newWords, newSize);
+        for (int i = 0; i < newWords; ++i) {
+            int from = i + wordShift;
+            long word = word(from) >>> bitShift;
+            if (bitShift != 0 && from + 1 < nwords) {
+                word |= word(from + 1) << (Raw64Bitmap.WORD_IN_BITS - bitShift);
+            }
+            bm.words.put(i, word);
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return combine((OffHeapBitmap) bm, OP_AND_NOT);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        return combine((OffHeapBitmap) bm, OP_OR_NOT);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_OR);
+    }
+
+    /**
+     * Combines this bitmap with many others word by word, like
+     * {@link Raw64Bitmap}: each word of the result is computed from the
+     * words of all the operands before moving on.
+     */
+    private OffHeapBitmap combineAll(LTLBitmap.BitmapAdapter[] bms, int op) {
+        check();
+        LongBuffer[] operands = new LongBuffer[bms.length + 1];
+        int[] lengths = new int[bms.length + 1];
+        operands[0] = words;
+        lengths[0] = Raw64Bitmap.wordsFor(size);
+        int newSize = size;
+        int common = lengths[0];
+        for (int j = 0; j < bms.length; ++j) {
+            OffHeapBitmap bm = (OffHeapBitmap) bms[j];
+            bm.check();
+            operands[j + 1] = bm.words;
+            lengths[j + 1] = Raw64Bitmap.wordsFor(bm.size);
+            newSize = Math.max(newSize, bm.size);
+            common = Math.min(common, lengths[j + 1]);
+        }
+        int nwords = Raw64Bitmap.wordsFor(newSize);
+        OffHeapBitmap bm = new OffHeapBitmap(nwords, newSize);
+        if (op == OP_AND) {
+            // Past the shortest operand, the conjunction is 0
+            for (int i = 0; i < common; ++i) {
+                long w = FULL;
+                for (int j = 0; j < operands.length && w != 0L; ++j) {
+                    w &= operands[j].get(i);
+                }
+                bm.words.put(i, w);
+            }
+        } else {
+            for (int i = 0; i < nwords; ++i) {
+                long w = 0L;
+                for (int j = 0; j < operands.length && w != FULL; ++j) {
+                    if (i < lengths[j]) {
+                        w |= operands[j].get(i);
+                    }
+                }
+                bm.words.put(i, w);
+            }
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        check();
+        if (size == 0) {
+            return new OffHeapBitmap();
+        }
+        int nwords = Raw64Bitmap.wordsFor(size);
+        int newWords = Raw64Bitmap.wordsFor(size - 1);
+        OffHeapBitmap bm = new OffHeapBitmap(newWords, size - 1);
+        for (int i = 0; i < newWords; ++i) {
+            long next = i + 1 < nwords ? word(i + 1) : 0L;
+            bm.words.put(i, (word(i) >>> 1) | (next << (Raw64Bitmap.WORD_IN_BITS - 1)));
+        }
+        return bm;
+    }
+
+    /**
+     * Makes the memory of this bitmap writable for an in-place operator
+     * producing the given number of bits.
+     */
+    private void prepareWrite(int bits) {
+        check();
+        if (shared) {
+            unshare(bits);
+        }
+        if (memory.isReadOnly()) {
+            throw new UnsupportedOperationException("Bitmap is read-only");
+        }
+        ensureCapacity(bits);
+    }
+
+    /**
+     * Sets the size after an in-place operator, clearing the words that
+     * are no longer used.
+     */
+    private void shrinkTo(int newSize) {
+        for (int i = Raw64Bitmap.wordsFor(newSize); i < Raw64Bitmap.wordsFor(size); ++i) {
+            words.put(i, 0L);
+        }
+        size = newSize;
+    }
+
+    @Override
+    public void notInPlace() {
+        prepareWrite(size);
+        int nwords = Raw64Bitmap.wordsFor(size);
+        for (int i = 0; i < nwords; ++i) {
+            words.put(i, ~word(i));
+        }
+        if (nwords > 0) {
+            words.put(nwords - 1, word(nwords - 1) & Raw64Bitmap.tailMask(size));
+        }
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((OffHeapBitmap) bm, OP_AND);
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((OffHeapBitmap) bm, OP_OR);
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((OffHeapBitmap) bm, OP_XOR);
+    }
+
+    private void combineInPlace(OffHeapBitmap right, int op) {
+        right.check();
+        int newSize = Math.max(size, right.size);
+        prepareWrite(newSize);
+        int nwords = Raw64Bitmap.wordsFor(newSize);
+        int leftWords = Raw64Bitmap.wordsFor(size);
+        int rightWords = Raw64Bitmap.wordsFor(right.size);
+        for (int i = 0; i < nwords; ++i) {
+            long x = i < leftWords ? word(i) : 0L;
+            long y = i < rightWords ? right.word(i) : 0L;
+            long r;
+            if (op == OP_AND) {
+                r = x & y;
+            } else if (op == OP_OR) {
+                r = x | y;
+            } else {
+                r = x ^ y;
+            }
+            words.put(i, r);
+        }
+        size = newSize;
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        prepareWrite(size);
+        if (size == 0) {
+            return;
+        }
+        int nwords = Raw64Bitmap.wordsFor(size);
+        int newWords = Raw64Bitmap.wordsFor(size - 1);
+        for (int i = 0; i < newWords; ++i) {
+            long next = i + 1 < nwords ? word(i + 1) : 0L;
+            words.put(i, (word(i) >>> 1) | (next << (Raw64Bitmap.WORD_IN_BITS - 1)));
+        }
+        shrinkTo(size - 1);
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        OffHeapBitmap other = (OffHeapBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        other.check();
+        prepareWrite(other.size);
+        int nwords = Raw64Bitmap.wordsFor(other.size);
+        for (int i = 0; i < nwords; ++i) {
+            words.put(i, other.word(i));
+        }
+        shrinkTo(other.size);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        check();
+        OffHeapBitmap bm = new OffHeapBitmap(memory, size);
+        bm.shared = true;
+        // Read-only memory is never written, so the original stays as is
+        shared = !memory.isReadOnly();
+        return bm;
+    }
+
+    @Override
+    public String toString() {
+        check();
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            sb.append((word(i >>> 6) & (1L << i)) != 0 ? "1" : "0");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        return new Iterator(size);
+    }
+
+    class Iterator implements LTLBitmap.BitmapIterator {
+        private int index;
+
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(int offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return get(index);
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
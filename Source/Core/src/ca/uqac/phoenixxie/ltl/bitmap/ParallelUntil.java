@@ -0,0 +1,200 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates U, W, R and M over several threads. The trace is cut into
+ * segments of whole words. A segment only depends on the rest of the trace
+ * through one bit, the value of the result right after it; given that bit,
+ * the segment yields its own result and the bit to pass to the segment
+ * before it. The evaluation runs in three passes:
+ * <ol>
+ * <li>every segment is solved in parallel as if a 0 came after it,
+ * recording the bit it passes on and whether a 1 would cross it
+ * entirely;</li>
+ * <li>the actual bits are chained from the last segment to the first,
+ * which takes one step per segment;</li>
+ * <li>segments receiving a 1 are fixed in parallel, stopping at the first
+ * word that the 1 does not change.</li>
+ * </ol>
+ * Traces shorter than two segments are evaluated on the calling thread.
+ * <p>
+ * Operands are converted to words first, which is immediate for
+ * {@link Type#RAW64} and cheap for the EWAH formats; for the other formats
+ * that conversion runs on the calling thread.
+ */
+public class ParallelUntil {
+    /**
+     * Default number of positions per segment
+     */
+    public static final int DEFAULT_SEGMENT_IN_BITS = 1 << 22;
+
+    private final ExecutorService executor;
+
+    private final int segmentInWords;
+
+    /**
+     * Creates an evaluator running its segments on a given executor.
+     * The executor is not shut down by this object.
+     */
+    public ParallelUntil(ExecutorService executor) {
+        this(executor, DEFAULT_SEGMENT_IN_BITS);
+    }
+
+    public ParallelUntil(ExecutorService executor, int segmentInBits) {
+        this.executor = executor;
+        this.segmentInWords = Math.max(1, segmentInBits / Raw64Bitmap.WORD_IN_BITS);
+    }
+
+    public LTLBitmap.BitmapAdapter until(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                         LTLBitmap.BitmapAdapter right) {
+        return run(type, left, right, false, false);
+    }
+
+    public LTLBitmap.BitmapAdapter weakUntil(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                             LTLBitmap.BitmapAdapter right) {
+        return run(type, left, right, false, true);
+    }
+
+    public LTLBitmap.BitmapAdapter release(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                           LTLBitmap.BitmapAdapter right) {
+        return run(type, left, right, true, false);
+    }
+
+    public LTLBitmap.BitmapAdapter strongRelease(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                                 LTLBitmap.BitmapAdapter right) {
+        return run(type, left, right, true, true);
+    }
+
+    /**
+     * Computes <i>left</i> U <i>right</i> on long-indexed bitmaps, each
+     * segment of which is split across threads.
+     */
+    public LTLBitmap.LongBitmapAdapter until(LTLBitmap.LongBitmapAdapter left,
+                                             LTLBitmap.LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, false, false, this);
+    }
+
+    public LTLBitmap.LongBitmapAdapter weakUntil(LTLBitmap.LongBitmapAdapter left,
+                                                 LTLBitmap.LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, false, true, this);
+    }
+
+    public LTLBitmap.LongBitmapAdapter release(LTLBitmap.LongBitmapAdapter left,
+                                               LTLBitmap.LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, true, false, this);
+    }
+
+    public LTLBitmap.LongBitmapAdapter strongRelease(LTLBitmap.LongBitmapAdapter left,
+                                                     LTLBitmap.LongBitmapAdapter right) {
+        return SegmentedBitmap.runUntil(left, right, true, true, this);
+    }
+
+    LTLBitmap.BitmapAdapter run(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                        LTLBitmap.BitmapAdapter right, final boolean dual,
+                                        final boolean weak) {
+        LTLBitmap.BitmapAdapter constant = ConstantBitmap.until(type, left, right, dual, weak);
+        if (constant != null) {
+            return constant;
+        }
+        int size = Math.max(left.size(), right.size());
+        left = LTLBitmap.padTo(left, size);
+        right = LTLBitmap.padTo(right, size);
+        final int n = left.size();
+        final int nwords = Raw64Bitmap.wordsFor(n);
+        final int segments = (nwords + segmentInWords - 1) / segmentInWords;
+        if (segments < 2) {
+            return LTLBitmap.runUntil(type, left, right, dual, weak);
+        }
+        final long[] a = UntilKernel.toWords(left);
+        final long[] b = UntilKernel.toWords(right);
+        final long[] result = new long[nwords];
+        final boolean[] carryOut = new boolean[segments];
+        final boolean[] crossed = new boolean[segments];
+
+        // Pass 1: every segment on its own, the last one with its true carry
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(segments);
+        for (int k = 0; k < segments; ++k) {
+            final int s = k;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int from = s * segmentInWords;
+                    int to = Math.min(from + segmentInWords, nwords);
+                    boolean isLast = s == segments - 1;
+                    carryOut[s] = UntilKernel.solve(a, b, result, from, to, n, dual, weak,
+                            isLast && weak, false);
+                    crossed[s] = !isLast && UntilKernel.propagates(a, from, to, dual);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        // Pass 2: chain the carries from the end of the trace
+        final boolean[] carryIn = new boolean[segments];
+        boolean carry = carryOut[segments - 1];
+        for (int k = segments - 2; k >= 0; --k) {
+            carryIn[k] = carry;
+            carry = carryOut[k] || (carry && crossed[k]);
+        }
+
+        // Pass 3: fix the segments that receive a 1
+        tasks.clear();
+        for (int k = 0; k < segments - 1; ++k) {
+            if (!carryIn[k]) {
+                continue;
+            }
+            final int s = k;
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int from = s * segmentInWords;
+                    int to = Math.min(from + segmentInWords, nwords);
+                    UntilKernel.solve(a, b, result, from, to, n, dual, weak, true, true);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+        return UntilKernel.fromWords(type, result, n);
+    }
+
+    private void invokeAll(List<Callable<Object>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        try {
+            for (Future<Object> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,642 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Uncompressed bitmap stored as a plain array of 64-bit words. Unlike
+ * {@link RawBitmap}, every operation works on whole words: appends fill
+ * word-aligned blocks at once, cardinality uses a population count, and
+ * searches for the next 0 or 1 use leading/trailing zero counts.
+ * <p>
+ * Bits past {@link #size()} in the last word are always kept to 0.
+ */
+public class Raw64Bitmap implements LTLBitmap.BitmapAdapter {
+    static final int WORD_IN_BITS = 64;
+
+    private static final long FULL = ~0L;
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+    private static final int OP_AND_NOT = 3;
+    private static final int OP_OR_NOT = 4;
+
+    private long[] words;
+
+    private int size;
+
+    /**
+     * Set when {@link #words} is shared with a clone. The shared array is
+     * never written: it is copied before the first 1 is appended. Appending
+     * 0s does not need a copy, since bits past the size are already 0.
+     */
+    private boolean shared = false;
+
+    public Raw64Bitmap() {
+        this(new long[4], 0);
+    }
+
+    Raw64Bitmap(long[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    /**
+     * Gets the backing words; bits past the size are 0.
+     */
+    long[] words() {
+        return words;
+    }
+
+    static int wordsFor(int bits) {
+        return (bits + WORD_IN_BITS - 1) >>> 6;
+    }
+
+    /**
+     * Mask of the valid bits in the last word of a bitmap of the given
+     * size; all ones if the size is a multiple of the word size.
+     */
+    static long tailMask(int bits) {
+        int r = bits & (WORD_IN_BITS - 1);
+        return r == 0 ? FULL : (1L << r) - 1;
+    }
+
+    private void ensureCapacity(int bits) {
+        int needed = wordsFor(bits);
+        if (needed > words.length) {
+            words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+            shared = false;
+        }
+    }
+
+    private void unshare() {
+        if (shared) {
+            words = words.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Sets all bits in the range [from, to) of a word array.
+     */
+    static void setRange(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = FULL << from;
+        long lastMask = FULL >>> -to;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        Arrays.fill(words, first + 1, last, FULL);
+        words[last] |= lastMask;
+    }
+
+    /**
+     * Gets the number of runs of 1s, counting the positions where a 1
+     * follows a 0 in one population count per word.
+     */
+    int runCount() {
+        int runs = 0;
+        long carry = 0;
+        int nwords = wordsFor(size);
+        for (int i = 0; i < nwords; ++i) {
+            long w = words[i];
+            runs += Long.bitCount(w & ~((w << 1) | carry));
+            carry = w >>> (WORD_IN_BITS - 1);
+        }
+        return runs;
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = words[u] & (FULL << from);
+        int nwords = wordsFor(size);
+        while (w == 0) {
+            if (++u == nwords) {
+                return -1;
+            }
+            w = words[u];
+        }
+        return (u << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int u = from >>> 6;
+        long w = ~words[u] & (FULL << from);
+        int nwords = wordsFor(size);
+        while (w == 0) {
+            if (++u == nwords) {
+                return -1;
+            }
+            w = ~words[u];
+        }
+        int pos = (u << 6) + Long.numberOfTrailingZeros(w);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        from = Math.min(from, size - 1);
+        int u = from >>> 6;
+        long w = words[u] & (FULL >>> (WORD_IN_BITS - 1 - (from & 63)));
+        while (w == 0) {
+            if (--u < 0) {
+                return -1;
+            }
+            w = words[u];
+        }
+        return (u << 6) + WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        from = Math.min(from, size - 1);
+        int u = from >>> 6;
+        long w = ~words[u] & (FULL >>> (WORD_IN_BITS - 1 - (from & 63)));
+        while (w == 0) {
+            if (--u < 0) {
+                return -1;
+            }
+            w = ~words[u];
+        }
+        return (u << 6) + WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+    }
+
+    @Override
+    public void add(boolean bit) {
+        ensureCapacity(size + 1);
+        if (bit) {
+            unshare();
+            words[size >>> 6] |= 1L << size;
+        }
+        ++size;
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        if (bit) {
+            unshare();
+            setRange(words, size, size + count);
+        }
+        size += count;
+    }
+
+    @Override
+    public boolean get(int index) {
+        if (index >= size || index < 0) {
+            throw new InvalidParameterException();
+        }
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getRealSize() {
+        return wordsFor(size) * (WORD_IN_BITS / 8);
+    }
+
+    @Override
+    public boolean firstBit() {
+        return size > 0 && (words[0] & 1L) != 0;
+    }
+
+    @Override
+    public int cardinality() {
+        int card = 0;
+        int nwords = wordsFor(size);
+        for (int i = 0; i < nwords; ++i) {
+            card += Long.bitCount(words[i]);
+        }
+        return card;
+    }
+
+    @Override
+    public int last0() {
+        int u = wordsFor(size) - 1;
+        if (u < 0) {
+            return -1;
+        }
+        long w = ~words[u] & tailMask(size);
+        while (w == 0) {
+            if (--u < 0) {
+                return -1;
+            }
+            w = ~words[u];
+        }
+        return (u << 6) + WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(w);
+    }
+
+    @Override
+    public int last1() {
+        for (int u = wordsFor(size) - 1; u >= 0; --u) {
+            if (words[u] != 0) {
+                return (u << 6) + WORD_IN_BITS - 1 - Long.numberOfLeadingZeros(words[u]);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        int nwords = wordsFor(size);
+        long[] result = new long[Math.max(nwords, 1)];
+        for (int i = 0; i < nwords; ++i) {
+            result[i] = ~words[i];
+        }
+        if (nwords > 0) {
+            result[nwords - 1] &= tailMask(size);
+        }
+        return new Raw64Bitmap(result, size);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        Raw64Bitmap right = (Raw64Bitmap) bm;
+        int common = Math.min(wordsFor(size), wordsFor(right.size));
+        int newSize = Math.max(size, right.size);
+        long[] result = new long[Math.max(wordsFor(newSize), 1)];
+        for (int i = 0; i < common; ++i) {
+            result[i] = words[i] & right.words[i];
+        }
+        return new Raw64Bitmap(result, newSize);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        Raw64Bitmap right = (Raw64Bitmap) bm;
+        Raw64Bitmap longer = size >= right.size ? this : right;
+        Raw64Bitmap shorter = longer == this ? right : this;
+        int common = wordsFor(shorter.size);
+        long[] result = Arrays.copyOf(longer.words, Math.max(wordsFor(longer.size), 1));
+        for (int i = 0; i < common; ++i) {
+            result[i] |= shorter.words[i];
+        }
+        return new Raw64Bitmap(result, longer.size);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        Raw64Bitmap right = (Raw64Bitmap) bm;
+        Raw64Bitmap longer = size >= right.size ? this : right;
+        Raw64Bitmap shorter = longer == this ? right : this;
+        int common = wordsFor(shorter.size);
+        long[] result = Arrays.copyOf(longer.words, Math.max(wordsFor(longer.size), 1));
+        for (int i = 0; i < common; ++i) {
+            result[i] ^= shorter.words[i];
+        }
+        return new Raw64Bitmap(result, longer.size);
+    }
+
+    /**
+     * Shifts whole words by <i>k</i> / 64 and the bits within them by
+     * the rest, reading each source word once.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        if (k >= size) {
+            return new Raw64Bitmap();
+        }
+        int nwords = wordsFor(size);
+        int newSize = size - k;
+        int wordShift = k >>> 6;
+        int bitShift = k & (WORD_IN_BITS - 1);
+        long[] result = new long[wordsFor(newSize)];
+        for (int i = 0; i < result.length; ++i) {
+            int from = i + wordShift;
+            long word = words[from] >>> bitShift;
+            if (bitShift != 0 && from + 1 < nwords) {
+                word |= words[from + 1] << (WORD_IN_BITS - bitShift);
+            }
+            result[i] = word;
+        }
+        return new Raw64Bitmap(result, newSize);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        // The clone shares the words, so the result goes to a new array
+        Raw64Bitmap answer = (Raw64Bitmap) clone();
+        answer.combineInPlace((Raw64Bitmap) bm, OP_AND_NOT);
+        return answer;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        Raw64Bitmap answer = (Raw64Bitmap) clone();
+        answer.combineInPlace((Raw64Bitmap) bm, OP_OR_NOT);
+        return answer;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_OR);
+    }
+
+    /**
+     * Combines this bitmap with many others word by word: word <i>i</i>
+     * of the result is computed from word <i>i</i> of every operand
+     * before moving on, so nothing but the result is written. The loop
+     * over the operands stops as soon as the word is decided.
+     */
+    private Raw64Bitmap combineAll(LTLBitmap.BitmapAdapter[] bms, int op) {
+        long[][] operands = new long[bms.length + 1][];
+        int[] lengths = new int[bms.length + 1];
+        operands[0] = words;
+        lengths[0] = wordsFor(size);
+        int newSize = size;
+        int common = lengths[0];
+        for (int j = 0; j < bms.length; ++j) {
+            Raw64Bitmap bm = (Raw64Bitmap) bms[j];
+            operands[j + 1] = bm.words;
+            lengths[j + 1] = wordsFor(bm.size);
+            newSize = Math.max(newSize, bm.size);
+            common = Math.min(common, lengths[j + 1]);
+        }
+        int nwords = wordsFor(newSize);
+        long[] result = new long[Math.max(nwords, 1)];
+        if (op == OP_AND) {
+            // Past the shortest operand, the conjunction is 0
+            for (int i = 0; i < common; ++i) {
+                long w = FULL;
+                for (int j = 0; j < operands.length && w != 0L; ++j) {
+                    w &= operands[j][i];
+                }
+                result[i] = w;
+            }
+        } else {
+            for (int i = 0; i < nwords; ++i) {
+                long w = 0L;
+                for (int j = 0; j < operands.length && w != FULL; ++j) {
+                    if (i < lengths[j]) {
+                        w |= operands[j][i];
+                    }
+                }
+                result[i] = w;
+            }
+        }
+        return new Raw64Bitmap(result, newSize);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        if (size == 0) {
+            return new Raw64Bitmap();
+        }
+        int nwords = wordsFor(size);
+        long[] result = new long[Math.max(wordsFor(size - 1), 1)];
+        for (int i = 0; i < result.length && i < nwords; ++i) {
+            long next = i + 1 < nwords ? words[i + 1] : 0L;
+            result[i] = (words[i] >>> 1) | (next << (WORD_IN_BITS - 1));
+        }
+        return new Raw64Bitmap(result, size - 1);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        Raw64Bitmap bm = new Raw64Bitmap(words, size);
+        bm.shared = true;
+        shared = true;
+        return bm;
+    }
+
+    /**
+     * Gets the array into which an in-place operator writes a result of
+     * the given size: the words of this bitmap if they are not shared and
+     * large enough, otherwise a new array. The operators below write word
+     * <i>i</i> only after reading words <i>i</i> and <i>i</i> + 1 of their
+     * operands, so the result can overwrite an operand.
+     */
+    private long[] target(int bits) {
+        int needed = Math.max(wordsFor(bits), 1);
+        if (shared || words.length < needed) {
+            return new long[needed];
+        }
+        return words;
+    }
+
+    private void replaceWords(long[] result, int newSize) {
+        if (result == words) {
+            for (int i = wordsFor(newSize); i < wordsFor(size); ++i) {
+                words[i] = 0L;
+            }
+        } else {
+            words = result;
+            shared = false;
+        }
+        size = newSize;
+    }
+
+    @Override
+    public void notInPlace() {
+        int nwords = wordsFor(size);
+        long[] result = target(size);
+        for (int i = 0; i < nwords; ++i) {
+            result[i] = ~words[i];
+        }
+        if (nwords > 0) {
+            result[nwords - 1] &= tailMask(size);
+        }
+        replaceWords(result, size);
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((Raw64Bitmap) bm, OP_AND);
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((Raw64Bitmap) bm, OP_OR);
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        combineInPlace((Raw64Bitmap) bm, OP_XOR);
+    }
+
+    private void combineInPlace(Raw64Bitmap right, int op) {
+        int newSize = Math.max(size, right.size);
+        int lwords = wordsFor(size);
+        int rwords = wordsFor(right.size);
+        int nwords = wordsFor(newSize);
+        long[] result = target(newSize);
+        for (int i = 0; i < nwords; ++i) {
+            long l = i < lwords ? words[i] : 0L;
+            long r = i < rwords ? right.words[i] : 0L;
+            if (op == OP_AND) {
+                result[i] = l & r;
+            } else if (op == OP_OR) {
+                result[i] = l | r;
+            } else if (op == OP_XOR) {
+                result[i] = l ^ r;
+            } else if (op == OP_AND_NOT) {
+                result[i] = l & ~r;
+            } else {
+                result[i] = l | ~r;
+            }
+        }
+        if (op == OP_OR_NOT && nwords > 0) {
+            result[nwords - 1] &= tailMask(newSize);
+        }
+        replaceWords(result, newSize);
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        if (size == 0) {
+            return;
+        }
+        int nwords = wordsFor(size);
+        long[] result = target(size - 1);
+        for (int i = 0; i < wordsFor(size - 1); ++i) {
+            long next = i + 1 < nwords ? words[i + 1] : 0L;
+            result[i] = (words[i] >>> 1) | (next << (WORD_IN_BITS - 1));
+        }
+        replaceWords(result, size - 1);
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        Raw64Bitmap other = (Raw64Bitmap) bm;
+        if (other == this) {
+            return;
+        }
+        int nwords = wordsFor(other.size);
+        if (shared || words.length < Math.max(nwords, 1)) {
+            words = other.words;
+            size = other.size;
+            shared = true;
+            other.shared = true;
+            return;
+        }
+        System.arraycopy(other.words, 0, words, 0, nwords);
+        for (int i = nwords; i < wordsFor(size); ++i) {
+            words[i] = 0L;
+        }
+        size = other.size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; ++i) {
+            sb.append((words[i >>> 6] & (1L << i)) != 0 ? "1" : "0");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        return new Iterator(size);
+    }
+
+    class Iterator implements LTLBitmap.BitmapIterator {
+        private int index;
+
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(int offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
@@ -25,6 +25,12 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
 
     private int size = 0;
 
+    /**
+     * Set when {@link #bitset} is shared with a clone; it is then copied
+     * before a 1 is appended.
+     */
+    private boolean shared = false;
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -38,6 +44,19 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter clone() {
+        RawBitmap bm = new RawBitmap();
+        bm.bitset = this.bitset;
+        bm.size = this.size;
+        bm.shared = true;
+        shared = true;
+        return bm;
+    }
+
+    /**
+     * Creates a copy of this bitmap that owns its bits, for operators
+     * that modify the copy in place.
+     */
+    private RawBitmap copy() {
         RawBitmap bm = new RawBitmap();
         bm.bitset = (BitSet) this.bitset.clone();
         bm.size = this.size;
@@ -91,6 +110,7 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
     @Override
     public void add(boolean bit) {
         if (bit) {
+            unshare();
             bitset.set(size);
         } else {
             bitset.clear(size);
@@ -105,6 +125,44 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
         }
     }
 
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int pos = bitset.nextSetBit(from);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int pos = bitset.nextClearBit(from);
+        return pos < size ? pos : -1;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        for (int i = Math.min(from, size - 1); i >= 0; --i) {
+            if (bitset.get(i) == true) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        for (int i = Math.min(from, size - 1); i >= 0; --i) {
+            if (bitset.get(i) == false) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public int size() {
         return size;
@@ -117,14 +175,14 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opNot() {
-        RawBitmap bm = (RawBitmap) clone();
+        RawBitmap bm = copy();
         bm.bitset.flip(0, size);
         return bm;
     }
 
     @Override
     public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
-        RawBitmap left = (RawBitmap) clone();
+        RawBitmap left = copy();
         RawBitmap right = (RawBitmap) bm;
         left.bitset.and(right.bitset);
         left.size = Math.max(left.size, right.size);
@@ -133,7 +191,7 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
-        RawBitmap left = (RawBitmap) clone();
+        RawBitmap left = copy();
         RawBitmap right = (RawBitmap) bm;
         left.bitset.or(right.bitset);
         left.size = Math.max(left.size, right.size);
@@ -142,21 +200,159 @@ public class RawBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
-        RawBitmap left = (RawBitmap) clone();
+        RawBitmap left = copy();
         RawBitmap right = (RawBitmap) bm;
         left.bitset.xor(right.bitset);
         left.size = Math.max(left.size, right.size);
         return left;
     }
 
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        RawBitmap bm = new RawBitmap();
+        if (k < size) {
+            bm.bitset = bitset.get(k, size);
+            bm.size = size - k;
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap left = copy();
+        RawBitmap right = (RawBitmap) bm;
+        left.bitset.andNot(right.bitset);
+        left.size = Math.max(left.size, right.size);
+        return left;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap answer = ((RawBitmap) bm).copy();
+        answer.size = Math.max(size, answer.size);
+        answer.bitset.flip(0, answer.size);
+        answer.bitset.or(bitset);
+        return answer;
+    }
+
+    /**
+     * Folds the operands into a single copy with the word loops of
+     * {@link BitSet}, so no intermediate bitmap is created. The copy is
+     * that of the operand with the fewest words, and the loop stops once
+     * it is empty.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        RawBitmap shortest = this;
+        int newSize = size;
+        for (LTLBitmap.BitmapAdapter bm : bms) {
+            RawBitmap right = (RawBitmap) bm;
+            if (right.bitset.length() < shortest.bitset.length()) {
+                shortest = right;
+            }
+            newSize = Math.max(newSize, right.size);
+        }
+        RawBitmap answer = shortest.copy();
+        answer.size = newSize;
+        if (shortest != this) {
+            answer.bitset.and(bitset);
+        }
+        for (int i = 0; i < bms.length && !answer.bitset.isEmpty(); ++i) {
+            if (bms[i] != shortest) {
+                answer.bitset.and(((RawBitmap) bms[i]).bitset);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        RawBitmap answer = copy();
+        for (LTLBitmap.BitmapAdapter bm : bms) {
+            RawBitmap right = (RawBitmap) bm;
+            answer.bitset.or(right.bitset);
+            answer.size = Math.max(answer.size, right.size);
+        }
+        return answer;
+    }
+
     @Override
     public LTLBitmap.BitmapAdapter removeFirstBit() {
-        RawBitmap bm = (RawBitmap) clone();
-        bm.bitset = bm.bitset.get(1, bm.size);
-        --bm.size;
+        if (size == 0) {
+            return new RawBitmap();
+        }
+        RawBitmap bm = new RawBitmap();
+        bm.bitset = bitset.get(1, size);
+        bm.size = size - 1;
         return bm;
     }
 
+    /**
+     * Gives this bitmap a copy of its bits if they are shared with a clone,
+     * before they are modified in place.
+     */
+    private void unshare() {
+        if (shared) {
+            bitset = (BitSet) bitset.clone();
+            shared = false;
+        }
+    }
+
+    @Override
+    public void notInPlace() {
+        unshare();
+        bitset.flip(0, size);
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap right = (RawBitmap) bm;
+        unshare();
+        bitset.and(right.bitset);
+        size = Math.max(size, right.size);
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap right = (RawBitmap) bm;
+        unshare();
+        bitset.or(right.bitset);
+        size = Math.max(size, right.size);
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap right = (RawBitmap) bm;
+        unshare();
+        bitset.xor(right.bitset);
+        size = Math.max(size, right.size);
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        if (size == 0) {
+            return;
+        }
+        bitset = bitset.get(1, size);
+        shared = false;
+        --size;
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        RawBitmap other = (RawBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        bitset = other.bitset;
+        size = other.size;
+        shared = true;
+        other.shared = true;
+    }
+
     @Override
     public LTLBitmap.BitmapIterator begin() {
         return new Iterator();
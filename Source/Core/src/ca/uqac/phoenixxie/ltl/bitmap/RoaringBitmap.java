@@ -17,12 +17,64 @@
  */
 package ca.uqac.phoenixxie.ltl.bitmap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.roaringbitmap.FastAggregation;
 import org.roaringbitmap.IntIterator;
 
 public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
+    /**
+     * Number of bits in a bitmap container
+     */
+    private static final int CONTAINER_IN_BITS = 1 << 16;
+
+    /**
+     * Maximum cardinality of an array container
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /**
+     * Number of 64-bit words in a bitmap container
+     */
+    private static final int WORDS_IN_CONTAINER = CONTAINER_IN_BITS / 64;
+
+    private static final int SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
+
+    private static final int SERIAL_COOKIE = 12347;
+
+    private static final int NO_OFFSET_THRESHOLD = 4;
+
     private org.roaringbitmap.RoaringBitmap bitmap;
     private int size;
 
+    /**
+     * Whether the containers have been run-optimized since the last
+     * append.
+     */
+    private boolean optimized = true;
+
+    /**
+     * The runs of 1s of the bitmap, used to answer searches for the next
+     * 0 or 1. Built on the first search and discarded on the next append.
+     */
+    private RunBitmap runs = null;
+
+    /**
+     * Set when {@link #bitmap} is shared with a clone; it is then copied
+     * before a 1 is appended. A shared bitmap is always run-optimized, so
+     * {@link #optimize()} does not modify it either.
+     */
+    private boolean shared = false;
+
     public RoaringBitmap() {
         bitmap = new org.roaringbitmap.RoaringBitmap();
         size = 0;
@@ -31,23 +83,280 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
     private RoaringBitmap(org.roaringbitmap.RoaringBitmap bm, int size) {
         this.bitmap = bm;
         this.size = size;
+        this.optimized = false;
+        optimize();
+    }
+
+    /**
+     * Creates a clone sharing the containers of another bitmap.
+     */
+    private RoaringBitmap(RoaringBitmap other) {
+        other.optimize();
+        other.shared = true;
+        this.bitmap = other.bitmap;
+        this.size = other.size;
+        this.runs = other.runs;
+        this.shared = true;
+    }
+
+    private void unshare() {
+        if (shared) {
+            bitmap = bitmap.clone();
+            shared = false;
+        }
+    }
+
+    private void optimize() {
+        if (!optimized) {
+            bitmap.runOptimize();
+            optimized = true;
+        }
+    }
+
+    /**
+     * Gets the runs of 1s of this bitmap. They are read container by
+     * container from the serialized form of the bitmap: run containers
+     * are copied as is, array containers are merged into runs, and bitmap
+     * containers are scanned one 64-bit word at a time.
+     */
+    private RunBitmap runs() {
+        if (runs != null) {
+            return runs;
+        }
+        optimize();
+        SerializedContainers in = new SerializedContainers(bitmap);
+        RunBitmap answer = new RunBitmap();
+        for (int k = 0; k < in.containers; ++k) {
+            int base = in.keys[k] * CONTAINER_IN_BITS;
+            if (in.isRun(k)) {
+                int nbrruns = in.nextShort();
+                for (int r = 0; r < nbrruns; ++r) {
+                    int start = base + in.nextShort();
+                    int length = in.nextShort() + 1;
+                    appendRun(answer, start, start + length);
+                }
+            } else if (in.cards[k] > ARRAY_MAX_SIZE) {
+                for (int w = 0; w < WORDS_IN_CONTAINER; ++w) {
+                    long word = in.data.getLong();
+                    int wordStart = base + w * 64;
+                    // Peel off one run of 1s per iteration
+                    while (word != 0) {
+                        int from = Long.numberOfTrailingZeros(word);
+                        int to = Long.numberOfTrailingZeros(~(word | ((1L << from) - 1)));
+                        if (to == 64) {
+                            appendRun(answer, wordStart + from, wordStart + 64);
+                            break;
+                        }
+                        appendRun(answer, wordStart + from, wordStart + to);
+                        word &= -1L << to;
+                    }
+                }
+            } else {
+                for (int i = 0; i < in.cards[k]; ++i) {
+                    int pos = base + in.nextShort();
+                    appendRun(answer, pos, pos + 1);
+                }
+            }
+        }
+        answer.addMany(false, size - answer.size());
+        runs = answer;
+        return runs;
+    }
+
+    private static void appendRun(RunBitmap bm, int start, int end) {
+        bm.addMany(false, start - bm.size());
+        bm.addMany(true, end - start);
+    }
+
+    /**
+     * Reader for the portable serialization format of a Roaring bitmap,
+     * giving access to its containers one after the other.
+     */
+    private static class SerializedContainers {
+        final ByteBuffer data;
+        final int containers;
+        final int[] keys;
+        final int[] cards;
+        private final byte[] runFlags;
+
+        SerializedContainers(org.roaringbitmap.RoaringBitmap bitmap) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(bitmap.serializedSizeInBytes());
+            try {
+                bitmap.serialize(new DataOutputStream(bos));
+            } catch (IOException e) {
+                // Cannot happen when writing to memory
+                throw new IllegalStateException(e);
+            }
+            data = ByteBuffer.wrap(bos.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+            int cookie = data.getInt();
+            if ((cookie & 0xFFFF) == SERIAL_COOKIE) {
+                containers = (cookie >>> 16) + 1;
+                runFlags = new byte[(containers + 7) / 8];
+                data.get(runFlags);
+            } else if (cookie == SERIAL_COOKIE_NO_RUNCONTAINER) {
+                containers = data.getInt();
+                runFlags = null;
+            } else {
+                throw new IllegalStateException("Unknown Roaring serialization format");
+            }
+            keys = new int[containers];
+            cards = new int[containers];
+            for (int k = 0; k < containers; ++k) {
+                keys[k] = nextShort();
+                cards[k] = nextShort() + 1;
+            }
+            if (runFlags == null || containers >= NO_OFFSET_THRESHOLD) {
+                data.position(data.position() + 4 * containers);
+            }
+        }
+
+        int nextShort() {
+            return data.getShort() & 0xFFFF;
+        }
+
+        boolean isRun(int k) {
+            return runFlags != null && (runFlags[k / 8] & (1 << (k % 8))) != 0;
+        }
+
+        /**
+         * Reads the next container, which must be container <i>k</i>, into
+         * an array of words.
+         */
+        void readWords(int k, long[] words) {
+            if (isRun(k)) {
+                Arrays.fill(words, 0L);
+                int nbrruns = nextShort();
+                for (int r = 0; r < nbrruns; ++r) {
+                    int start = nextShort();
+                    int length = nextShort() + 1;
+                    Raw64Bitmap.setRange(words, start, start + length);
+                }
+            } else if (cards[k] > ARRAY_MAX_SIZE) {
+                data.asLongBuffer().get(words);
+                data.position(data.position() + 8 * WORDS_IN_CONTAINER);
+            } else {
+                Arrays.fill(words, 0L);
+                for (int i = 0; i < cards[k]; ++i) {
+                    int pos = nextShort();
+                    words[pos >>> 6] |= 1L << pos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulates containers given as arrays of words, in increasing key
+     * order, and turns them into a Roaring bitmap through its portable
+     * serialization format.
+     */
+    private static class ContainerWriter {
+        private final List<Integer> keys = new ArrayList<Integer>();
+        private final List<Integer> cards = new ArrayList<Integer>();
+        private final List<Object> contents = new ArrayList<Object>();
+        private int bytes = 0;
+
+        /**
+         * Makes a key the current destination container, flushing the
+         * words of the previous one if the key changes.
+         * @return The new current key
+         */
+        int switchTo(int key, int current, long[] words) {
+            if (key != current) {
+                flush(current, words);
+            }
+            return key;
+        }
+
+        void flush(int key, long[] words) {
+            if (key < 0) {
+                return;
+            }
+            int card = 0;
+            for (long w : words) {
+                card += Long.bitCount(w);
+            }
+            if (card > 0) {
+                if (card > ARRAY_MAX_SIZE) {
+                    contents.add(words.clone());
+                    bytes += 8 * WORDS_IN_CONTAINER;
+                } else {
+                    short[] values = new short[card];
+                    int i = 0;
+                    for (int w = 0; w < WORDS_IN_CONTAINER; ++w) {
+                        long word = words[w];
+                        while (word != 0) {
+                            values[i++] = (short) (w * 64 + Long.numberOfTrailingZeros(word));
+                            word &= word - 1;
+                        }
+                    }
+                    contents.add(values);
+                    bytes += 2 * card;
+                }
+                keys.add(key);
+                cards.add(card);
+            }
+            Arrays.fill(words, 0L);
+        }
+
+        org.roaringbitmap.RoaringBitmap toBitmap() {
+            int n = keys.size();
+            ByteBuffer out = ByteBuffer.allocate(8 + 8 * n + bytes).order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(SERIAL_COOKIE_NO_RUNCONTAINER);
+            out.putInt(n);
+            for (int k = 0; k < n; ++k) {
+                out.putShort((short) keys.get(k).intValue());
+                out.putShort((short) (cards.get(k) - 1));
+            }
+            int offset = out.position() + 4 * n;
+            for (int k = 0; k < n; ++k) {
+                out.putInt(offset);
+                offset += cards.get(k) > ARRAY_MAX_SIZE ? 8 * WORDS_IN_CONTAINER : 2 * cards.get(k);
+            }
+            for (int k = 0; k < n; ++k) {
+                Object c = contents.get(k);
+                if (c instanceof long[]) {
+                    for (long w : (long[]) c) {
+                        out.putLong(w);
+                    }
+                } else {
+                    for (short v : (short[]) c) {
+                        out.putShort(v);
+                    }
+                }
+            }
+            org.roaringbitmap.RoaringBitmap bm = new org.roaringbitmap.RoaringBitmap();
+            try {
+                bm.deserialize(new DataInputStream(new ByteArrayInputStream(out.array())));
+            } catch (IOException e) {
+                // Cannot happen when reading from memory
+                throw new IllegalStateException(e);
+            }
+            return bm;
+        }
     }
 
     @Override
     public void add(boolean bit) {
         if (bit) {
+            unshare();
             bitmap.add(size);
+            optimized = false;
         }
+        runs = null;
         ++size;
     }
 
     @Override
     public void addMany(boolean bit, int count) {
+        if (count <= 0) {
+            return;
+        }
         if (bit) {
-            for (int i = size; i < size + count; ++i) {
-                bitmap.add(i);
-            }
+            unshare();
+            bitmap.add(size, size + count);
+            optimized = false;
         }
+        runs = null;
         size += count;
     }
 
@@ -82,6 +391,7 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public int getRealSize() {
+        optimize();
         return bitmap.getSizeInBytes();
     }
 
@@ -95,18 +405,35 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
         return bitmap.getCardinality();
     }
 
+    @Override
+    public int nextSetBit(int from) {
+        return runs().nextSetBit(from);
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        return runs().nextClearBit(from);
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        return runs().prevSetBit(from);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        return runs().prevClearBit(from);
+    }
+
     @Override
     public int last0() {
-        IntIterator i = bitmap.getReverseIntIterator();
-        int lastpos = size - 1;
-        while (i.hasNext()) {
-            int pos = i.next();
-            if (pos != lastpos) {
-                break;
-            }
-            --lastpos;
+        if (size == 0) {
+            return -1;
+        }
+        if (!bitmap.contains(size - 1)) {
+            return size - 1;
         }
-        return lastpos;
+        return runs().last0();
     }
 
     @Override
@@ -121,6 +448,7 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opNot() {
+        optimize();
         org.roaringbitmap.RoaringBitmap bm = bitmap.clone();
         bm.flip(0, size);
         return new RoaringBitmap(bm, size);
@@ -128,13 +456,17 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
-        org.roaringbitmap.RoaringBitmap left = bitmap.clone();
-        left.and(((RoaringBitmap) bm).bitmap);
+        optimize();
+        ((RoaringBitmap) bm).optimize();
+        org.roaringbitmap.RoaringBitmap left = org.roaringbitmap.RoaringBitmap.and(bitmap,
+                ((RoaringBitmap) bm).bitmap);
         return new RoaringBitmap(left, Math.max(size, bm.size()));
     }
 
     @Override
     public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        optimize();
+        ((RoaringBitmap) bm).optimize();
         org.roaringbitmap.RoaringBitmap r = org.roaringbitmap.RoaringBitmap.or(bitmap,
                 ((RoaringBitmap) bm).bitmap);
         return new RoaringBitmap(r, Math.max(size, bm.size()));
@@ -142,34 +474,203 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
 
     @Override
     public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        optimize();
+        ((RoaringBitmap) bm).optimize();
         org.roaringbitmap.RoaringBitmap r = org.roaringbitmap.RoaringBitmap.xor(bitmap,
                 ((RoaringBitmap) bm).bitmap);
         return new RoaringBitmap(r, Math.max(size, bm.size()));
     }
 
     @Override
-    public LTLBitmap.BitmapAdapter removeFirstBit() {
-        org.roaringbitmap.RoaringBitmap bm = new org.roaringbitmap.RoaringBitmap();
-        if (size == 0) {
-            return new RoaringBitmap(bm, 0);
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        optimize();
+        ((RoaringBitmap) bm).optimize();
+        org.roaringbitmap.RoaringBitmap r = org.roaringbitmap.RoaringBitmap.andNot(bitmap,
+                ((RoaringBitmap) bm).bitmap);
+        return new RoaringBitmap(r, Math.max(size, bm.size()));
+    }
+
+    /**
+     * Computes this &or; &not;<i>bm</i> as &not;(<i>bm</i> &and; &not;this),
+     * flipping the intermediate result in place.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        optimize();
+        ((RoaringBitmap) bm).optimize();
+        int newSize = Math.max(size, bm.size());
+        org.roaringbitmap.RoaringBitmap r = org.roaringbitmap.RoaringBitmap.andNot(
+                ((RoaringBitmap) bm).bitmap, bitmap);
+        r.flip(0, newSize);
+        return new RoaringBitmap(r, newSize);
+    }
+
+    /**
+     * Uses the aggregation of the library, which intersects the operands
+     * from the smallest one up and only visits the containers they all
+     * have.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return new RoaringBitmap(FastAggregation.and(operands(bms)), maxSize(bms));
+    }
+
+    /**
+     * Uses the aggregation of the library, which merges the containers
+     * of all the operands key by key without intermediate bitmaps.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return new RoaringBitmap(FastAggregation.or(operands(bms)), maxSize(bms));
+    }
+
+    private org.roaringbitmap.RoaringBitmap[] operands(LTLBitmap.BitmapAdapter[] bms) {
+        org.roaringbitmap.RoaringBitmap[] operands = new org.roaringbitmap.RoaringBitmap[bms.length + 1];
+        optimize();
+        operands[0] = bitmap;
+        for (int i = 0; i < bms.length; ++i) {
+            RoaringBitmap bm = (RoaringBitmap) bms[i];
+            bm.optimize();
+            operands[i + 1] = bm.bitmap;
         }
+        return operands;
+    }
 
-        IntIterator i = bitmap.getIntIterator();
-        while (i.hasNext()) {
-            int pos = i.next();
-            if (pos == 0) {
-                continue;
+    private int maxSize(LTLBitmap.BitmapAdapter[] bms) {
+        int n = size;
+        for (LTLBitmap.BitmapAdapter bm : bms) {
+            n = Math.max(n, bm.size());
+        }
+        return n;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        return shiftLeft(1);
+    }
+
+    /**
+     * Drops the first <i>k</i> bits of this bitmap and moves all other
+     * bits <i>k</i> positions to the left. The bitmap is never decoded into
+     * individual positions: each container is expanded into its 1024
+     * words, which are shifted as a whole into the (at most two)
+     * destination containers.
+     * @param k The number of positions to shift
+     * @return A new bitmap of size {@link #size()} - <i>k</i>
+     */
+    public RoaringBitmap shiftLeft(int k) {
+        if (k <= 0) {
+            return (RoaringBitmap) clone();
+        }
+        if (k >= size) {
+            return new RoaringBitmap();
+        }
+        optimize();
+        SerializedContainers in = new SerializedContainers(bitmap);
+        ContainerWriter out = new ContainerWriter();
+        int wordShift = k >>> 6;
+        int bitShift = k & 63;
+        long[] src = new long[WORDS_IN_CONTAINER];
+        long[] dst = new long[WORDS_IN_CONTAINER];
+        int dstKey = -1;
+        for (int c = 0; c < in.containers; ++c) {
+            in.readWords(c, src);
+            int firstWord = in.keys[c] * WORDS_IN_CONTAINER - wordShift;
+            for (int w = 0; w < WORDS_IN_CONTAINER; ++w) {
+                long word = src[w];
+                if (word == 0) {
+                    continue;
+                }
+                // Lower destination word first, so that keys only increase
+                int d = firstWord + w;
+                if (bitShift != 0 && d >= 1) {
+                    dstKey = out.switchTo((d - 1) / WORDS_IN_CONTAINER, dstKey, dst);
+                    dst[(d - 1) % WORDS_IN_CONTAINER] |= word << (64 - bitShift);
+                }
+                if (d >= 0) {
+                    dstKey = out.switchTo(d / WORDS_IN_CONTAINER, dstKey, dst);
+                    dst[d % WORDS_IN_CONTAINER] |= word >>> bitShift;
+                }
             }
-            bm.add(pos - 1);
         }
+        out.flush(dstKey, dst);
+        return new RoaringBitmap(out.toBitmap(), size - k);
+    }
+
+    @Override
+    public void notInPlace() {
+        unshare();
+        bitmap.flip(0, size);
+        optimized = false;
+        runs = null;
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        RoaringBitmap right = (RoaringBitmap) bm;
+        // The in-place operators of this version of the library can leave
+        // null entries among the containers, so the result is a new bitmap
+        optimize();
+        right.optimize();
+        bitmap = org.roaringbitmap.RoaringBitmap.and(bitmap, right.bitmap);
+        size = Math.max(size, right.size);
+        shared = false;
+        optimized = false;
+        runs = null;
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        RoaringBitmap right = (RoaringBitmap) bm;
+        optimize();
+        right.optimize();
+        bitmap = org.roaringbitmap.RoaringBitmap.or(bitmap, right.bitmap);
+        size = Math.max(size, right.size);
+        shared = false;
+        optimized = false;
+        runs = null;
+    }
 
-        return new RoaringBitmap(bm, size - 1);
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        RoaringBitmap right = (RoaringBitmap) bm;
+        optimize();
+        right.optimize();
+        bitmap = org.roaringbitmap.RoaringBitmap.xor(bitmap, right.bitmap);
+        size = Math.max(size, right.size);
+        shared = false;
+        optimized = false;
+        runs = null;
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        RoaringBitmap bm = (RoaringBitmap) removeFirstBit();
+        bitmap = bm.bitmap;
+        size = bm.size;
+        optimized = bm.optimized;
+        runs = null;
+        shared = bm.shared;
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        RoaringBitmap other = (RoaringBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        other.optimize();
+        other.shared = true;
+        bitmap = other.bitmap;
+        size = other.size;
+        runs = other.runs;
+        optimized = true;
+        shared = true;
     }
 
     @Override
     public LTLBitmap.BitmapAdapter clone() {
-        org.roaringbitmap.RoaringBitmap bm = bitmap.clone();
-        return new RoaringBitmap(bm, size);
+        return new RoaringBitmap(this);
     }
 
     @Override
@@ -234,12 +735,8 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
             if (isEnd) {
                 throw new IndexOutOfBoundsException();
             }
-            for (int i = index; i < size; ++i) {
-                if (get(i) == false) {
-                    return new Iterator(i);
-                }
-            }
-            return null;
+            int pos = runs().nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
         }
 
         @Override
@@ -247,12 +744,9 @@ public class RoaringBitmap implements LTLBitmap.BitmapAdapter {
             if (isEnd) {
                 throw new IndexOutOfBoundsException();
             }
-            for (int i = index; i < size; ++i) {
-                if (get(i) == true) {
-                    return new Iterator(i);
-                }
-            }
-            return null;        }
+            int pos = runs().nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
 
         @Override
         public boolean currentBit() {
@@ -0,0 +1,623 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Bitmap stored as the sorted list of its runs of 1s. Run <i>k</i> covers
+ * the positions from <code>bounds[2k]</code> (inclusive) to
+ * <code>bounds[2k+1]</code> (exclusive); everything else is 0. Runs are
+ * kept maximal, so two consecutive runs are always separated by at least
+ * one 0.
+ * <p>
+ * Appending a block of identical bits is O(1), and finding the next 0 or 1
+ * from a position is a binary search in the run array. The temporal
+ * operators, which hop from run to run, therefore cost O(number of runs)
+ * instead of O(trace length).
+ */
+public class RunBitmap implements LTLBitmap.BitmapAdapter {
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+    private static final int OP_AND_NOT = 3;
+
+    private int[] bounds;
+
+    /**
+     * Number of used entries in {@link #bounds}; always even.
+     */
+    private int count;
+
+    private int size;
+
+    /**
+     * Set when {@link #bounds} is shared with a clone; the array is then
+     * copied before the next run is appended or extended.
+     */
+    private boolean shared = false;
+
+    public RunBitmap() {
+        this(new int[8], 0, 0);
+    }
+
+    private RunBitmap(int[] bounds, int count, int size) {
+        this.bounds = bounds;
+        this.count = count;
+        this.size = size;
+    }
+
+    /**
+     * Appends the run [start, end) of 1s, merging it with the last run if
+     * they touch. Runs must be appended in increasing order.
+     */
+    private void appendRun(int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        if (shared) {
+            bounds = Arrays.copyOf(bounds, Math.max(count + 2, bounds.length));
+            shared = false;
+        }
+        if (count > 0 && bounds[count - 1] == start) {
+            bounds[count - 1] = end;
+            return;
+        }
+        if (count + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[count++] = start;
+        bounds[count++] = end;
+    }
+
+    /**
+     * Finds the last run starting at or before a position.
+     * @return The index of the run, or -1 if every run starts after the
+     * position
+     */
+    private int runAt(int pos) {
+        int lo = 0, hi = count / 2 - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bounds[2 * mid] <= pos) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int k = runAt(from);
+        if (k >= 0 && from < bounds[2 * k + 1]) {
+            return from;
+        }
+        if (2 * (k + 1) < count) {
+            return bounds[2 * (k + 1)];
+        }
+        return -1;
+    }
+
+    @Override
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int k = runAt(from);
+        if (k >= 0 && from < bounds[2 * k + 1]) {
+            int end = bounds[2 * k + 1];
+            return end < size ? end : -1;
+        }
+        return from;
+    }
+
+    @Override
+    public int prevSetBit(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        from = Math.min(from, size - 1);
+        int k = runAt(from);
+        if (k < 0) {
+            return -1;
+        }
+        return Math.min(from, bounds[2 * k + 1] - 1);
+    }
+
+    @Override
+    public int prevClearBit(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        from = Math.min(from, size - 1);
+        int k = runAt(from);
+        if (k >= 0 && from < bounds[2 * k + 1]) {
+            return bounds[2 * k] - 1;
+        }
+        return from;
+    }
+
+    /**
+     * Gets the number of runs of 1s.
+     */
+    int runCount() {
+        return count / 2;
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (bit) {
+            appendRun(size, size + count);
+        }
+        size += count;
+    }
+
+    @Override
+    public boolean get(int position) {
+        if (position >= size || position < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        int k = runAt(position);
+        return k >= 0 && position < bounds[2 * k + 1];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getRealSize() {
+        return count * 4;
+    }
+
+    @Override
+    public boolean firstBit() {
+        return count > 0 && bounds[0] == 0;
+    }
+
+    @Override
+    public int cardinality() {
+        int card = 0;
+        for (int i = 0; i < count; i += 2) {
+            card += bounds[i + 1] - bounds[i];
+        }
+        return card;
+    }
+
+    @Override
+    public int last0() {
+        if (size == 0) {
+            return -1;
+        }
+        if (count == 0 || bounds[count - 1] < size) {
+            return size - 1;
+        }
+        return bounds[count - 2] - 1;
+    }
+
+    @Override
+    public int last1() {
+        if (count == 0) {
+            return -1;
+        }
+        return bounds[count - 1] - 1;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opNot() {
+        RunBitmap bm = new RunBitmap(new int[count + 2], 0, size);
+        int pos = 0;
+        for (int i = 0; i < count; i += 2) {
+            bm.appendRun(pos, bounds[i]);
+            pos = bounds[i + 1];
+        }
+        bm.appendRun(pos, size);
+        return bm;
+    }
+
+    /**
+     * Combines two run lists in a single sweep over their boundaries.
+     */
+    private RunBitmap combine(RunBitmap right, int op) {
+        RunBitmap bm = new RunBitmap(new int[Math.max(count + right.count, 2)], 0,
+                Math.max(size, right.size));
+        int i = 0, j = 0;
+        boolean inLeft = false, inRight = false, inResult = false;
+        int start = 0;
+        while (i < count || j < right.count) {
+            int pos;
+            if (j >= right.count || (i < count && bounds[i] <= right.bounds[j])) {
+                pos = bounds[i];
+            } else {
+                pos = right.bounds[j];
+            }
+            // Consume every boundary located at this position
+            while (i < count && bounds[i] == pos) {
+                inLeft = !inLeft;
+                ++i;
+            }
+            while (j < right.count && right.bounds[j] == pos) {
+                inRight = !inRight;
+                ++j;
+            }
+            boolean value;
+            if (op == OP_AND) {
+                value = inLeft && inRight;
+            } else if (op == OP_OR) {
+                value = inLeft || inRight;
+            } else if (op == OP_XOR) {
+                value = inLeft ^ inRight;
+            } else {
+                value = inLeft && !inRight;
+            }
+            if (value != inResult) {
+                if (value) {
+                    start = pos;
+                } else {
+                    bm.appendRun(start, pos);
+                }
+                inResult = value;
+            }
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAnd(LTLBitmap.BitmapAdapter bm) {
+        return combine((RunBitmap) bm, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOr(LTLBitmap.BitmapAdapter bm) {
+        return combine((RunBitmap) bm, OP_OR);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opXor(LTLBitmap.BitmapAdapter bm) {
+        return combine((RunBitmap) bm, OP_XOR);
+    }
+
+    /**
+     * Moves the bounds of the runs by <i>k</i>, dropping the runs that
+     * end before it.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter shiftLeft(int k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        if (k >= size) {
+            return new RunBitmap();
+        }
+        RunBitmap bm = new RunBitmap(new int[Math.max(count, 2)], 0, size - k);
+        for (int i = 0; i < count; i += 2) {
+            if (bounds[i + 1] > k) {
+                bm.appendRun(Math.max(bounds[i] - k, 0), bounds[i + 1] - k);
+            }
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndNot(LTLBitmap.BitmapAdapter bm) {
+        return combine((RunBitmap) bm, OP_AND_NOT);
+    }
+
+    /**
+     * Computes this &or; &not;<i>bm</i> as &not;(<i>bm</i> &and; &not;this),
+     * since the sweep of {@link #combine(RunBitmap, int)} only emits runs
+     * that start at a boundary of an operand.
+     */
+    @Override
+    public LTLBitmap.BitmapAdapter opOrNot(LTLBitmap.BitmapAdapter bm) {
+        return ((RunBitmap) bm).combine(this, OP_AND_NOT).opNot();
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opAndAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter opOrAll(LTLBitmap.BitmapAdapter[] bms) {
+        return combineAll(bms, OP_OR);
+    }
+
+    /**
+     * Combines many run lists in a single sweep over their boundaries. A
+     * heap holds the operands ordered by their next boundary, and a
+     * counter tells how many of them are inside a run at the current
+     * position, so each step costs O(log <i>n</i>) for <i>n</i> operands.
+     */
+    private RunBitmap combineAll(LTLBitmap.BitmapAdapter[] bms, int op) {
+        int n = bms.length + 1;
+        RunBitmap[] operands = new RunBitmap[n];
+        operands[0] = this;
+        int newSize = size;
+        for (int j = 1; j < n; ++j) {
+            operands[j] = (RunBitmap) bms[j - 1];
+            newSize = Math.max(newSize, operands[j].size);
+        }
+        // Index in the bounds of each operand of its next boundary
+        int[] next = new int[n];
+        int[] heap = new int[n];
+        int heapSize = 0;
+        for (int j = 0; j < n; ++j) {
+            if (operands[j].count > 0) {
+                heap[heapSize] = j;
+                siftUp(heap, heapSize++, operands, next);
+            }
+        }
+        RunBitmap bm = new RunBitmap(new int[8], 0, newSize);
+        int inside = 0;
+        boolean inResult = false;
+        int start = 0;
+        while (heapSize > 0) {
+            int pos = operands[heap[0]].bounds[next[heap[0]]];
+            // Consume every boundary located at this position
+            while (heapSize > 0 && operands[heap[0]].bounds[next[heap[0]]] == pos) {
+                int j = heap[0];
+                inside += (next[j] & 1) == 0 ? 1 : -1;
+                if (++next[j] == operands[j].count) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, operands, next);
+            }
+            boolean value = op == OP_AND ? inside == n : inside > 0;
+            if (value != inResult) {
+                if (value) {
+                    start = pos;
+                } else {
+                    bm.appendRun(start, pos);
+                }
+                inResult = value;
+            }
+            if (op == OP_AND && heapSize < n) {
+                // An operand has no run left, so neither has the result
+                break;
+            }
+        }
+        return bm;
+    }
+
+    private static void siftUp(int[] heap, int i, RunBitmap[] operands, int[] next) {
+        int j = heap[i];
+        int key = operands[j].bounds[next[j]];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (operands[p].bounds[next[p]] <= key) {
+                break;
+            }
+            heap[i] = p;
+            i = parent;
+        }
+        heap[i] = j;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, RunBitmap[] operands, int[] next) {
+        if (heapSize == 0) {
+            return;
+        }
+        int i = 0;
+        int j = heap[0];
+        int key = operands[j].bounds[next[j]];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            int c = heap[child];
+            if (child + 1 < heapSize) {
+                int d = heap[child + 1];
+                if (operands[d].bounds[next[d]] < operands[c].bounds[next[c]]) {
+                    c = d;
+                    ++child;
+                }
+            }
+            if (operands[c].bounds[next[c]] >= key) {
+                break;
+            }
+            heap[i] = c;
+            i = child;
+        }
+        heap[i] = j;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter removeFirstBit() {
+        if (size == 0) {
+            return new RunBitmap();
+        }
+        RunBitmap bm = new RunBitmap(new int[Math.max(count, 2)], 0, size - 1);
+        for (int i = 0; i < count; i += 2) {
+            bm.appendRun(Math.max(bounds[i] - 1, 0), bounds[i + 1] - 1);
+        }
+        return bm;
+    }
+
+    /**
+     * Takes over the runs of a newly computed bitmap.
+     */
+    private void become(RunBitmap bm) {
+        bounds = bm.bounds;
+        count = bm.count;
+        size = bm.size;
+        shared = bm.shared;
+    }
+
+    @Override
+    public void notInPlace() {
+        become((RunBitmap) opNot());
+    }
+
+    @Override
+    public void andInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((RunBitmap) bm, OP_AND));
+    }
+
+    @Override
+    public void orInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((RunBitmap) bm, OP_OR));
+    }
+
+    @Override
+    public void xorInPlace(LTLBitmap.BitmapAdapter bm) {
+        become(combine((RunBitmap) bm, OP_XOR));
+    }
+
+    @Override
+    public void removeFirstBitInPlace() {
+        if (size == 0) {
+            return;
+        }
+        if (shared) {
+            become((RunBitmap) removeFirstBit());
+            return;
+        }
+        // Shifting keeps the runs apart, except for a first run of length
+        // 1 at position 0, which disappears
+        int j = 0;
+        for (int i = 0; i < count; i += 2) {
+            int start = Math.max(bounds[i] - 1, 0);
+            int end = bounds[i + 1] - 1;
+            if (start < end) {
+                bounds[j++] = start;
+                bounds[j++] = end;
+            }
+        }
+        count = j;
+        --size;
+    }
+
+    @Override
+    public void assign(LTLBitmap.BitmapAdapter bm) {
+        RunBitmap other = (RunBitmap) bm;
+        if (other == this) {
+            return;
+        }
+        become(other);
+        shared = true;
+        other.shared = true;
+    }
+
+    @Override
+    public LTLBitmap.BitmapAdapter clone() {
+        RunBitmap bm = new RunBitmap(bounds, count, size);
+        bm.shared = true;
+        shared = true;
+        return bm;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size);
+        int pos = 0;
+        for (int i = 0; i < count; i += 2) {
+            for (; pos < bounds[i]; ++pos) {
+                sb.append("0");
+            }
+            for (; pos < bounds[i + 1]; ++pos) {
+                sb.append("1");
+            }
+        }
+        for (; pos < size; ++pos) {
+            sb.append("0");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator begin() {
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.BitmapIterator end() {
+        return new Iterator(size);
+    }
+
+    class Iterator implements LTLBitmap.BitmapIterator {
+        private int index;
+
+        Iterator(int index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(int offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find0() {
+            int pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.BitmapIterator find1() {
+            int pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return get(index);
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Long-indexed bitmap made of a sequence of ordinary bitmaps, the
+ * segments, all of the same type. Every segment but the last one holds
+ * exactly {@link #getSegmentInBits()} positions, so a position is found
+ * with one division, and a trace can hold as many positions as there are
+ * segments times their size. With a compressed type such as
+ * {@link LTLBitmap.Type#EWAH} or {@link LTLBitmap.Type#ROARING}, each
+ * segment is compressed on its own.
+ * <p>
+ * Connectives are applied segment by segment. Temporal operators only
+ * carry one bit from a segment to the one before it: X moves the first
+ * bit of each segment to the end of the previous one, and U, W, R and M
+ * evaluate the segments from last to first, using the first bit of the
+ * result of a segment as the end of the trace for the one before.
+ */
+public class SegmentedBitmap implements LTLBitmap.LongBitmapAdapter {
+    /**
+     * Default number of positions per segment
+     */
+    public static final int DEFAULT_SEGMENT_IN_BITS = 1 << 30;
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+
+    private final LTLBitmap.Type type;
+
+    private final int segmentInBits;
+
+    private final List<LTLBitmap.BitmapAdapter> segments;
+
+    private long size;
+
+    public SegmentedBitmap(LTLBitmap.Type type) {
+        this(type, DEFAULT_SEGMENT_IN_BITS);
+    }
+
+    public SegmentedBitmap(LTLBitmap.Type type, int segmentInBits) {
+        if (segmentInBits <= 0) {
+            throw new InvalidParameterException();
+        }
+        this.type = type;
+        this.segmentInBits = segmentInBits;
+        this.segments = new ArrayList<LTLBitmap.BitmapAdapter>();
+        this.size = 0;
+    }
+
+    /**
+     * Gets the type of the segments of this bitmap.
+     */
+    public LTLBitmap.Type getType() {
+        return type;
+    }
+
+    public int getSegmentInBits() {
+        return segmentInBits;
+    }
+
+    private SegmentedBitmap sameShape() {
+        return new SegmentedBitmap(type, segmentInBits);
+    }
+
+    private void append(LTLBitmap.BitmapAdapter segment) {
+        segments.add(segment);
+        size += segment.size();
+    }
+
+    private SegmentedBitmap operand(LTLBitmap.LongBitmapAdapter bm) {
+        SegmentedBitmap other = (SegmentedBitmap) bm;
+        if (other.segmentInBits != segmentInBits) {
+            throw new IllegalArgumentException("Bitmaps have different segment sizes");
+        }
+        return other;
+    }
+
+    private LTLBitmap.BitmapAdapter segmentOrEmpty(int k) {
+        return k < segments.size() ? segments.get(k) : LTLBitmap.createAdapter(type);
+    }
+
+    @Override
+    public void add(boolean bit) {
+        addMany(bit, 1);
+    }
+
+    @Override
+    public void addMany(boolean bit, long count) {
+        while (count > 0) {
+            LTLBitmap.BitmapAdapter last;
+            if (segments.isEmpty() || segments.get(segments.size() - 1).size() == segmentInBits) {
+                last = LTLBitmap.createAdapter(type);
+                segments.add(last);
+            } else {
+                last = segments.get(segments.size() - 1);
+            }
+            int n = (int) Math.min(count, segmentInBits - last.size());
+            last.addMany(bit, n);
+            size += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public boolean get(long position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return segments.get((int) (position / segmentInBits)).get((int) (position % segmentInBits));
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long getRealSize() {
+        long real = 0;
+        for (LTLBitmap.BitmapAdapter segment : segments) {
+            real += segment.getRealSize();
+        }
+        return real;
+    }
+
+    @Override
+    public boolean firstBit() {
+        return size > 0 && segments.get(0).firstBit();
+    }
+
+    @Override
+    public long cardinality() {
+        long card = 0;
+        for (LTLBitmap.BitmapAdapter segment : segments) {
+            card += segment.cardinality();
+        }
+        return card;
+    }
+
+    @Override
+    public long last0() {
+        for (int k = segments.size() - 1; k >= 0; --k) {
+            int pos = segments.get(k).last0();
+            if (pos != -1) {
+                return (long) k * segmentInBits + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long last1() {
+        for (int k = segments.size() - 1; k >= 0; --k) {
+            int pos = segments.get(k).last1();
+            if (pos != -1) {
+                return (long) k * segmentInBits + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long nextSetBit(long from) {
+        return next(from, true);
+    }
+
+    @Override
+    public long nextClearBit(long from) {
+        return next(from, false);
+    }
+
+    @Override
+    public long prevSetBit(long from) {
+        return prev(from, true);
+    }
+
+    @Override
+    public long prevClearBit(long from) {
+        return prev(from, false);
+    }
+
+    private long next(long from, boolean bit) {
+        if (from < 0) {
+            from = 0;
+        }
+        for (int k = (int) (from / segmentInBits); k < segments.size(); ++k) {
+            long base = (long) k * segmentInBits;
+            LTLBitmap.BitmapAdapter segment = segments.get(k);
+            int local = (int) Math.max(0, from - base);
+            int pos = bit ? segment.nextSetBit(local) : segment.nextClearBit(local);
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    private long prev(long from, boolean bit) {
+        if (from < 0 || size == 0) {
+            return -1;
+        }
+        from = Math.min(from, size - 1);
+        for (int k = (int) (from / segmentInBits); k >= 0; --k) {
+            long base = (long) k * segmentInBits;
+            LTLBitmap.BitmapAdapter segment = segments.get(k);
+            int local = (int) Math.min(segment.size() - 1, from - base);
+            int pos = bit ? segment.prevSetBit(local) : segment.prevClearBit(local);
+            if (pos != -1) {
+                return base + pos;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opNot() {
+        SegmentedBitmap bm = sameShape();
+        for (LTLBitmap.BitmapAdapter segment : segments) {
+            bm.append(segment.opNot());
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opAnd(LTLBitmap.LongBitmapAdapter bm) {
+        return combine(operand(bm), OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opOr(LTLBitmap.LongBitmapAdapter bm) {
+        return combine(operand(bm), OP_OR);
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opXor(LTLBitmap.LongBitmapAdapter bm) {
+        return combine(operand(bm), OP_XOR);
+    }
+
+    private SegmentedBitmap combine(SegmentedBitmap other, int op) {
+        SegmentedBitmap bm = sameShape();
+        int count = Math.max(segments.size(), other.segments.size());
+        for (int k = 0; k < count; ++k) {
+            LTLBitmap.BitmapAdapter left = segmentOrEmpty(k);
+            LTLBitmap.BitmapAdapter right = other.segmentOrEmpty(k);
+            switch (op) {
+                case OP_AND:
+                    bm.append(left.opAnd(right));
+                    break;
+                case OP_OR:
+                    bm.append(left.opOr(right));
+                    break;
+                default:
+                    bm.append(left.opXor(right));
+                    break;
+            }
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opAndAll(LTLBitmap.LongBitmapAdapter[] bms) {
+        return combineAll(bms, OP_AND);
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter opOrAll(LTLBitmap.LongBitmapAdapter[] bms) {
+        return combineAll(bms, OP_OR);
+    }
+
+    /**
+     * Combines the segments at each index with the bulk operator of their
+     * type.
+     */
+    private SegmentedBitmap combineAll(LTLBitmap.LongBitmapAdapter[] bms, int op) {
+        SegmentedBitmap[] others = new SegmentedBitmap[bms.length];
+        int count = segments.size();
+        for (int i = 0; i < bms.length; ++i) {
+            others[i] = operand(bms[i]);
+            count = Math.max(count, others[i].segments.size());
+        }
+        SegmentedBitmap bm = sameShape();
+        for (int k = 0; k < count; ++k) {
+            LTLBitmap.BitmapAdapter[] rights = new LTLBitmap.BitmapAdapter[others.length];
+            for (int i = 0; i < others.length; ++i) {
+                rights[i] = others[i].segmentOrEmpty(k);
+            }
+            LTLBitmap.BitmapAdapter left = segmentOrEmpty(k);
+            bm.append(op == OP_AND ? left.opAndAll(rights) : left.opOrAll(rights));
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter removeFirstBit() {
+        SegmentedBitmap bm = sameShape();
+        for (int k = 0; k < segments.size(); ++k) {
+            LTLBitmap.BitmapAdapter shifted = segments.get(k).removeFirstBit();
+            if (k + 1 < segments.size()) {
+                shifted.add(segments.get(k + 1).firstBit());
+            }
+            if (shifted.size() > 0) {
+                bm.append(shifted);
+            }
+        }
+        return bm;
+    }
+
+    /**
+     * Drops the first <i>k</i> / {@link #getSegmentInBits()} segments and
+     * shifts the others by the rest, completing each with the start of
+     * the next one.
+     */
+    @Override
+    public LTLBitmap.LongBitmapAdapter shiftLeft(long k) {
+        if (k < 0) {
+            throw new InvalidParameterException();
+        }
+        SegmentedBitmap bm = sameShape();
+        if (k >= size) {
+            return bm;
+        }
+        int first = (int) (k / segmentInBits);
+        int offset = (int) (k % segmentInBits);
+        for (int j = first; j < segments.size(); ++j) {
+            LTLBitmap.BitmapAdapter shifted = segments.get(j).shiftLeft(offset);
+            if (offset > 0 && j + 1 < segments.size()) {
+                LTLBitmap.BitmapAdapter next = segments.get(j + 1);
+                LTLBitmap.appendRange(next, 0, Math.min(offset, next.size()), shifted);
+            }
+            if (shifted.size() > 0) {
+                bm.append(shifted);
+            }
+        }
+        return bm;
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapAdapter clone() {
+        SegmentedBitmap bm = sameShape();
+        for (LTLBitmap.BitmapAdapter segment : segments) {
+            bm.append(segment.clone());
+        }
+        return bm;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (LTLBitmap.BitmapAdapter segment : segments) {
+            sb.append(segment.toString());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapIterator begin() {
+        return new Iterator(0);
+    }
+
+    @Override
+    public LTLBitmap.LongBitmapIterator end() {
+        return new Iterator(size);
+    }
+
+    /**
+     * @see LTLBitmap#padTo(LTLBitmap.BitmapAdapter, int)
+     */
+    static SegmentedBitmap padTo(SegmentedBitmap bm, long size) {
+        if (bm.size() >= size) {
+            return bm;
+        }
+        SegmentedBitmap answer = (SegmentedBitmap) bm.clone();
+        answer.addMany(false, size - answer.size());
+        return answer;
+    }
+
+    /**
+     * Evaluates an until-like operator segment by segment, from the last
+     * to the first. The result of a segment only depends on the rest of
+     * the trace through the value of the result right after it, which is
+     * passed to {@link LTLBitmap#runUntil} as the bit past its end.
+     *
+     * @param parallel Evaluator used for each segment, or null to evaluate
+     *   them on the calling thread
+     * @see LTLBitmap#runUntil
+     */
+    static LTLBitmap.LongBitmapAdapter runUntil(LTLBitmap.LongBitmapAdapter left,
+                                                LTLBitmap.LongBitmapAdapter right,
+                                                boolean dual, boolean weak,
+                                                ParallelUntil parallel) {
+        long size = Math.max(left.size(), right.size());
+        SegmentedBitmap a = padTo((SegmentedBitmap) left, size);
+        SegmentedBitmap b = padTo(a.operand(right), size);
+        int count = a.segments.size();
+        LTLBitmap.BitmapAdapter[] results = new LTLBitmap.BitmapAdapter[count];
+        // The bit past the end, with 0s and 1s exchanged if dual
+        boolean carry = weak;
+        for (int k = count - 1; k >= 0; --k) {
+            LTLBitmap.BitmapAdapter l = a.segments.get(k);
+            LTLBitmap.BitmapAdapter r = b.segments.get(k);
+            results[k] = parallel == null
+                    ? LTLBitmap.runUntil(a.type, l, r, dual, carry)
+                    : parallel.run(a.type, l, r, dual, carry);
+            carry = results[k].firstBit() != dual;
+        }
+        SegmentedBitmap bm = a.sameShape();
+        for (LTLBitmap.BitmapAdapter segment : results) {
+            bm.append(segment);
+        }
+        return bm;
+    }
+
+    class Iterator implements LTLBitmap.LongBitmapIterator {
+        private long index;
+
+        Iterator(long index) {
+            if (index > size || index < 0) {
+                throw new InvalidParameterException();
+            }
+            this.index = index;
+        }
+
+        @Override
+        public long index() {
+            return index;
+        }
+
+        @Override
+        public void moveForward(long offset) {
+            if (offset < 0) {
+                throw new InvalidParameterException();
+            }
+            if (index + offset > size) {
+                throw new InvalidParameterException();
+            }
+            index += offset;
+        }
+
+        @Override
+        public LTLBitmap.LongBitmapIterator find0() {
+            long pos = nextClearBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public LTLBitmap.LongBitmapIterator find1() {
+            long pos = nextSetBit(index);
+            return pos == -1 ? null : new Iterator(pos);
+        }
+
+        @Override
+        public boolean currentBit() {
+            if (index == size) {
+                throw new IndexOutOfBoundsException();
+            }
+            return get(index);
+        }
+
+        @Override
+        public boolean isEnd() {
+            return index == size;
+        }
+    }
+}
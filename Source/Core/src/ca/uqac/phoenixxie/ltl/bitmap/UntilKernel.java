@@ -0,0 +1,276 @@
+/*
+  LTL bitmap palette for BeepBeep
+  Copyright (C) 2016-2020 Kun Xie and Sylvain Hallé
+
+  This program is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.phoenixxie.ltl.bitmap;
+
+import java.nio.LongBuffer;
+
+/**
+ * Word-parallel evaluation of U, W, R and M. The recurrence
+ * <i>r</i>[i] = <i>b</i>[i] | (<i>a</i>[i] &amp; <i>r</i>[i+1]) is a carry
+ * chain running from the end of the trace to its start, where <i>b</i>
+ * generates a carry and <i>a</i> propagates it. Each 64-bit word is solved
+ * with six shift steps, and only one bit of carry crosses from a word to
+ * the previous one.
+ * <p>
+ * The run-hopping algorithm of {@link LTLBitmap} does a few searches per
+ * run, which is cheap on long runs; this kernel does a fixed amount of work
+ * per word, which is cheaper when runs are shorter than a few words.
+ */
+final class UntilKernel {
+    /**
+     * The kernel is used when the compressed inputs take at least this
+     * fraction (1/n) of the space of one uncompressed input, meaning that
+     * runs are on average only a few words long.
+     */
+    private static final int DENSITY_RATIO = 8;
+
+    private UntilKernel() {
+    }
+
+    /**
+     * Decides whether the kernel should be preferred over run hopping for
+     * two operands of the same size. Only formats whose words can be read
+     * directly qualify: for the others, decoding to words already costs one
+     * search per run, which is what run hopping does.
+     */
+    static boolean prefersWords(LTLBitmap.BitmapAdapter left, LTLBitmap.BitmapAdapter right) {
+        int n = left.size();
+        if (n < Raw64Bitmap.WORD_IN_BITS) {
+            return false;
+        }
+        if (left instanceof Raw64Bitmap || left instanceof OffHeapBitmap) {
+            return true;
+        }
+        if (left instanceof EWAH64Bitmap || left instanceof EWAH32Bitmap) {
+            long compressed = (long) left.getRealSize() + right.getRealSize();
+            return compressed * DENSITY_RATIO >= n / 8;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates an until-like operator with the kernel. The flags have the
+     * same meaning as in {@link LTLBitmap#until}.
+     */
+    static LTLBitmap.BitmapAdapter run(LTLBitmap.Type type, LTLBitmap.BitmapAdapter left,
+                                       LTLBitmap.BitmapAdapter right, boolean dual, boolean weak) {
+        int n = left.size();
+        if (left instanceof OffHeapBitmap) {
+            return until((OffHeapBitmap) left, (OffHeapBitmap) right, dual, weak);
+        }
+        long[] result = until(toWords(left), toWords(right), n, dual, weak);
+        return fromWords(type, result, n);
+    }
+
+    /**
+     * Computes an until-like operator over word arrays.
+     *
+     * @param a The words of the left operand
+     * @param b The words of the right operand
+     * @param n The number of positions
+     * @param dual If set, 0s and 1s are exchanged in the operands and in
+     *   the result, which turns U into R and W into M
+     * @param weak Value of the carry past the end of the trace
+     * @return The words of the result; bits past <i>n</i> are 0
+     */
+    static long[] until(long[] a, long[] b, int n, boolean dual, boolean weak) {
+        int nwords = Raw64Bitmap.wordsFor(n);
+        long[] result = new long[Math.max(nwords, 1)];
+        solve(a, b, result, 0, nwords, n, dual, weak, weak, false);
+        return result;
+    }
+
+    /**
+     * Computes an until-like operator over off-heap words, writing the
+     * result to a new off-heap bitmap.
+     */
+    static OffHeapBitmap until(OffHeapBitmap left, OffHeapBitmap right, boolean dual, boolean weak) {
+        int n = left.size();
+        int nwords = Raw64Bitmap.wordsFor(n);
+        LongBuffer a = left.words();
+        LongBuffer b = right.words();
+        OffHeapBitmap answer = new OffHeapBitmap(nwords, n);
+        LongBuffer result = answer.words();
+        long tail = Raw64Bitmap.tailMask(n);
+        boolean carry = weak;
+        for (int u = nwords - 1; u >= 0; --u) {
+            long g = dual ? ~b.get(u) : b.get(u);
+            long p = dual ? ~a.get(u) : a.get(u);
+            if (u == nwords - 1) {
+                p &= tail;
+                g = (g & tail) | (weak ? ~tail : 0L);
+            }
+            g = solveWord(g, p, carry);
+            carry = (g & 1L) != 0;
+            long word = dual ? ~g : g;
+            if (u == nwords - 1) {
+                word &= tail;
+            }
+            result.put(u, word);
+        }
+        return answer;
+    }
+
+    /**
+     * Solves the words in [<i>from</i>, <i>to</i>), from the last one to
+     * the first. The parameters are those of {@link #until}, plus:
+     *
+     * @param result The array receiving the words of the result
+     * @param carry The value entering the range from the position after
+     *   it; it is taken with 0s and 1s exchanged when <i>dual</i> is set
+     * @param patch If set, <i>result</i> already holds the solution of the
+     *   range for a 0 carry, and the walk stops at the first word that is
+     *   left unchanged, since all words before it are then unchanged too
+     * @return The value leaving the range from its first position, in the
+     *   same convention as <i>carry</i>
+     */
+    static boolean solve(long[] a, long[] b, long[] result, int from, int to, int n,
+                         boolean dual, boolean weak, boolean carry, boolean patch) {
+        int last = Raw64Bitmap.wordsFor(n) - 1;
+        long tail = Raw64Bitmap.tailMask(n);
+        for (int u = to - 1; u >= from; --u) {
+            long g = dual ? ~b[u] : b[u];
+            long p = dual ? ~a[u] : a[u];
+            if (u == last) {
+                // Positions past the end generate the final carry
+                p &= tail;
+                g = (g & tail) | (weak ? ~tail : 0L);
+            }
+            g = solveWord(g, p, carry);
+            carry = (g & 1L) != 0;
+            long word = dual ? ~g : g;
+            if (u == last) {
+                word &= tail;
+            }
+            if (patch && result[u] == word) {
+                break;
+            }
+            result[u] = word;
+        }
+        return carry;
+    }
+
+    /**
+     * Solves one word of the recurrence.
+     *
+     * @param g The positions generating a 1
+     * @param p The positions propagating the value of the next position
+     * @param carry The value entering from the position after the word
+     * @return The word of the result
+     */
+    static long solveWord(long g, long p, boolean carry) {
+        if (p == 0) {
+            return g;
+        }
+        // The signed shifts fill p with its top bit, so that a run of
+        // propagating positions reaching the word end stays open
+        g |= p & (g >>> 1);
+        p &= p >> 1;
+        g |= p & (g >>> 2);
+        p &= p >> 2;
+        g |= p & (g >>> 4);
+        p &= p >> 4;
+        g |= p & (g >>> 8);
+        p &= p >> 8;
+        g |= p & (g >>> 16);
+        p &= p >> 16;
+        g |= p & (g >>> 32);
+        p &= p >> 32;
+        // p now holds the positions that propagate up to the word end
+        return carry ? g | p : g;
+    }
+
+    /**
+     * Tells whether every position in the words [<i>from</i>,
+     * <i>to</i>) propagates a carry, that is, whether the value entering
+     * the range reaches its first position.
+     */
+    static boolean propagates(long[] a, int from, int to, boolean dual) {
+        long all = dual ? 0L : ~0L;
+        for (int u = from; u < to; ++u) {
+            if (a[u] != all) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the content of a bitmap as 64-bit words. Word-based adapters
+     * copy their words directly; the others are decoded run by run.
+     */
+    static long[] toWords(LTLBitmap.BitmapAdapter bm) {
+        if (bm instanceof Raw64Bitmap) {
+            return ((Raw64Bitmap) bm).words();
+        }
+        if (bm instanceof EWAH64Bitmap) {
+            return ((EWAH64Bitmap) bm).toWords();
+        }
+        if (bm instanceof EWAH32Bitmap) {
+            return ((EWAH32Bitmap) bm).toWords();
+        }
+        int n = bm.size();
+        long[] words = new long[Math.max(Raw64Bitmap.wordsFor(n), 1)];
+        int pos = bm.nextSetBit(0);
+        while (pos != -1) {
+            int end = bm.nextClearBit(pos);
+            if (end == -1) {
+                end = n;
+            }
+            Raw64Bitmap.setRange(words, pos, end);
+            pos = bm.nextSetBit(end);
+        }
+        return words;
+    }
+
+    /**
+     * Builds a bitmap of the given type from 64-bit words.
+     */
+    static LTLBitmap.BitmapAdapter fromWords(LTLBitmap.Type type, long[] words, int n) {
+        Raw64Bitmap raw = new Raw64Bitmap(words, n);
+        switch (type) {
+            case RAW64:
+                return raw;
+            case EWAH:
+                return EWAH64Bitmap.fromWords(words, n);
+            case EWAH32:
+                return EWAH32Bitmap.fromWords(words, n);
+            default:
+                break;
+        }
+        LTLBitmap.BitmapAdapter answer = LTLBitmap.createAdapter(type);
+        int pos = 0;
+        while (pos < n) {
+            int one = raw.nextSetBit(pos);
+            if (one == -1) {
+                one = n;
+            }
+            answer.addMany(false, one - pos);
+            if (one == n) {
+                break;
+            }
+            int zero = raw.nextClearBit(one);
+            if (zero == -1) {
+                zero = n;
+            }
+            answer.addMany(true, zero - one);
+            pos = zero;
+        }
+        return answer;
+    }
+}